@@ -21,8 +21,21 @@ import info.rsdev.xb4j.model.bindings.Reference;
 import info.rsdev.xb4j.model.bindings.Root;
 import info.rsdev.xb4j.model.bindings.UnmarshallResult;
 import info.rsdev.xb4j.model.java.JavaContext;
+import info.rsdev.xb4j.util.LocationTracking;
+import info.rsdev.xb4j.util.PipelinedTokenizer;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
-import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.Marker;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
+import info.rsdev.xb4j.util.ReaderLimits;
+import info.rsdev.xb4j.util.RecordingBudget;
+import info.rsdev.xb4j.util.RootElementSniffer;
+import info.rsdev.xb4j.util.StaxFactories;
+import info.rsdev.xb4j.util.Utf8XmlTokenizer;
+import info.rsdev.xb4j.util.XmlStreamFactory;
+import info.rsdev.xb4j.util.XmlTokenizer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
@@ -31,6 +44,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +65,28 @@ public class BindingModel {
 
     private final Map<QName, ComplexType> complexTypes = new ConcurrentHashMap<>();
 
+    /**
+     * Canonical instances of the element and attribute names, shared by all documents that are unmarshalled with this model
+     */
+    private final QNameTable symbolTable = new QNameTable();
+
+    /**
+     * The maximum number of bytes that are read ahead to determine the root element of a stream
+     */
+    private static final int MAX_SNIFF_SIZE = 8 * 1024;
+
+    private volatile RecordingBudget recordingBudget = RecordingBudget.UNLIMITED;
+
+    private volatile ReaderLimits readerLimits = ReaderLimits.UNLIMITED;
+
+    private volatile Schema schema = null;
+
+    private volatile StaxFactories staxFactories = null;
+
+    private volatile boolean memoizing = false;
+
+    private volatile boolean pipelined = false;
+
     /**
      * Get the {@link XmlStreamer} that is capable of marshalling / unmarshalling the given Java class. When there are multiple
      * bindings for the same Java class, E.g. when there are different xml representations for it, a selector must be provided.
@@ -67,16 +103,97 @@ public class BindingModel {
         }
 
         //make binding immutable on first use so we can guarantee marshall/unmarshall results will be the same every time it is used
+        makeImmutable(binding);
+        return new XmlStreamer(binding);
+    }
+
+    /**
+     * Get the {@link XmlStreamer} for the root element of the xml document in the given bytes. The root element is determined from
+     * the first bytes of the document by the {@link RootElementSniffer}, without parsing it.
+     *
+     * @param xml the bytes that contain the start of the xml document
+     * @param offset the index of the first byte of the document
+     * @param length the number of bytes available
+     * @return the {@link XmlStreamer} for the root element, or null when the root element can not be determined from the bytes
+     * @throws Xb4jException when there is no binding for the root element
+     */
+    public XmlStreamer getXmlStreamer(byte[] xml, int offset, int length) {
+        QName element = RootElementSniffer.sniff(xml, offset, length);
+        return element == null ? null : getXmlStreamer(element);
+    }
+
+    private XmlStreamer getXmlStreamer(QName element) {
+        Root binding = xmlToClass.get(element);
+        if (binding == null) {
+            throw new Xb4jException(String.format("No binding found for xml element %s", element));
+        }
+        makeImmutable(binding);
+        return new XmlStreamer(binding);
+    }
+
+    /**
+     * Make the binding immutable and adopt the names of it's binding tree in the symbol table, once, before it is first used
+     */
+    private void makeImmutable(Root binding) {
         ISemaphore semaphore = binding.getSemaphore();
         semaphore.lock();
         try {
-            binding.makeImmutable();
-            return new XmlStreamer(binding);
+            if (!binding.isImmutable()) {
+                binding.makeImmutable();
+                binding.adoptNames(symbolTable);
+            }
         } finally {
             semaphore.unlock();
         }
     }
 
+    /**
+     * Read Java object tree from the given xml stream. The binding is chosen from the root element, that is determined from the
+     * first bytes of the stream, which are read ahead and buffered, so that the stream is parsed only once, by the binding of the
+     * root element. A gzip compressed stream is decompressed transparently. The stream is not closed.
+     *
+     * @param stream the xml stream
+     * @return the Java object tree read from the xml stream
+     * @throws Xb4jException when there is no binding for the root element, or when something went wrong during unmarshalling
+     */
+    public Object toJava(InputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        InputStream markable = XmlStreamFactory.decompress(stream);
+        XmlStreamer streamer = null;
+        boolean canTokenize = false;
+        try {
+            byte[] prolog = new byte[RootElementSniffer.DEFAULT_SNIFF_SIZE];
+            int length = 0;
+            int read = 0;
+            markable.mark(MAX_SNIFF_SIZE);
+            while ((streamer == null) && (length < MAX_SNIFF_SIZE) && ((read = markable.read(prolog, length,
+                    prolog.length - length)) >= 0)) {
+                length += read;
+                streamer = getXmlStreamer(prolog, 0, length);
+                if ((length == prolog.length) && (length < MAX_SNIFF_SIZE)) {
+                    prolog = Arrays.copyOf(prolog, prolog.length * 2);
+                }
+            }
+            canTokenize = XmlStreamFactory.canUseUtf8Tokenizer(getStaxFactories())
+                    && Utf8XmlTokenizer.canTokenize(prolog, length);
+            markable.reset();
+        } catch (IOException e) {
+            throw new Xb4jException("Exception occured when reading from xml stream", e);
+        }
+        XmlTokenizer tokenizer = null;
+        try {
+            tokenizer = canTokenize ? new Utf8XmlTokenizer(markable) : XmlStreamFactory.makeTokenizer(markable, getStaxFactories());
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Cannot create XmlTokenizer", e);
+        }
+        if (streamer == null) { // the root element could not be sniffed; find it by parsing
+            return toJava(tokenizer, LocationTracking.FULL);
+        }
+        return streamer.toJava(tokenizer, LocationTracking.FULL);
+    }
+
     /**
      * <p>
      * Read Java object tree from the given xml stream. At least the first start element is read, in order to determine if this
@@ -91,42 +208,95 @@ public class BindingModel {
      * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
      */
     public Object toJava(XMLStreamReader reader) {
+        return toJava(reader, LocationTracking.FULL);
+    }
+
+    /**
+     * Read Java object tree from the given xml stream, like {@link #toJava(XMLStreamReader)}, but keep track of the location of
+     * every parse event as indicated. Use {@link LocationTracking#NONE} to reduce the number of objects created per parse event,
+     * at the expense of less precise locations in error messages.
+     *
+     * @param reader the xml stream reader
+     * @param locationTracking the way the location of parse events is retained
+     * @return the Java object tree read from the xml stream
+     * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
+     */
+    public Object toJava(XMLStreamReader reader, LocationTracking locationTracking) {
+        return toJava(XmlStreamFactory.makeTokenizer(reader), locationTracking);
+    }
+
+    /**
+     * Read Java object tree from the xml stream that is read by the given {@link XmlTokenizer}, like
+     * {@link #toJava(XMLStreamReader, LocationTracking)}. Use {@link XmlStreamFactory#makeTokenizer(java.io.InputStream)} to read
+     * UTF-8 encoded xml with the built-in {@link info.rsdev.xb4j.util.Utf8XmlTokenizer}.
+     *
+     * @param tokenizer the xml tokenizer
+     * @param locationTracking the way the location of parse events is retained
+     * @return the Java object tree read from the xml stream
+     * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
+     */
+    public Object toJava(XmlTokenizer tokenizer, LocationTracking locationTracking) {
         RecordAndPlaybackXMLStreamReader staxReader = null;
+        PipelinedTokenizer pipeline = null;
         try {
-            staxReader = new RecordAndPlaybackXMLStreamReader(reader);
-            Marker startMarker = staxReader.startRecording();
-            if (staxReader.nextTag() == XMLStreamReader.START_ELEMENT) {
-                QName element = staxReader.getName();
-                staxReader.rewindAndPlayback(startMarker);
-                if (xmlToClass.containsKey(element)) {
-                    Root binding = xmlToClass.get(element);
-
-                    //make binding immutable on first use so we can guarantee marshall/unmarshall results will be the same every time it is used
-                    ISemaphore semaphore = binding.getSemaphore();
-                    semaphore.lock();
-                    try {
-                        binding.makeImmutable();
-                    } finally {
-                        semaphore.unlock();
-                    }
-
-                    UnmarshallResult result = binding.toJava(staxReader, new JavaContext(null));
-                    if (result.isUnmarshallSuccessful()) {
-                        return result.getUnmarshalledObject();
-                    } else {
-                        throw new Xb4jException(result.getErrorMessage());
-                    }
-
-                } else {
-                    throw new Xb4jException(String.format("No binding found for xml element %s", element));
-                }
+            if (pipelined) {
+                pipeline = new PipelinedTokenizer(tokenizer, locationTracking);
+                tokenizer = pipeline;
             }
+            staxReader = newReader(tokenizer, locationTracking);
+            return toJava(staxReader);
         } catch (XMLStreamException e) {
             throw new Xb4jException("Exception occured when reading from xml stream", e);
         } finally {
             if (staxReader != null) {
                 staxReader.close();
             }
+            if (pipeline != null) {
+                pipeline.close();
+            }
+        }
+    }
+
+    /**
+     * Create a reader for the given tokenizer with the settings of this {@link BindingModel}
+     */
+    RecordAndPlaybackXMLStreamReader newReader(XmlTokenizer tokenizer, LocationTracking locationTracking)
+            throws XMLStreamException {
+        RecordAndPlaybackXMLStreamReader staxReader = new RecordAndPlaybackXMLStreamReader(tokenizer, locationTracking,
+                symbolTable, recordingBudget);
+        staxReader.setLimits(readerLimits);
+        staxReader.setSchema(schema);
+        staxReader.setMemoizing(memoizing);
+        return staxReader;
+    }
+
+    /**
+     * Read the Java object tree from the document that the reader is positioned before, with the binding of it's root element
+     *
+     * @param staxReader the reader, positioned before the root element
+     * @return the Java object tree, or null when the document has no root element
+     * @throws Xb4jException when there is no binding for the root element, or it could not be unmarshalled
+     */
+    Object toJava(RecordAndPlaybackXMLStreamReader staxReader) throws XMLStreamException {
+        ParseEventData rootEvent = staxReader.peekTag();
+        if (rootEvent.getEventType() == XMLStreamReader.START_ELEMENT) {
+            QName element = rootEvent.getName();
+            if (xmlToClass.containsKey(element)) {
+                Root binding = xmlToClass.get(element);
+
+                //make binding immutable on first use so we can guarantee marshall/unmarshall results will be the same every time it is used
+                makeImmutable(binding);
+
+                UnmarshallResult result = binding.toJava(staxReader, new JavaContext(null));
+                if (result.isUnmarshallSuccessful()) {
+                    return result.getUnmarshalledObject();
+                } else {
+                    throw new Xb4jException(result.getErrorMessage());
+                }
+
+            } else {
+                throw new Xb4jException(String.format("No binding found for xml element %s", element));
+            }
         }
         return null;
     }
@@ -209,6 +379,7 @@ public class BindingModel {
         /* A Java class can be bound to multiple Root-bindings, but each binding must use a different QName.
          */
         xmlToClass.put(element, binding);
+        symbolTable.adopt(element);
         LinkedList<Root> boundToClass = classToXml.get(javaType);
         if (boundToClass == null) {
             boundToClass = new LinkedList<>();
@@ -230,6 +401,115 @@ public class BindingModel {
         return binding;
     }
 
+    /**
+     * Get the symbol table that holds the canonical {@link QName} instances of the elements and attributes read by this model
+     *
+     * @return the {@link QNameTable} of this model
+     */
+    QNameTable getSymbolTable() {
+        return this.symbolTable;
+    }
+
+    /**
+     * Limit the memory that is used to record parse events while unmarshalling a document. Parse events are recorded when the
+     * xml can be read in more than one way, e.g. to try the options of a {@link info.rsdev.xb4j.model.bindings.Choice}. When a
+     * recording exceeds the budget, the oldest recorded events are moved to a temporary file.
+     *
+     * @param recordingBudget the {@link RecordingBudget} for every document unmarshalled with this model
+     */
+    public void setRecordingBudget(RecordingBudget recordingBudget) {
+        if (recordingBudget == null) {
+            throw new NullPointerException("RecordingBudget cannot be null");
+        }
+        this.recordingBudget = recordingBudget;
+    }
+
+    public RecordingBudget getRecordingBudget() {
+        return this.recordingBudget;
+    }
+
+    /**
+     * Limit the xml that is accepted when unmarshalling a document, e.g. the depth of nested elements and the length of texts, to
+     * protect the heap and the stack against hostile or broken input. When a limit is exceeded, an
+     * {@link info.rsdev.xb4j.exceptions.Xb4jUnmarshallException} is thrown.
+     *
+     * @param readerLimits the {@link ReaderLimits} for every document unmarshalled with this model
+     */
+    public void setReaderLimits(ReaderLimits readerLimits) {
+        if (readerLimits == null) {
+            throw new NullPointerException("ReaderLimits cannot be null");
+        }
+        this.readerLimits = readerLimits;
+    }
+
+    public ReaderLimits getReaderLimits() {
+        return this.readerLimits;
+    }
+
+    /**
+     * Validate every document that is unmarshalled with this model against the given schema, while it is read for unmarshalling,
+     * instead of parsing it an extra time for validation. The {@link Schema} is compiled once, e.g. with
+     * {@link javax.xml.validation.SchemaFactory#newSchema(java.net.URL)}, and shared by all documents. When a document is invalid,
+     * an {@link info.rsdev.xb4j.exceptions.Xb4jUnmarshallException} with the location of the violation is thrown.
+     *
+     * @param schema the schema to validate against, or null to not validate
+     */
+    public void setSchema(Schema schema) {
+        this.schema = schema;
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Set the {@link StaxFactories} that create the StAX readers and writers for this model, e.g. to tune the properties of the StAX
+     * implementation or to protect against DTD processing. The factories are created once and shared by all documents. UTF-8
+     * encoded documents are read by the faster {@link info.rsdev.xb4j.util.Utf8XmlTokenizer} only when the factories are
+     * {@link StaxFactories#DEFAULT}, so that the properties of configured factories always apply.
+     *
+     * @param staxFactories the factories to use, or null to use {@link XmlStreamFactory#getDefaultStaxFactories()}
+     */
+    public void setStaxFactories(StaxFactories staxFactories) {
+        this.staxFactories = staxFactories;
+    }
+
+    public StaxFactories getStaxFactories() {
+        StaxFactories factories = this.staxFactories;
+        return factories == null ? XmlStreamFactory.getDefaultStaxFactories() : factories;
+    }
+
+    /**
+     * Switch memoization on or off for every document unmarshalled with this model. When memoization is on, the bindings that did
+     * not match the xml at a position on the tape of the reader are remembered, so that they are not evaluated again when the same
+     * xml is played back after a rewind. Memoization only saves work: the result of unmarshalling a document is the same, whether
+     * it is switched on or not.
+     *
+     * @param memoizing true to switch memoization on, false to switch it off (the default)
+     */
+    public void setMemoizing(boolean memoizing) {
+        this.memoizing = memoizing;
+    }
+
+    public boolean isMemoizing() {
+        return this.memoizing;
+    }
+
+    /**
+     * Switch pipelined parsing on or off for every document unmarshalled with this model. When pipelined, the xml stream is
+     * tokenized by a {@link PipelinedTokenizer} on a separate thread, while the bindings consume the events on the calling thread.
+     * This pays off for large documents on machines with idle cores; the outcome of unmarshalling is the same.
+     *
+     * @param pipelined true to tokenize on a separate thread, false to tokenize on the calling thread (the default)
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public boolean isPipelined() {
+        return this.pipelined;
+    }
+
     /**
      * Register a {@link ComplexType} with this binding model, provided that no complex type with the same namespace and identifier 
      * has already been registered. 
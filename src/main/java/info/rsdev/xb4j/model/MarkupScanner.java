@@ -0,0 +1,293 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Find the tags of an xml document in it's bytes, without parsing it: comments, CDATA sections, processing instructions, document
+ * type declarations and quoted attribute values are recognized, so that the '&lt;' and '&gt;' in them are not mistaken for tags.
+ * The bytes can be scanned in any number of blocks; the state is kept between them. The positions that are reported to the
+ * {@link Listener} are positions in the whole document. Scanning stops at the end of the root element.</p>
+ * <p>
+ * The document must be encoded in UTF-8 or another encoding that is compatible with US-ASCII. This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+final class MarkupScanner {
+
+    /**
+     * Receives the tags that are found
+     */
+    interface Listener {
+
+        /**
+         * A start tag is found; the name of the element is available from {@link MarkupScanner#getName()}
+         *
+         * @param depth the number of elements that the element is nested in; 0 for the root element
+         * @param tagStart the position of the '&lt;' of the tag
+         * @param tagEnd the position after the '&gt;' of the tag
+         * @param empty true when the tag is an empty element tag, that is not followed by an end tag
+         */
+        void startTag(int depth, long tagStart, long tagEnd, boolean empty);
+
+        /**
+         * An end tag is found
+         *
+         * @param depth the number of elements that the element is nested in; 0 for the root element
+         * @param tagEnd the position after the '&gt;' of the tag
+         */
+        void endTag(int depth, long tagEnd);
+    }
+
+    /**
+     * The states of the scanner; they are the kind of markup that the last scanned byte is part of
+     */
+    private enum State {
+        TEXT, TAG_OPEN, START_TAG, END_TAG, PROCESSING_INSTRUCTION, DECLARATION, COMMENT, CDATA, DOCTYPE
+    }
+
+    private final Listener listener;
+
+    private State state = State.TEXT;
+
+    private int depth = 0;
+
+    /**
+     * The number of times the significant byte of the current state is repeated, e.g. the dashes before the end of a comment
+     */
+    private int repeats = 0;
+
+    private byte quote = 0;
+
+    private int brackets = 0;
+
+    private byte previous = 0;
+
+    private long tagStart = 0;
+
+    private boolean readingName = false;
+
+    private byte[] name = new byte[32];
+
+    private int nameLength = 0;
+
+    private boolean complete = false;
+
+    MarkupScanner(Listener listener) {
+        this(listener, 0);
+    }
+
+    /**
+     * Create a {@link MarkupScanner} that starts scanning inside elements, between the tags of the content of the innermost element,
+     * e.g. to resume scanning a document after the end of a child element of the root element
+     *
+     * @param listener the receiver of the tags that are found
+     * @param depth the number of elements that are open where scanning starts
+     */
+    MarkupScanner(Listener listener, int depth) {
+        if (listener == null) {
+            throw new NullPointerException("Listener cannot be null");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException(String.format("Depth cannot be negative: %d", depth));
+        }
+        this.listener = listener;
+        this.depth = depth;
+    }
+
+    /**
+     * Scan the next block of bytes of the document
+     *
+     * @param bytes the array that holds the block
+     * @param from the index of the first byte of the block
+     * @param to the index after the last byte of the block
+     * @param offset the position in the document of the byte at index 0 of the array
+     * @return the index after the end of the root element, or the end of the block when the root element did not end in it
+     * @throws Xb4jException when the bytes are not in an encoding that is compatible with US-ASCII, or the tags do not match up
+     */
+    int scan(byte[] bytes, int from, int to, long offset) {
+        for (int i = from; (i < to) && !complete; i++) {
+            byte b = bytes[i];
+            if ((b == 0) && (depth == 0)) {
+                throw new Xb4jException("Only xml encoded in UTF-8 or an encoding that is compatible with US-ASCII is supported");
+            }
+            switch (state) {
+                case TEXT:
+                    if (b == '<') {
+                        state = State.TAG_OPEN;
+                        tagStart = offset + i;
+                    }
+                    break;
+                case TAG_OPEN:
+                    if (b == '/') {
+                        state = State.END_TAG;
+                    } else if (b == '?') {
+                        state = State.PROCESSING_INSTRUCTION;
+                    } else if (b == '!') {
+                        state = State.DECLARATION;
+                    } else {
+                        state = State.START_TAG;
+                        quote = 0;
+                        readingName = true;
+                        nameLength = 0;
+                        appendName(b);
+                    }
+                    break;
+                case START_TAG:
+                    if (quote != 0) {
+                        if (b == quote) {
+                            quote = 0;
+                        }
+                    } else if ((b == '"') || (b == '\'')) {
+                        quote = b;
+                    } else if (b == '>') {
+                        state = State.TEXT;
+                        readingName = false;
+                        boolean empty = previous == '/';
+                        listener.startTag(depth, tagStart, offset + i + 1, empty);
+                        if (!empty) {
+                            depth++;
+                        } else if (depth == 0) {
+                            complete = true;
+                            return i + 1;
+                        }
+                    } else if (readingName) {
+                        if ((b == ' ') || (b == '\t') || (b == '\r') || (b == '\n') || (b == '/')) {
+                            readingName = false;
+                        } else {
+                            appendName(b);
+                        }
+                    }
+                    break;
+                case END_TAG:
+                    if (b == '>') {
+                        state = State.TEXT;
+                        if (--depth < 0) {
+                            throw new Xb4jException(String.format("End tag without start tag at byte %d", offset + i));
+                        }
+                        listener.endTag(depth, offset + i + 1);
+                        if (depth == 0) {
+                            complete = true;
+                            return i + 1;
+                        }
+                    }
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    if ((b == '>') && (previous == '?')) {
+                        state = State.TEXT;
+                    }
+                    break;
+                case DECLARATION:
+                    repeats = 0;
+                    if (b == '-') {
+                        state = State.COMMENT;
+                        repeats = -1; // the second dash of the comment start does not count
+                    } else if (b == '[') {
+                        state = State.CDATA;
+                    } else {
+                        state = State.DOCTYPE;
+                        quote = 0;
+                        brackets = 0;
+                    }
+                    break;
+                case COMMENT:
+                    repeats = endOfSection(b, (byte) '-');
+                    break;
+                case CDATA:
+                    repeats = endOfSection(b, (byte) ']');
+                    break;
+                case DOCTYPE:
+                    if (quote != 0) {
+                        if (b == quote) {
+                            quote = 0;
+                        }
+                    } else if ((b == '"') || (b == '\'')) {
+                        quote = b;
+                    } else if (b == '[') {
+                        brackets++;
+                    } else if (b == ']') {
+                        brackets--;
+                    } else if ((b == '>') && (brackets == 0)) {
+                        state = State.TEXT;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException(String.format("Unknown state %s", state));
+            }
+            previous = b;
+        }
+        return to;
+    }
+
+    /**
+     * Count the repeats of the byte that terminates a comment or CDATA section, and leave the section when it is terminated
+     */
+    private int endOfSection(byte b, byte terminator) {
+        if (b == terminator) {
+            return repeats + 1;
+        }
+        if ((b == '>') && (repeats >= 2)) {
+            state = State.TEXT;
+        }
+        return 0;
+    }
+
+    private void appendName(byte b) {
+        if (nameLength == name.length) {
+            name = Arrays.copyOf(name, nameLength * 2);
+        }
+        name[nameLength++] = b;
+    }
+
+    /**
+     * Get the name of the last start tag, as it is written in the document, e.g. <code>ns:record</code>
+     *
+     * @return the bytes of the name
+     */
+    byte[] getName() {
+        return Arrays.copyOf(name, nameLength);
+    }
+
+    /**
+     * Check whether the name of the last start tag is the given name
+     *
+     * @param expected the bytes of the name as it is written in the document
+     * @return true when the name matches
+     */
+    boolean isName(byte[] expected) {
+        if (expected.length != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the end of the root element is scanned
+     *
+     * @return true when the document is complete
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+}
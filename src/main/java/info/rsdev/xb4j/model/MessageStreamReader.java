@@ -0,0 +1,254 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.util.LocationTracking;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
+import info.rsdev.xb4j.util.Utf8XmlTokenizer;
+import info.rsdev.xb4j.util.XmlStreamFactory;
+import info.rsdev.xb4j.util.XmlTokenizer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * <p>
+ * Read a stream of xml messages, e.g. from a long-lived connection, and unmarshall every message with the binding of it's root
+ * element in the {@link BindingModel}. The messages are handed out one at a time by {@link #next()}, or to a callback by
+ * {@link #forEachRemaining(java.util.function.Consumer)}. The messages are either:</p>
+ * <ul>
+ * <li>{@link Framing#CONCATENATED concatenated}: the documents directly follow each other. A message ends at the end of it's root
+ * element, without reading further from the stream. The messages must be UTF-8 encoded.</li>
+ * <li>{@link Framing#LENGTH_PREFIXED length prefixed}: every message is preceded by it's length in bytes, as a four byte big-endian
+ * integer. The messages may be in any encoding, but UTF-8 messages are read fastest.</li>
+ * </ul>
+ * <p>
+ * The tokenizer, with it's buffers and decoded names, and the {@link RecordAndPlaybackXMLStreamReader} with it's tape are reused
+ * for all messages, so that the cost of a message is the cost of reading it. When a message can not be unmarshalled, an
+ * {@link Xb4jException} is thrown. Reading can continue with the next message when the messages are length prefixed; concatenated
+ * messages can not be read further.</p>
+ * <p>
+ * The stream is not closed by this reader. This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public class MessageStreamReader implements Iterator<Object> {
+
+    /**
+     * The way the boundaries between the messages in the stream are marked
+     */
+    public enum Framing {
+        CONCATENATED, LENGTH_PREFIXED
+    }
+
+    private final BindingModel model;
+
+    private final InputStream stream;
+
+    private final Framing framing;
+
+    private final LocationTracking locationTracking;
+
+    /**
+     * The tokenizer for UTF-8 messages that is reused for every message; created on first use
+     */
+    private Utf8XmlTokenizer tokenizer = null;
+
+    private RecordAndPlaybackXMLStreamReader staxReader = null;
+
+    /**
+     * The length prefixed message that is read last
+     */
+    private byte[] frame = new byte[0];
+
+    private int frameLength = 0;
+
+    private boolean hasNext = false;
+
+    private boolean endOfStream = false;
+
+    private long messageCount = 0;
+
+    /**
+     * Create a {@link MessageStreamReader} that tracks the location of every parse event
+     *
+     * @param model the {@link BindingModel} with the bindings of the root elements of the messages
+     * @param stream the stream of messages
+     * @param framing the way the boundaries between the messages are marked
+     */
+    public MessageStreamReader(BindingModel model, InputStream stream, Framing framing) {
+        this(model, stream, framing, LocationTracking.FULL);
+    }
+
+    /**
+     * Create a {@link MessageStreamReader}
+     *
+     * @param model the {@link BindingModel} with the bindings of the root elements of the messages
+     * @param stream the stream of messages
+     * @param framing the way the boundaries between the messages are marked
+     * @param locationTracking the way the location of parse events is retained
+     */
+    public MessageStreamReader(BindingModel model, InputStream stream, Framing framing, LocationTracking locationTracking) {
+        if (model == null) {
+            throw new NullPointerException("BindingModel cannot be null");
+        }
+        if (stream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        if (framing == null) {
+            throw new NullPointerException("Framing cannot be null");
+        }
+        if (locationTracking == null) {
+            throw new NullPointerException("LocationTracking cannot be null");
+        }
+        this.model = model;
+        this.stream = stream;
+        this.framing = framing;
+        this.locationTracking = locationTracking;
+    }
+
+    /**
+     * Check whether there is another message. This waits until the start of the next message or the end of the stream is read.
+     *
+     * @return true when there is another message
+     * @throws Xb4jException when the stream could not be read
+     */
+    @Override
+    public boolean hasNext() {
+        if (!hasNext && !endOfStream) {
+            try {
+                hasNext = framing == Framing.LENGTH_PREFIXED ? readFrame() : nextDocument();
+            } catch (IOException | XMLStreamException e) {
+                throw new Xb4jException(String.format("Exception occured when reading message %d", messageCount + 1), e);
+            }
+            endOfStream = !hasNext;
+        }
+        return hasNext;
+    }
+
+    /**
+     * Read the next message and unmarshall it
+     *
+     * @return the Java object tree of the next message
+     * @throws NoSuchElementException when there are no more messages
+     * @throws Xb4jException when the message could not be read or unmarshalled
+     */
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException(String.format("The stream has no more messages after %d messages", messageCount));
+        }
+        hasNext = false;
+        messageCount++;
+        try {
+            XmlTokenizer messageTokenizer = tokenizer;
+            if (framing == Framing.LENGTH_PREFIXED) {
+                if (Utf8XmlTokenizer.canTokenize(frame, frameLength)) {
+                    messageTokenizer = reuseTokenizer(new ByteArrayInputStream(frame, 0, frameLength));
+                } else {
+                    messageTokenizer = XmlStreamFactory.makeTokenizer(frame, 0, frameLength, model.getStaxFactories());
+                }
+            }
+            if (staxReader == null) {
+                staxReader = model.newReader(messageTokenizer, locationTracking);
+            } else {
+                staxReader.reset(messageTokenizer);
+            }
+            Object message = model.toJava(staxReader);
+            if (message == null) {
+                throw new Xb4jException("The message has no root element");
+            }
+            return message;
+        } catch (XMLStreamException e) {
+            throw new Xb4jException(String.format("Exception occured when reading message %d", messageCount), e);
+        } finally {
+            if (staxReader != null) {
+                staxReader.close();
+            }
+        }
+    }
+
+    private boolean nextDocument() throws XMLStreamException {
+        if (tokenizer == null) {
+            tokenizer = new Utf8XmlTokenizer(stream);
+            tokenizer.setMultiDocument(true);
+        }
+        return tokenizer.nextDocument();
+    }
+
+    private Utf8XmlTokenizer reuseTokenizer(InputStream message) throws XMLStreamException {
+        if (tokenizer == null) {
+            tokenizer = new Utf8XmlTokenizer(message);
+        } else {
+            tokenizer.reset(message);
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Read the length prefix and the bytes of the next message into the {@link #frame}
+     *
+     * @return false when the end of the stream is reached before the next message
+     */
+    private boolean readFrame() throws IOException {
+        int first = stream.read();
+        if (first < 0) {
+            return false;
+        }
+        byte[] prefix = new byte[]{(byte) first, 0, 0, 0};
+        readFully(prefix, 1, 3);
+        int length = ((prefix[0] & 0xFF) << 24) | ((prefix[1] & 0xFF) << 16) | ((prefix[2] & 0xFF) << 8) | (prefix[3] & 0xFF);
+        if (length < 0) {
+            throw new IOException(String.format("Invalid message length %d", length & 0xFFFFFFFFL));
+        }
+        if (frame.length < length) {
+            frame = Arrays.copyOf(frame, Math.max(length, frame.length * 2));
+        }
+        readFully(frame, 0, length);
+        frameLength = length;
+        return true;
+    }
+
+    private void readFully(byte[] target, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = stream.read(target, offset + read, length - read);
+            if (count < 0) {
+                throw new IOException(String.format("Unexpected end of stream; expected %d more bytes", length - read));
+            }
+            read += count;
+        }
+    }
+
+    /**
+     * Get the number of messages that are handed out
+     *
+     * @return the number of messages
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MessageStreamReader[framing=%s, messages=%d]", framing, messageCount);
+    }
+
+}
@@ -0,0 +1,194 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.util.LocationTracking;
+import info.rsdev.xb4j.util.XmlStreamFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Unmarshall an xml document that arrives in chunks, e.g. from a non-blocking socket, without a thread that waits for the rest of
+ * the input. The caller {@link #feed(ByteBuffer) feeds} the bytes as they arrive. They are scanned for the structure of the
+ * document and buffered, and as soon as enough input is available, it is unmarshalled on the thread that feeds it:</p>
+ * <ul>
+ * <li>in document mode, the document is unmarshalled when the root element is complete, and the {@link #getResult() result}
+ * completes with the Java object tree;</li>
+ * <li>in record mode, every child element of the root element is unmarshalled as soon as it is complete, and the Java object tree
+ * is passed to the record consumer. Children that are not records are skipped. The {@link #getResult() result} completes with
+ * null when the root element is complete. Only the record that is incomplete is buffered.</li>
+ * </ul>
+ * <p>
+ * Feeding stops at the end of the root element: the bytes after it are not consumed from the {@link ByteBuffer}. The scanner
+ * assumes that the document is encoded in UTF-8 or another encoding that is compatible with US-ASCII; UTF-16 is not supported.</p>
+ * <p>
+ * This class is not threadsafe: the chunks must be fed one at a time and in order.</p>
+ *
+ * @author Dave Schoorl
+ */
+public class NonBlockingUnmarshaller {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final XmlStreamer streamer;
+
+    private final Consumer<Object> recordConsumer;
+
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    /**
+     * The bytes that are fed; in record mode, the records that are unmarshalled are discarded
+     */
+    private final RecordBuffer buffer = new RecordBuffer(INITIAL_CAPACITY);
+
+    private final MarkupScanner scanner = new MarkupScanner(new MarkupScanner.Listener() {
+
+        @Override
+        public void startTag(int depth, long tagStart, long tagEnd, boolean empty) {
+            if (recordConsumer == null) {
+                return;
+            }
+            if ((depth == 0) && !empty) {
+                buffer.rootStart(buffer.toIndex(tagEnd), scanner.getName());
+            } else if ((depth == 1) && empty) {
+                buffer.recordEnd(buffer.toIndex(tagEnd), streamer, recordConsumer);
+            }
+        }
+
+        @Override
+        public void endTag(int depth, long tagEnd) {
+            if ((recordConsumer != null) && (depth == 1)) {
+                buffer.recordEnd(buffer.toIndex(tagEnd), streamer, recordConsumer);
+            }
+        }
+    });
+
+    /**
+     * Create a {@link NonBlockingUnmarshaller} that unmarshalls a complete document
+     *
+     * @param streamer the {@link XmlStreamer} for the root element of the document
+     */
+    public NonBlockingUnmarshaller(XmlStreamer streamer) {
+        if (streamer == null) {
+            throw new NullPointerException("XmlStreamer cannot be null");
+        }
+        this.streamer = streamer;
+        this.recordConsumer = null;
+    }
+
+    /**
+     * Create a {@link NonBlockingUnmarshaller} that unmarshalls the records, that are wrapped in the root element of the document,
+     * one at a time
+     *
+     * @param recordStreamer the {@link XmlStreamer} for the record element
+     * @param recordConsumer the receiver of the Java object tree of every record, in document order
+     */
+    public NonBlockingUnmarshaller(XmlStreamer recordStreamer, Consumer<Object> recordConsumer) {
+        if (recordStreamer == null) {
+            throw new NullPointerException("XmlStreamer cannot be null");
+        }
+        if (recordConsumer == null) {
+            throw new NullPointerException("Record consumer cannot be null");
+        }
+        this.streamer = recordStreamer;
+        this.recordConsumer = recordConsumer;
+    }
+
+    /**
+     * Consume the remaining bytes of the buffer, up to the end of the document, and unmarshall what can be unmarshalled. When the
+     * document is complete, the bytes after it remain in the buffer.
+     *
+     * @param chunk the next bytes of the document
+     * @throws Xb4jException when the input is not well-formed enough to scan, or could not be unmarshalled. The
+     * {@link #getResult() result} then completes exceptionally and this unmarshaller can not be fed anymore.
+     */
+    public void feed(ByteBuffer chunk) {
+        if (chunk == null) {
+            throw new NullPointerException("ByteBuffer cannot be null");
+        }
+        if (result.isCompletedExceptionally()) {
+            throw new Xb4jException("Cannot feed an unmarshaller that has failed");
+        }
+        try {
+            while (chunk.hasRemaining() && !result.isDone()) {
+                int count = Math.min(chunk.remaining(), buffer.ensureCapacity(chunk.remaining()));
+                int scanFrom = buffer.getLength(); // after making room, which may move the bytes that are not scanned yet
+                chunk.get(buffer.getData(), scanFrom, count);
+                buffer.added(count);
+                int scanned = scanner.scan(buffer.getData(), scanFrom, buffer.getLength(), buffer.getOffset());
+                if (scanner.isComplete()) { // give back the bytes after the document
+                    chunk.position(chunk.position() - (buffer.getLength() - scanned));
+                    buffer.truncate(scanned);
+                    complete(scanned);
+                }
+            }
+        } catch (RuntimeException e) { // also when the record consumer fails
+            result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Signal that no more input will be fed
+     *
+     * @throws Xb4jException when the document is not complete. The {@link #getResult() result} then completes exceptionally.
+     */
+    public void endOfInput() {
+        if (!result.isDone()) {
+            Xb4jException e = new Xb4jException(String.format("Input ended before the end of the document, after %d bytes",
+                    buffer.getOffset() + buffer.getLength()));
+            result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether the end of the document is reached (and the document is unmarshalled), or unmarshalling failed
+     *
+     * @return true when no more input is needed
+     */
+    public boolean isComplete() {
+        return result.isDone();
+    }
+
+    /**
+     * Get the result of unmarshalling. In document mode it completes with the Java object tree, in record mode it completes with
+     * null after the last record is passed to the record consumer. It completes exceptionally when the input can not be
+     * unmarshalled.
+     *
+     * @return the future result of unmarshalling
+     */
+    public CompletableFuture<Object> getResult() {
+        return result;
+    }
+
+    private void complete(int end) {
+        if (recordConsumer != null) {
+            result.complete(null);
+        } else {
+            result.complete(streamer.toJava(XmlStreamFactory.makeTokenizer(buffer.getData(), 0, end, streamer.getStaxFactories()), LocationTracking.FULL));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NonBlockingUnmarshaller[mode=%s, buffered=%d bytes]", recordConsumer == null ? "document" : "record",
+                buffer.getBuffered());
+    }
+
+}
@@ -0,0 +1,421 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.util.XmlStreamFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * <p>
+ * Unmarshall a large xml file, that consists of a root element wrapping many records, on multiple threads. The file is split in
+ * chunks of about {@link #getChunkSize() chunk size} bytes, each chunk starting at the start tag of a record. Every chunk is
+ * tokenized and unmarshalled by a task on a {@link ForkJoinPool}, as if it were a document of it's own: it is preceded by the
+ * prolog of the file and wrapped in a copy of the root element with the namespace declarations of the root element. The records
+ * are delivered in document order.</p>
+ * <p>
+ * Chunks are aligned by searching the bytes for the start tag of the record element, e.g. <code>&lt;ns:record</code>, with the
+ * prefix that the root element binds to the namespace of the record. Therefore:</p>
+ * <ul>
+ * <li>the namespace of the record element must be declared on the root element (or be the default namespace of the root);</li>
+ * <li>the start tag of a record must not appear in comments, CDATA sections or in the content of other elements;</li>
+ * <li>elements between the records, that are not records, are skipped.</li>
+ * </ul>
+ * <p>
+ * Instances of this class are threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public class ParallelRecordReader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum number of bytes before the end of the root start tag
+     */
+    private static final int MAX_HEAD_SIZE = 1024 * 1024;
+
+    private static final Pattern NAMESPACE_DECLARATION = Pattern.compile(
+            "\\s(xmlns(?::([^\\s=]+))?)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+
+    private static final Pattern ENCODING_DECLARATION = Pattern.compile(
+            "^<\\?xml\\s[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private final XmlStreamer recordStreamer;
+
+    private final int chunkSize;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a new {@link ParallelRecordReader} that reads chunks of {@link #DEFAULT_CHUNK_SIZE} bytes on the common
+     * {@link ForkJoinPool}
+     *
+     * @param recordStreamer the {@link XmlStreamer} for the record element, e.g. from
+     * {@link BindingModel#getXmlStreamer(Class, QName)}
+     */
+    public ParallelRecordReader(XmlStreamer recordStreamer) {
+        this(recordStreamer, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new {@link ParallelRecordReader}
+     *
+     * @param recordStreamer the {@link XmlStreamer} for the record element, e.g. from
+     * {@link BindingModel#getXmlStreamer(Class, QName)}
+     * @param chunkSize the minimum number of bytes in a chunk
+     * @param pool the {@link ForkJoinPool} to unmarshall the chunks on
+     */
+    public ParallelRecordReader(XmlStreamer recordStreamer, int chunkSize, ForkJoinPool pool) {
+        if (recordStreamer == null) {
+            throw new NullPointerException("XmlStreamer cannot be null");
+        }
+        if (pool == null) {
+            throw new NullPointerException("ForkJoinPool cannot be null");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(String.format("Chunk size must be positive: %d", chunkSize));
+        }
+        this.recordStreamer = recordStreamer;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Unmarshall all records in the given file
+     *
+     * @param file the xml file
+     * @return the Java object trees of the records, in document order
+     * @throws Xb4jException when the file could not be read or a record could not be unmarshalled
+     */
+    public List<Object> toJava(Path file) {
+        List<Object> records = new ArrayList<>();
+        toJava(file, records::add);
+        return records;
+    }
+
+    /**
+     * Unmarshall all records in the given file and pass them to the consumer in document order, on the calling thread. Only a
+     * limited number of chunks is unmarshalled ahead of the consumer, so that the records of a file do not need to fit in memory.
+     *
+     * @param file the xml file
+     * @param consumer the receiver of the Java object trees of the records
+     * @throws Xb4jException when the file could not be read or a record could not be unmarshalled
+     */
+    public void toJava(Path file, Consumer<Object> consumer) {
+        if (consumer == null) {
+            throw new NullPointerException("Consumer cannot be null");
+        }
+        Deque<ForkJoinTask<List<Object>>> inFlight = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            DocumentFrame frame = DocumentFrame.read(channel, recordStreamer.getElement());
+            int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+            long start = frame.findRecordStart(channel, frame.contentStart);
+            while (start >= 0) {
+                long end = frame.findRecordStart(channel, Math.min(start + chunkSize, frame.contentEnd));
+                long chunkEnd = end < 0 ? frame.contentEnd : end;
+                long chunkStart = start;
+                inFlight.add(pool.submit(() -> readChunk(channel, frame, chunkStart, chunkEnd)));
+                if (inFlight.size() >= maxInFlight) {
+                    inFlight.poll().join().forEach(consumer);
+                }
+                start = end;
+            }
+            while (!inFlight.isEmpty()) {
+                inFlight.poll().join().forEach(consumer);
+            }
+        } catch (IOException e) {
+            throw new Xb4jException(String.format("Exception occured when reading from %s", file), e);
+        } finally {
+            for (ForkJoinTask<List<Object>> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private List<Object> readChunk(FileChannel channel, DocumentFrame frame, long start, long end) {
+        InputStream chunk = new SequenceInputStream(new ByteArrayInputStream(frame.chunkHeader),
+                new SequenceInputStream(new RegionInputStream(channel, start, end), new ByteArrayInputStream(frame.chunkFooter)));
+        List<Object> records = new ArrayList<>();
+        try {
+            recordStreamer.toJavaRecords(XmlStreamFactory.makeTokenizer(chunk, recordStreamer.getStaxFactories()), records::add);
+        } catch (XMLStreamException | Xb4jException e) {
+            throw new Xb4jException(String.format("Exception occured when reading the records from byte %d to %d", start, end), e);
+        }
+        return records;
+    }
+
+    /**
+     * The parts of the document that every chunk is wrapped in, and the bytes in which the records are found. It is also used by
+     * the {@link RecordIndex}.
+     */
+    static final class DocumentFrame {
+
+        /**
+         * The prolog of the document followed by a start tag of the root element with it's namespace declarations
+         */
+        byte[] chunkHeader;
+
+        /**
+         * The end tag of the root element
+         */
+        byte[] chunkFooter;
+
+        /**
+         * The bytes of the start tag of a record, without the closing '&gt;'
+         */
+        byte[] recordTag;
+
+        /**
+         * The file positions of the content of the root element
+         */
+        long contentStart;
+
+        long contentEnd;
+
+        static DocumentFrame read(FileChannel channel, QName recordElement) throws IOException {
+            DocumentFrame frame = new DocumentFrame();
+            long size = channel.size();
+            byte[] head = readBytes(channel, 0, (int) Math.min(size, MAX_HEAD_SIZE));
+            // one byte per char, so that indexes in the text are file positions
+            String text = new String(head, StandardCharsets.ISO_8859_1);
+            Matcher encodingMatcher = ENCODING_DECLARATION.matcher(text.startsWith("\u00EF\u00BB\u00BF") ? text.substring(3) : text);
+            Charset charset = encodingMatcher.find() ? Charset.forName(encodingMatcher.group(1)) : StandardCharsets.UTF_8;
+
+            int rootStart = findRootStart(text);
+            int nameEnd = rootStart + 1;
+            while ((nameEnd < text.length()) && !Character.isWhitespace(text.charAt(nameEnd)) && (text.charAt(nameEnd) != '>')
+                    && (text.charAt(nameEnd) != '/')) {
+                nameEnd++;
+            }
+            int rootEnd = findTagEnd(text, nameEnd);
+            String rootName = text.substring(rootStart + 1, nameEnd);
+            String rootTag = text.substring(rootStart, rootEnd + 1);
+
+            StringBuilder header = new StringBuilder(text.substring(0, rootStart)).append('<').append(rootName);
+            Map<String, String> namespaces = new LinkedHashMap<>();
+            Matcher declarations = NAMESPACE_DECLARATION.matcher(rootTag);
+            while (declarations.find()) {
+                header.append(' ').append(declarations.group());
+                String prefix = declarations.group(2) == null ? XMLConstants.DEFAULT_NS_PREFIX : declarations.group(2);
+                namespaces.put(prefix, declarations.group(3) != null ? declarations.group(3) : declarations.group(4));
+            }
+            frame.chunkHeader = header.append('>').toString().getBytes(StandardCharsets.ISO_8859_1);
+            frame.chunkFooter = ("</" + rootName + ">").getBytes(StandardCharsets.ISO_8859_1);
+            frame.recordTag = ("<" + recordTagName(recordElement, namespaces, charset)).getBytes(StandardCharsets.ISO_8859_1);
+            frame.contentStart = rootEnd + 1;
+            if (rootTag.endsWith("/>")) {
+                frame.contentEnd = frame.contentStart; // empty root element
+            } else {
+                int tailSize = (int) Math.min(size - frame.contentStart, MAX_HEAD_SIZE);
+                String tail = new String(readBytes(channel, size - tailSize, tailSize), StandardCharsets.ISO_8859_1);
+                int endTag = tail.lastIndexOf("</" + rootName);
+                if (endTag < 0) {
+                    throw new Xb4jException(String.format("Cannot find the end tag of root element <%s>", rootName));
+                }
+                frame.contentEnd = size - tailSize + endTag;
+            }
+            return frame;
+        }
+
+        /**
+         * @return the name of the record element as it is written in the document, encoded in the document encoding, but as ISO-8859-1
+         * characters, so that it can be searched as bytes
+         */
+        private static String recordTagName(QName recordElement, Map<String, String> namespaces, Charset charset) {
+            String localName = new String(recordElement.getLocalPart().getBytes(charset), StandardCharsets.ISO_8859_1);
+            String namespaceUri = recordElement.getNamespaceURI();
+            String defaultNamespace = namespaces.getOrDefault(XMLConstants.DEFAULT_NS_PREFIX, XMLConstants.NULL_NS_URI);
+            if (namespaceUri.equals(defaultNamespace)) {
+                return localName;
+            }
+            for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+                if (!namespace.getKey().isEmpty() && namespace.getValue().equals(namespaceUri)) {
+                    return namespace.getKey() + ":" + localName;
+                }
+            }
+            throw new Xb4jException(String.format("The namespace of record element %s is not declared on the root element",
+                    recordElement));
+        }
+
+        private static int findRootStart(String text) {
+            int index = 0;
+            while (true) {
+                index = text.indexOf('<', index);
+                if ((index < 0) || (index + 1 >= text.length())) {
+                    throw new Xb4jException("Cannot find the start tag of the root element");
+                }
+                char marker = text.charAt(index + 1);
+                if (marker == '?') {
+                    index = requireFound(text.indexOf("?>", index)) + 2;
+                } else if (text.startsWith("<!--", index)) {
+                    index = requireFound(text.indexOf("-->", index)) + 3;
+                } else if (marker == '!') {
+                    index = findTagEnd(text, index) + 1; // document type declaration
+                } else {
+                    return index;
+                }
+            }
+        }
+
+        /**
+         * Find the '&gt;' that closes the tag or declaration, skipping quoted values and an internal DTD subset
+         */
+        private static int findTagEnd(String text, int from) {
+            char quote = 0;
+            int brackets = 0;
+            for (int i = from; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if ((c == '"') || (c == '\'')) {
+                    quote = c;
+                } else if (c == '[') {
+                    brackets++;
+                } else if (c == ']') {
+                    brackets--;
+                } else if ((c == '>') && (brackets <= 0)) {
+                    return i;
+                }
+            }
+            throw new Xb4jException("Cannot find the start tag of the root element");
+        }
+
+        private static int requireFound(int index) {
+            if (index < 0) {
+                throw new Xb4jException("Cannot find the start tag of the root element");
+            }
+            return index;
+        }
+
+        /**
+         * Find the first start tag of a record at or after the given position, before the end of the content
+         *
+         * @return the file position of the '&lt;' of the start tag, or -1 when there is none
+         */
+        private long findRecordStart(FileChannel channel, long from) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            long position = from;
+            while (position < contentEnd) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), contentEnd - position + 1));
+                int read = 0;
+                while (buffer.hasRemaining() && ((read = channel.read(buffer, position + buffer.position())) >= 0)) {
+                    // read until the buffer is full
+                }
+                byte[] bytes = buffer.array();
+                int length = buffer.position();
+                for (int i = 0; i + recordTag.length < length; i++) {
+                    if ((bytes[i] == '<') && matchesRecordTag(bytes, i)) {
+                        long found = position + i;
+                        return found < contentEnd ? found : -1;
+                    }
+                }
+                if ((read < 0) || (length <= recordTag.length)) {
+                    return -1;
+                }
+                position += length - recordTag.length; // a tag may straddle the end of the buffer
+            }
+            return -1;
+        }
+
+        private boolean matchesRecordTag(byte[] bytes, int offset) {
+            for (int i = 1; i < recordTag.length; i++) {
+                if (bytes[offset + i] != recordTag[i]) {
+                    return false;
+                }
+            }
+            byte next = bytes[offset + recordTag.length];
+            return (next == '>') || (next == '/') || (next == ' ') || (next == '\t') || (next == '\n') || (next == '\r');
+        }
+
+        private static byte[] readBytes(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && (channel.read(buffer, position + buffer.position()) >= 0)) {
+                // read until the buffer is full
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /**
+     * Read a region of a file by position, so that multiple threads can read different regions of the same {@link FileChannel}
+     */
+    private static final class RegionInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private long position;
+
+        private final long end;
+
+        private RegionInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.util.XmlStreamFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * <p>
+ * The bytes of a document that is read in blocks and scanned by a {@link MarkupScanner}, in which every child of the root element
+ * is a record. A record is unmarshalled as soon as it is complete, as a document of it's own: it is wrapped in the prolog and root
+ * start tag of the document (the header) and the root end tag (the footer). Once the header is known, the records that are
+ * unmarshalled are discarded when room is needed, so that only the bytes after the last complete record are buffered.</p>
+ * <p>
+ * This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+final class RecordBuffer {
+
+    private byte[] data;
+
+    private int length = 0;
+
+    /**
+     * The position in the document of the byte at index 0 of {@link #data}
+     */
+    private long offset;
+
+    /**
+     * The index in {@link #data} where the next record (and the markup before it) starts
+     */
+    private int recordStart = 0;
+
+    private byte[] header;
+
+    private byte[] footer;
+
+    /**
+     * Create a {@link RecordBuffer} for a document that is read from the start
+     *
+     * @param capacity the initial number of bytes that can be buffered
+     */
+    RecordBuffer(int capacity) {
+        this(capacity, 0, null, null);
+    }
+
+    /**
+     * Create a {@link RecordBuffer} that resumes reading a document
+     *
+     * @param capacity the initial number of bytes that can be buffered
+     * @param offset the position in the document where reading resumes
+     * @param header the prolog and root start tag of the document, or null when they are not read yet
+     * @param footer the root end tag of the document, or null when the root start tag is not read yet
+     */
+    RecordBuffer(int capacity, long offset, byte[] header, byte[] footer) {
+        this.data = new byte[capacity];
+        this.offset = offset;
+        this.header = header;
+        this.footer = footer;
+    }
+
+    /**
+     * Make room for the given number of bytes after the buffered bytes: discard the records that are unmarshalled, and grow the
+     * buffer when that is not enough, but no more than needed to double it's capacity
+     *
+     * @param count the number of bytes that need room
+     * @return the number of bytes that fit, which is at least one
+     */
+    int ensureCapacity(int count) {
+        if (data.length - length < count) {
+            if ((header != null) && (recordStart > 0)) {
+                System.arraycopy(data, recordStart, data, 0, length - recordStart);
+                length -= recordStart;
+                offset += recordStart;
+                recordStart = 0;
+            }
+            if (data.length - length < count) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + Math.min(count, data.length)));
+            }
+        }
+        return data.length - length;
+    }
+
+    /**
+     * @return the array that holds the buffered bytes, from index 0 up to {@link #getLength()}; it is replaced when the buffer
+     * grows
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Add bytes that are written directly into {@link #getData()}, after the buffered bytes
+     *
+     * @param count the number of bytes that are added
+     */
+    void added(int count) {
+        length += count;
+    }
+
+    /**
+     * Forget the buffered bytes from the given index, e.g. the bytes after the end of the document
+     */
+    void truncate(int end) {
+        length = end;
+    }
+
+    /**
+     * @return the position in the document of the byte at index 0 of {@link #getData()}
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the index in {@link #getData()} of the given position in the document
+     */
+    int toIndex(long position) {
+        return (int) (position - offset);
+    }
+
+    /**
+     * @return the position in the document where the next record (and the markup before it) starts
+     */
+    long getRecordStart() {
+        return offset + recordStart;
+    }
+
+    /**
+     * Continue with the next record at the given index, without unmarshalling the bytes before it
+     */
+    void skipTo(int index) {
+        recordStart = index;
+    }
+
+    byte[] getHeader() {
+        return header;
+    }
+
+    byte[] getFooter() {
+        return footer;
+    }
+
+    /**
+     * The root start tag ends at the given index; the bytes before it are the header of every record
+     *
+     * @param end the index after the root start tag
+     * @param rootName the name of the root element, as it is written in the document
+     */
+    void rootStart(int end, byte[] rootName) {
+        header = Arrays.copyOf(data, end);
+        footer = ("</" + new String(rootName, StandardCharsets.ISO_8859_1) + ">").getBytes(StandardCharsets.ISO_8859_1);
+        recordStart = end;
+    }
+
+    /**
+     * A record ends at the given index: unmarshall it and continue with the next record after it
+     *
+     * @param end the index after the end tag of the record
+     * @param recordStreamer the {@link XmlStreamer} for the record element
+     * @param consumer the receiver of the Java object tree of the record
+     * @throws Xb4jException when the record could not be unmarshalled
+     */
+    void recordEnd(int end, XmlStreamer recordStreamer, Consumer<Object> consumer) {
+        int recordLength = end - recordStart;
+        byte[] document = new byte[header.length + recordLength + footer.length];
+        System.arraycopy(header, 0, document, 0, header.length);
+        System.arraycopy(data, recordStart, document, header.length, recordLength);
+        System.arraycopy(footer, 0, document, header.length + recordLength, footer.length);
+        try {
+            recordStreamer.toJavaRecords(XmlStreamFactory.makeTokenizer(document, 0, document.length,
+                    recordStreamer.getStaxFactories()), consumer);
+        } catch (XMLStreamException e) {
+            throw new Xb4jException(String.format("Cannot read record at bytes %d-%d", offset + recordStart, offset + end), e);
+        }
+        recordStart = end;
+    }
+
+    /**
+     * @return the number of bytes that are buffered for the next record
+     */
+    int getBuffered() {
+        return length - recordStart;
+    }
+
+}
@@ -0,0 +1,355 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.xml.namespace.QName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * The byte offsets and lengths of the records in a large xml file, that consists of a root element wrapping many records. With the
+ * index, a single record can be unmarshalled without reading the file up to it, with {@link XmlStreamer#toJava(Path, long)}: the
+ * bytes of the record are mapped and wrapped in the prolog and root start tag of the file, so that the namespace declarations
+ * of the root element apply to the record.</p>
+ * <p>
+ * The index is built in one pass over the file, that scans the bytes for the tags, without parsing them. Only the children of the
+ * root element that have the name of the record element are indexed. The namespace of the record element must be declared on the
+ * root element, and the file must be encoded in UTF-8 or another encoding that is compatible with US-ASCII. The offsets and
+ * lengths are kept in a single array of primitive longs, so that an index of millions of records is compact.</p>
+ * <p>
+ * An index can be {@link #save(Path) saved} and {@link #load(Path) loaded}, by default to a file next to the xml file; the index
+ * remembers the size and modification time of the xml file, to detect that it is {@link #isCurrent(Path) outdated}. Instances of
+ * this class are immutable.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class RecordIndex {
+
+    /**
+     * The extension that is appended to the name of the xml file for the name of the default index file
+     */
+    public static final String FILE_EXTENSION = ".xb4jidx";
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordIndex.class);
+
+    private static final int MAGIC = 0x78623469; // "xb4i"
+
+    private static final int VERSION = 1;
+
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+    private final QName recordElement;
+
+    private final long fileSize;
+
+    private final long lastModified;
+
+    private final byte[] header;
+
+    private final byte[] footer;
+
+    /**
+     * The offset and the length of every record, one after the other
+     */
+    private final long[] entries;
+
+    private RecordIndex(QName recordElement, long fileSize, long lastModified, byte[] header, byte[] footer, long[] entries) {
+        this.recordElement = recordElement;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.header = header;
+        this.footer = footer;
+        this.entries = entries;
+    }
+
+    /**
+     * Index the records in the given file
+     *
+     * @param file the xml file
+     * @param recordElement the name of the record element
+     * @return the index of the records
+     * @throws Xb4jException when the file could not be read or scanned
+     */
+    public static RecordIndex build(Path file, QName recordElement) {
+        if (file == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        if (recordElement == null) {
+            throw new NullPointerException("QName cannot be null");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            ParallelRecordReader.DocumentFrame frame = ParallelRecordReader.DocumentFrame.read(channel, recordElement);
+            Collector collector = new Collector(Arrays.copyOfRange(frame.recordTag, 1, frame.recordTag.length));
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SCAN_BUFFER_SIZE, Math.max(channel.size(), 1)));
+            long position = 0;
+            while (!collector.scanner.isComplete() && (channel.read(buffer, position) >= 0)) {
+                collector.scanner.scan(buffer.array(), 0, buffer.position(), position);
+                position += buffer.position();
+                buffer.clear();
+            }
+            if (!collector.scanner.isComplete()) {
+                throw new Xb4jException(String.format("The root element is not complete in %s", file));
+            }
+            return new RecordIndex(recordElement, channel.size(), lastModified, frame.chunkHeader, frame.chunkFooter,
+                    Arrays.copyOf(collector.entries, collector.count * 2));
+        } catch (IOException e) {
+            throw new Xb4jException(String.format("Exception occured when indexing %s", file), e);
+        }
+    }
+
+    /**
+     * Get the index of the records in the given file: the index is loaded from the {@link #indexFileOf(Path) default index file}
+     * when it is current, otherwise it is built and saved to the default index file. When the index can not be saved, e.g.
+     * because the directory is read-only, it is only used.
+     *
+     * @param file the xml file
+     * @param recordElement the name of the record element
+     * @return the index of the records
+     * @throws Xb4jException when the file could not be read or scanned
+     */
+    public static RecordIndex of(Path file, QName recordElement) {
+        Path indexFile = indexFileOf(file);
+        if (Files.isRegularFile(indexFile)) {
+            try {
+                RecordIndex index = load(indexFile);
+                if (index.recordElement.equals(recordElement) && index.isCurrent(file)) {
+                    return index;
+                }
+            } catch (Xb4jException e) {
+                logger.debug(String.format("Rebuilding unreadable index %s", indexFile), e);
+            }
+        }
+        RecordIndex index = build(file, recordElement);
+        try {
+            index.save(indexFile);
+        } catch (Xb4jException e) {
+            logger.debug(String.format("Cannot save index %s", indexFile), e);
+        }
+        return index;
+    }
+
+    /**
+     * Get the default location of the index of the given xml file: the name of the xml file with {@link #FILE_EXTENSION}
+     * appended, in the same directory
+     *
+     * @param file the xml file
+     * @return the path of the index file
+     */
+    public static Path indexFileOf(Path file) {
+        if (file == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        return file.resolveSibling(file.getFileName().toString() + FILE_EXTENSION);
+    }
+
+    /**
+     * Load an index that is {@link #save(Path) saved} before
+     *
+     * @param indexFile the index file
+     * @return the index
+     * @throws Xb4jException when the index file could not be read
+     */
+    public static RecordIndex load(Path indexFile) {
+        if (indexFile == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new Xb4jException(String.format("%s is not a record index", indexFile));
+            }
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            QName recordElement = new QName(in.readUTF(), in.readUTF());
+            byte[] header = readBytes(in);
+            byte[] footer = readBytes(in);
+            long[] entries = new long[in.readInt() * 2];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = in.readLong();
+            }
+            return new RecordIndex(recordElement, fileSize, lastModified, header, footer, entries);
+        } catch (IOException | RuntimeException e) {
+            throw new Xb4jException(String.format("Exception occured when loading index %s", indexFile), e);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Save this index, so that it can be {@link #load(Path) loaded} instead of built again
+     *
+     * @param indexFile the index file
+     * @throws Xb4jException when the index file could not be written
+     */
+    public void save(Path indexFile) {
+        if (indexFile == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeUTF(recordElement.getNamespaceURI());
+            out.writeUTF(recordElement.getLocalPart());
+            out.writeInt(header.length);
+            out.write(header);
+            out.writeInt(footer.length);
+            out.write(footer);
+            out.writeInt(size());
+            for (long entry : entries) {
+                out.writeLong(entry);
+            }
+        } catch (IOException e) {
+            throw new Xb4jException(String.format("Exception occured when saving index %s", indexFile), e);
+        }
+    }
+
+    /**
+     * Check whether this index is built from the current content of the given file, judging by it's size and modification time
+     *
+     * @param file the xml file
+     * @return true when the file did not change since it was indexed
+     */
+    public boolean isCurrent(Path file) {
+        try {
+            return (Files.size(file) == fileSize) && (Files.getLastModifiedTime(file).toMillis() == lastModified);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public QName getRecordElement() {
+        return this.recordElement;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return entries.length / 2;
+    }
+
+    /**
+     * @param recordNumber the number of the record, starting at 0
+     * @return the position in the file of the '&lt;' of the start tag of the record
+     */
+    public long getOffset(int recordNumber) {
+        return entries[checkIndex(recordNumber) * 2];
+    }
+
+    /**
+     * @param recordNumber the number of the record, starting at 0
+     * @return the number of bytes of the record, from the start of it's start tag up to and including it's end tag
+     */
+    public long getLength(int recordNumber) {
+        return entries[checkIndex(recordNumber) * 2 + 1];
+    }
+
+    private int checkIndex(int recordNumber) {
+        if ((recordNumber < 0) || (recordNumber >= size())) {
+            throw new IndexOutOfBoundsException(String.format("Record %d does not exist; there are %d records", recordNumber,
+                    size()));
+        }
+        return recordNumber;
+    }
+
+    /**
+     * @return the prolog of the file followed by a start tag of the root element with it's namespace declarations
+     */
+    byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the end tag of the root element
+     */
+    byte[] getFooter() {
+        return footer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RecordIndex[recordElement=%s, records=%d, header=%s]", recordElement, size(),
+                new String(header, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Collect the positions of the records, while the file is scanned
+     */
+    private static final class Collector implements MarkupScanner.Listener {
+
+        private final MarkupScanner scanner = new MarkupScanner(this);
+
+        private final byte[] recordName;
+
+        private long[] entries = new long[1024];
+
+        private int count = 0;
+
+        private long recordStart = -1;
+
+        private Collector(byte[] recordName) {
+            this.recordName = recordName;
+        }
+
+        @Override
+        public void startTag(int depth, long tagStart, long tagEnd, boolean empty) {
+            if ((depth == 1) && scanner.isName(recordName)) {
+                if (empty) {
+                    add(tagStart, tagEnd);
+                } else {
+                    recordStart = tagStart;
+                }
+            }
+        }
+
+        @Override
+        public void endTag(int depth, long tagEnd) {
+            if ((depth == 1) && (recordStart >= 0)) {
+                add(recordStart, tagEnd);
+                recordStart = -1;
+            }
+        }
+
+        private void add(long start, long end) {
+            if (count * 2 == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[count * 2] = start;
+            entries[count * 2 + 1] = end - start;
+            count++;
+        }
+    }
+
+}
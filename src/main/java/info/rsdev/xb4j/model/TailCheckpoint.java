@@ -0,0 +1,172 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * The position up to which an append-only xml file, that consists of a root element wrapping records that are appended over time,
+ * is read by {@link XmlStreamer#follow(Path, TailCheckpoint, java.util.function.Consumer)}. It holds the file position after the
+ * last record that is read, and the state that is needed to read the records after it without reading the file from the start:
+ * the prolog and start tag of the root element, with the namespace declarations that apply to the records.</p>
+ * <p>
+ * A checkpoint can be {@link #save(Path) saved} and {@link #load(Path) loaded}, to resume reading after the process is restarted.
+ * Instances of this class are immutable.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class TailCheckpoint {
+
+    /**
+     * The checkpoint to start reading a file from the beginning
+     */
+    public static final TailCheckpoint START = new TailCheckpoint(0, null, null, false);
+
+    private static final int MAGIC = 0x78623474; // "xb4t"
+
+    private static final int VERSION = 1;
+
+    private final long offset;
+
+    private final byte[] header;
+
+    private final byte[] footer;
+
+    private final boolean complete;
+
+    TailCheckpoint(long offset, byte[] header, byte[] footer, boolean complete) {
+        this.offset = offset;
+        this.header = header;
+        this.footer = footer;
+        this.complete = complete;
+    }
+
+    /**
+     * Load a checkpoint that is {@link #save(Path) saved} before
+     *
+     * @param checkpointFile the checkpoint file
+     * @return the checkpoint
+     * @throws Xb4jException when the checkpoint file could not be read
+     */
+    public static TailCheckpoint load(Path checkpointFile) {
+        if (checkpointFile == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new Xb4jException(String.format("%s is not a checkpoint", checkpointFile));
+            }
+            long offset = in.readLong();
+            boolean complete = in.readBoolean();
+            byte[] header = readBytes(in);
+            byte[] footer = readBytes(in);
+            return new TailCheckpoint(offset, header, footer, complete);
+        } catch (IOException | RuntimeException e) {
+            throw new Xb4jException(String.format("Exception occured when loading checkpoint %s", checkpointFile), e);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Save this checkpoint, so that reading can be resumed from it after a restart
+     *
+     * @param checkpointFile the checkpoint file
+     * @throws Xb4jException when the checkpoint file could not be written
+     */
+    public void save(Path checkpointFile) {
+        if (checkpointFile == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(checkpointFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(offset);
+            out.writeBoolean(complete);
+            writeBytes(out, header);
+            writeBytes(out, footer);
+        } catch (IOException e) {
+            throw new Xb4jException(String.format("Exception occured when saving checkpoint %s", checkpointFile), e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return the file position where reading resumes, after the last record that is read
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return true when the end of the root element is read, so that no more records will follow
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * @return true when the start tag of the root element is read
+     */
+    boolean isInsideRoot() {
+        return header != null;
+    }
+
+    /**
+     * @return the prolog of the file followed by the start tag of the root element, or null when it is not read yet
+     */
+    byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the end tag of the root element, or null when it's start tag is not read yet
+     */
+    byte[] getFooter() {
+        return footer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TailCheckpoint[offset=%d, root=%s, complete=%b]", offset,
+                footer == null ? null : new String(footer, 2, footer.length - 3, StandardCharsets.ISO_8859_1), complete);
+    }
+
+}
@@ -0,0 +1,89 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+
+/**
+ * Read the records of an append-only xml file from a {@link TailCheckpoint} up to the current end of the file. The bytes are
+ * scanned for the ends of the children of the root element, and every complete child is unmarshalled as a document of it's own,
+ * wrapped in the prolog and root start tag of the file. Only the bytes after the last complete child are buffered.
+ *
+ * @author Dave Schoorl
+ */
+final class TailReader implements MarkupScanner.Listener {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final XmlStreamer streamer;
+
+    private final Consumer<Object> consumer;
+
+    private final MarkupScanner scanner;
+
+    private final RecordBuffer buffer;
+
+    TailReader(XmlStreamer streamer, Consumer<Object> consumer, TailCheckpoint checkpoint) {
+        this.streamer = streamer;
+        this.consumer = consumer;
+        this.buffer = new RecordBuffer(READ_BUFFER_SIZE, checkpoint.getOffset(), checkpoint.getHeader(), checkpoint.getFooter());
+        this.scanner = new MarkupScanner(this, checkpoint.isInsideRoot() ? 1 : 0);
+    }
+
+    /**
+     * Read the records from the position of the checkpoint up to the end of the file
+     *
+     * @param channel the file
+     * @return the checkpoint after the last record that is read
+     */
+    TailCheckpoint read(FileChannel channel) throws IOException {
+        long position = buffer.getOffset();
+        while (!scanner.isComplete()) {
+            int room = buffer.ensureCapacity(READ_BUFFER_SIZE);
+            int scanFrom = buffer.getLength(); // after making room, which may move the bytes that are not scanned yet
+            int read = channel.read(ByteBuffer.wrap(buffer.getData(), scanFrom, room), position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.added(read);
+            position += read;
+            int scanned = scanner.scan(buffer.getData(), scanFrom, buffer.getLength(), buffer.getOffset());
+            if (scanner.isComplete()) {
+                buffer.skipTo(scanned); // the end of the root element
+            }
+        }
+        return new TailCheckpoint(buffer.getRecordStart(), buffer.getHeader(), buffer.getFooter(), scanner.isComplete());
+    }
+
+    @Override
+    public void startTag(int depth, long tagStart, long tagEnd, boolean empty) {
+        if (depth == 0) {
+            buffer.rootStart(buffer.toIndex(tagEnd), scanner.getName());
+        } else if ((depth == 1) && empty) {
+            buffer.recordEnd(buffer.toIndex(tagEnd), streamer, consumer);
+        }
+    }
+
+    @Override
+    public void endTag(int depth, long tagEnd) {
+        if (depth == 1) {
+            buffer.recordEnd(buffer.toIndex(tagEnd), streamer, consumer);
+        }
+    }
+
+}
@@ -18,16 +18,52 @@ import info.rsdev.xb4j.exceptions.Xb4jException;
 import info.rsdev.xb4j.model.bindings.Root;
 import info.rsdev.xb4j.model.bindings.UnmarshallResult;
 import info.rsdev.xb4j.model.java.JavaContext;
+import info.rsdev.xb4j.util.ByteBufferInputStream;
+import info.rsdev.xb4j.util.ByteBufferOutputStream;
+import info.rsdev.xb4j.util.LocationTracking;
+import info.rsdev.xb4j.util.ParallelGzipOutputStream;
+import info.rsdev.xb4j.util.PipelinedTokenizer;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
-import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.Marker;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
+import info.rsdev.xb4j.util.SaxEventRecorder;
+import info.rsdev.xb4j.util.RecordingBudget;
+import info.rsdev.xb4j.util.StaxFactories;
+import info.rsdev.xb4j.util.XmlStreamFactory;
+import info.rsdev.xb4j.util.XmlTokenizer;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.sax.SAXSource;
+
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 /**
  * Stream xml to a specific Java class or the Java class to xml. The binding has been completely resolved and instances of this
@@ -60,21 +96,48 @@ public class XmlStreamer {
      * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
      */
     public Object toJava(XMLStreamReader staxReader) {
+        return toJava(staxReader, LocationTracking.FULL);
+    }
+
+    /**
+     * Read Java object tree from the given xml stream, like {@link #toJava(XMLStreamReader)}, but keep track of the location of
+     * every parse event as indicated. Use {@link LocationTracking#NONE} to reduce the number of objects created per parse event,
+     * at the expense of less precise locations in error messages.
+     *
+     * @param staxReader the xml stream reader
+     * @param locationTracking the way the location of parse events is retained
+     * @return the Java object tree read from the xml stream
+     * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
+     */
+    public Object toJava(XMLStreamReader staxReader, LocationTracking locationTracking) {
+        return toJava(XmlStreamFactory.makeTokenizer(staxReader), locationTracking);
+    }
+
+    /**
+     * Read Java object tree from the xml stream that is read by the given {@link XmlTokenizer}, like
+     * {@link #toJava(XMLStreamReader, LocationTracking)}. Use {@link XmlStreamFactory#makeTokenizer(java.io.InputStream)} to read
+     * UTF-8 encoded xml with the built-in {@link info.rsdev.xb4j.util.Utf8XmlTokenizer}.
+     *
+     * @param tokenizer the xml tokenizer
+     * @param locationTracking the way the location of parse events is retained
+     * @return the Java object tree read from the xml stream
+     * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
+     */
+    public Object toJava(XmlTokenizer tokenizer, LocationTracking locationTracking) {
         RecordAndPlaybackXMLStreamReader rpbReader = null;
+        PipelinedTokenizer pipeline = null;
         try {
-            rpbReader = new RecordAndPlaybackXMLStreamReader(staxReader);
-            Marker startMarker = rpbReader.startRecording();
-            if (rpbReader.nextTag() == XMLStreamReader.START_ELEMENT) {
-                QName element = rpbReader.getName();
-                rpbReader.rewindAndPlayback(startMarker);
+            BindingModel model = binding.getModel();
+            if ((model != null) && model.isPipelined()) {
+                pipeline = new PipelinedTokenizer(tokenizer, locationTracking);
+                tokenizer = pipeline;
+            }
+            rpbReader = newReader(tokenizer, locationTracking);
+            ParseEventData rootEvent = rpbReader.peekTag();
+            if (rootEvent.getEventType() == XMLStreamReader.START_ELEMENT) {
+                QName element = rootEvent.getName();
                 if (binding.getElement().equals(element)) {
-                    UnmarshallResult result = binding.toJava(rpbReader, new JavaContext(null));
-                    if (result.isUnmarshallSuccessful()) {
-                        return result.getUnmarshalledObject();
-                    } else {
-                        throw new Xb4jException(result.getErrorMessage());
-                    }
-
+                    return toJava(rpbReader);
                 } else {
                     throw new Xb4jException(String.format("%s does not know how to unmarshall xml element %s", binding, element));
                 }
@@ -85,10 +148,271 @@ public class XmlStreamer {
             if (rpbReader != null) {
                 rpbReader.close();
             }
+            if (pipeline != null) {
+                pipeline.close();
+            }
         }
         return null;
     }
 
+    /**
+     * Read Java object tree from the xml file. The file is memory-mapped, so that it is read without copying it through
+     * intermediate streams. A gzip compressed file is decompressed transparently.
+     *
+     * @param file the xml file
+     * @return the Java object tree read from the xml file
+     * @throws Xb4jException when the file could not be read or unmarshalled
+     */
+    public Object toJava(Path file) {
+        if (file == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) { // too large to map in one buffer
+                return toJava(channel);
+            }
+            return toJava(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            throw new Xb4jException(String.format("Cannot read xml file %s", file), e);
+        }
+    }
+
+    /**
+     * Read the Java object tree of a single record from a large xml file, that consists of a root element wrapping many records of
+     * the element of this streamer. The record is found with the {@link RecordIndex} of the file, that is loaded from or saved
+     * to the {@link RecordIndex#indexFileOf(Path) default index file}, and only the bytes of the record are read. Hold on to a
+     * {@link RecordIndex} and use {@link #toJava(Path, RecordIndex, long)} to read many records.
+     *
+     * @param file the xml file
+     * @param recordNumber the number of the record, starting at 0
+     * @return the Java object tree read from the record
+     * @throws Xb4jException when the file could not be read or the record could not be unmarshalled
+     */
+    public Object toJava(Path file, long recordNumber) {
+        if (file == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        return toJava(file, RecordIndex.of(file, binding.getElement()), recordNumber);
+    }
+
+    /**
+     * Read the Java object tree of a single record from a large xml file, by mapping the bytes of the record in memory. The record
+     * is unmarshalled in the context of the root element of the file, so that the namespaces that are declared on it apply.
+     *
+     * @param file the xml file
+     * @param index the index of the records in the file
+     * @param recordNumber the number of the record, starting at 0
+     * @return the Java object tree read from the record
+     * @throws Xb4jException when the file could not be read or the record could not be unmarshalled
+     */
+    public Object toJava(Path file, RecordIndex index, long recordNumber) {
+        if (file == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        if (index == null) {
+            throw new NullPointerException("RecordIndex cannot be null");
+        }
+        if (!index.getRecordElement().equals(binding.getElement())) {
+            throw new Xb4jException(String.format("The index is of records %s, not of %s", index.getRecordElement(),
+                    binding.getElement()));
+        }
+        if ((recordNumber < 0) || (recordNumber >= index.size())) {
+            throw new IndexOutOfBoundsException(String.format("Record %d does not exist; there are %d records", recordNumber,
+                    index.size()));
+        }
+        long offset = index.getOffset((int) recordNumber);
+        long length = index.getLength((int) recordNumber);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            InputStream record = new SequenceInputStream(new ByteArrayInputStream(index.getHeader()),
+                    new SequenceInputStream(new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, offset, length)),
+                            new ByteArrayInputStream(index.getFooter())));
+            List<Object> records = new ArrayList<>(1);
+            toJavaRecords(XmlStreamFactory.makeTokenizer(record, getStaxFactories()), records::add);
+            if (records.size() != 1) {
+                throw new Xb4jException(String.format("Record %d at byte %d in %s is not a %s", recordNumber, offset, file,
+                        binding.getElement()));
+            }
+            return records.get(0);
+        } catch (IOException | XMLStreamException e) {
+            throw new Xb4jException(String.format("Cannot read record %d from %s", recordNumber, file), e);
+        }
+    }
+
+    /**
+     * Read the records that are appended to an xml file since the checkpoint, up to the current end of the file. The file
+     * consists of a root element that wraps the records of the element of this streamer, and that may not be closed yet. Every
+     * complete record is passed to the consumer in document order; other children of the root element are skipped. Call this
+     * method again with the returned checkpoint to read the records that are appended later, also after a restart of the
+     * process when the checkpoint is {@link TailCheckpoint#save(Path) saved}: the file is not read again from the start.
+     *
+     * @param file the append-only xml file
+     * @param checkpoint the checkpoint to resume from, or {@link TailCheckpoint#START} to read the file from the beginning
+     * @param consumer the receiver of the Java object trees of the records
+     * @return the checkpoint after the last complete record. When an exception is thrown, the records since the given checkpoint
+     * are read again when reading resumes from it.
+     * @throws Xb4jException when the file could not be read, is shorter than the checkpoint, or a record could not be unmarshalled
+     */
+    public TailCheckpoint follow(Path file, TailCheckpoint checkpoint, Consumer<Object> consumer) {
+        if (file == null) {
+            throw new NullPointerException("Path cannot be null");
+        }
+        if (checkpoint == null) {
+            throw new NullPointerException("TailCheckpoint cannot be null");
+        }
+        if (consumer == null) {
+            throw new NullPointerException("Consumer cannot be null");
+        }
+        if (checkpoint.isComplete()) {
+            return checkpoint;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < checkpoint.getOffset()) {
+                throw new Xb4jException(String.format("%s is shorter than the checkpoint at byte %d; it is not append-only", file,
+                        checkpoint.getOffset()));
+            }
+            return new TailReader(this, consumer, checkpoint).read(channel);
+        } catch (IOException e) {
+            throw new Xb4jException(String.format("Cannot read xml file %s", file), e);
+        }
+    }
+
+    /**
+     * Read Java object tree from the remaining bytes of the buffer, e.g. a direct buffer. The position of the buffer is not
+     * changed.
+     *
+     * @param buffer the buffer that contains the xml document
+     * @return the Java object tree read from the buffer
+     * @throws Xb4jException when something went wrong during unmarshalling of the xml document
+     */
+    public Object toJava(ByteBuffer buffer) {
+        return toJava(XmlStreamFactory.makeTokenizer(buffer, getStaxFactories()), LocationTracking.FULL);
+    }
+
+    /**
+     * Read Java object tree from the xml stream of the given channel. The channel is not closed; that is the responsibility of the
+     * caller.
+     *
+     * @param channel the channel to read the xml document from
+     * @return the Java object tree read from the channel
+     * @throws Xb4jException when something went wrong during unmarshalling of the xml stream
+     */
+    public Object toJava(ReadableByteChannel channel) {
+        return toJava(XmlStreamFactory.makeTokenizer(channel, getStaxFactories()), LocationTracking.FULL);
+    }
+
+    /**
+     * Read Java object tree from a DOM tree, without serializing it to bytes and parsing it again
+     *
+     * @param node the document, document fragment or element to unmarshall
+     * @return the Java object tree read from the DOM tree
+     * @throws Xb4jException when something went wrong during unmarshalling of the DOM tree
+     */
+    public Object toJava(Node node) {
+        return toJava(XmlStreamFactory.makeTokenizer(node), LocationTracking.FULL);
+    }
+
+    /**
+     * Read Java object tree from events that are captured before, e.g. with a {@link SaxEventRecorder} or
+     * {@link RecordAndPlaybackXMLStreamReader#skipToElementEnd()}
+     *
+     * @param events the events of a complete element
+     * @return the Java object tree read from the events
+     * @throws Xb4jException when something went wrong during unmarshalling of the events
+     */
+    public Object toJava(List<ParseEventData> events) {
+        return toJava(XmlStreamFactory.makeTokenizer(events), LocationTracking.FULL);
+    }
+
+    /**
+     * Read Java object tree from the SAX events that the {@link XMLReader} of the source produces for it's input. When the source
+     * has no {@link XMLReader}, the input is parsed with a namespace aware SAX parser. The events are captured with a
+     * {@link SaxEventRecorder} and then unmarshalled.
+     *
+     * @param source the SAX source
+     * @return the Java object tree read from the SAX events
+     * @throws Xb4jException when the source could not be read or unmarshalled
+     */
+    public Object toJava(SAXSource source) {
+        if (source == null) {
+            throw new NullPointerException("SAXSource cannot be null");
+        }
+        SaxEventRecorder recorder = new SaxEventRecorder();
+        try {
+            XMLReader saxReader = source.getXMLReader();
+            if (saxReader == null) {
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                saxReader = factory.newSAXParser().getXMLReader();
+            }
+            saxReader.setContentHandler(recorder);
+            saxReader.parse(source.getInputSource());
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new Xb4jException("Exception occured when reading SAX events", e);
+        }
+        return toJava(recorder.getEvents());
+    }
+
+    /**
+     * Create a reader for the given tokenizer with the settings of the {@link BindingModel} of this streamer, or with the default
+     * settings when the binding is not registered with a model
+     */
+    RecordAndPlaybackXMLStreamReader newReader(XmlTokenizer tokenizer, LocationTracking locationTracking)
+            throws XMLStreamException {
+        BindingModel model = binding.getModel();
+        if (model != null) {
+            return model.newReader(tokenizer, locationTracking);
+        }
+        return new RecordAndPlaybackXMLStreamReader(tokenizer, locationTracking, null, RecordingBudget.UNLIMITED);
+    }
+
+    /**
+     * Read the Java object tree from the element that the reader is positioned before
+     *
+     * @param rpbReader the reader, positioned before the start of the element of this streamer
+     * @return the Java object tree
+     * @throws Xb4jException when the element could not be unmarshalled
+     */
+    Object toJava(RecordAndPlaybackXMLStreamReader rpbReader) throws XMLStreamException {
+        UnmarshallResult result = binding.toJava(rpbReader, new JavaContext(null));
+        if (result.isUnmarshallSuccessful()) {
+            return result.getUnmarshalledObject();
+        }
+        throw new Xb4jException(result.getErrorMessage());
+    }
+
+    /**
+     * Read the elements of this streamer that are the children of the root element of the xml stream, and pass their Java object
+     * trees to the consumer. Other children of the root element are skipped.
+     *
+     * @param tokenizer the tokenizer of the xml stream
+     * @param consumer the receiver of the Java object trees
+     * @throws Xb4jException when an element could not be unmarshalled
+     */
+    void toJavaRecords(XmlTokenizer tokenizer, Consumer<Object> consumer) throws XMLStreamException {
+        RecordAndPlaybackXMLStreamReader rpbReader = null;
+        try {
+            rpbReader = newReader(tokenizer, LocationTracking.NONE);
+            ParseEventData wrapper = rpbReader.peekTag();
+            rpbReader.isNextAnElementStart(wrapper.getName());
+            QName recordElement = binding.getElement();
+            ParseEventData next = rpbReader.peekTag();
+            while (next.getEventType() == XMLStreamReader.START_ELEMENT) {
+                if (recordElement.equals(next.getName())) {
+                    consumer.accept(toJava(rpbReader));
+                } else {
+                    rpbReader.isNextAnElementStart(next.getName());
+                    rpbReader.skipElement();
+                }
+                next = rpbReader.peekTag();
+            }
+        } finally {
+            if (rpbReader != null) {
+                rpbReader.close();
+            }
+        }
+    }
+
     /**
      * Marshall a Java instance into xml representation
      *
@@ -110,6 +434,111 @@ public class XmlStreamer {
         }
     }
 
+    /**
+     * Marshall a Java instance into UTF-8 encoded xml representation, that is written to the given channel. The channel is not
+     * closed.
+     *
+     * @param channel the channel to write the xml to
+     * @param instance the Java object to marshall
+     */
+    public void toXml(WritableByteChannel channel, Object instance) {
+        if (channel == null) {
+            throw new NullPointerException("WritableByteChannel cannot be null");
+        }
+        XMLStreamWriter staxWriter = getStaxFactories().createWriter(Channels.newOutputStream(channel),
+                StandardCharsets.UTF_8.name());
+        toXml(staxWriter, instance);
+        try {
+            staxWriter.close();
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Exception occured when writing object to xml stream", e);
+        }
+    }
+
+    /**
+     * Marshall a Java instance into gzip compressed, UTF-8 encoded xml, that is written to the given stream. The xml is compressed
+     * in blocks on the common {@link ForkJoinPool} by a {@link ParallelGzipOutputStream}. The stream is not closed.
+     *
+     * @param stream the stream to write the compressed xml to
+     * @param instance the Java object to marshall
+     */
+    public void toGzippedXml(OutputStream stream, Object instance) {
+        toGzippedXml(stream, instance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Marshall a Java instance into gzip compressed xml, like {@link #toGzippedXml(OutputStream, Object)}, but compress the blocks
+     * on the given pool.
+     *
+     * @param stream the stream to write the compressed xml to
+     * @param instance the Java object to marshall
+     * @param pool the {@link ForkJoinPool} to compress the blocks on
+     */
+    public void toGzippedXml(OutputStream stream, Object instance, ForkJoinPool pool) {
+        ParallelGzipOutputStream compressed = new ParallelGzipOutputStream(stream, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE,
+                Deflater.DEFAULT_COMPRESSION, pool);
+        XMLStreamWriter staxWriter = getStaxFactories().createWriter(compressed, StandardCharsets.UTF_8.name());
+        toXml(staxWriter, instance);
+        try {
+            staxWriter.close();
+            compressed.finish();
+        } catch (XMLStreamException | IOException e) {
+            throw new Xb4jException("Exception occured when writing object to compressed xml stream", e);
+        }
+    }
+
+    /**
+     * Marshall a Java instance into UTF-8 encoded xml representation, that is written into the buffer from it's position on. When
+     * the buffer is full, a buffer that is twice as large and of the same kind (heap or direct) is allocated.
+     *
+     * @param buffer the buffer to write the xml to
+     * @param instance the Java object to marshall
+     * @return the buffer that holds the xml, positioned after the last byte; this is the given buffer when it was large enough
+     */
+    public ByteBuffer toXml(ByteBuffer buffer, Object instance) {
+        return toXml(new ByteBufferOutputStream(buffer), instance);
+    }
+
+    /**
+     * Marshall a Java instance into xml representation, like {@link #toXml(ByteBuffer, Object)}, but obtain a larger buffer from
+     * the allocator when the buffer is full. The buffers from the allocator that are replaced while the xml grows are left to the
+     * garbage collector; use {@link #toXml(ByteBuffer, IntFunction, Consumer, Object)} to return them to a buffer pool.
+     *
+     * @param buffer the buffer to write the xml to
+     * @param allocator provides a buffer with at least the requested capacity
+     * @param instance the Java object to marshall
+     * @return the buffer that holds the xml, positioned after the last byte; this is the given buffer when it was large enough
+     */
+    public ByteBuffer toXml(ByteBuffer buffer, IntFunction<ByteBuffer> allocator, Object instance) {
+        return toXml(new ByteBufferOutputStream(buffer, allocator), instance);
+    }
+
+    /**
+     * Marshall a Java instance into xml representation, like {@link #toXml(ByteBuffer, Object)}, but obtain a larger buffer from
+     * the allocator, e.g. a buffer pool, when the buffer is full. The given buffer and the returned buffer belong to the caller;
+     * every other buffer from the allocator is passed to the releaser as soon as it is replaced by a larger one.
+     *
+     * @param buffer the buffer to write the xml to
+     * @param allocator provides a buffer with at least the requested capacity
+     * @param releaser receives the buffers from the allocator that are no longer used
+     * @param instance the Java object to marshall
+     * @return the buffer that holds the xml, positioned after the last byte; this is the given buffer when it was large enough
+     */
+    public ByteBuffer toXml(ByteBuffer buffer, IntFunction<ByteBuffer> allocator, Consumer<ByteBuffer> releaser, Object instance) {
+        return toXml(new ByteBufferOutputStream(buffer, allocator, releaser), instance);
+    }
+
+    private ByteBuffer toXml(ByteBufferOutputStream stream, Object instance) {
+        XMLStreamWriter staxWriter = getStaxFactories().createWriter(stream, StandardCharsets.UTF_8.name());
+        toXml(staxWriter, instance);
+        try {
+            staxWriter.close();
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Exception occured when writing object to xml stream", e);
+        }
+        return stream.getBuffer();
+    }
+
     public Class<?> getJavaType() {
         return binding.getJavaType();
     }
@@ -122,4 +551,12 @@ public class XmlStreamer {
         return binding.getModel();
     }
 
+    /**
+     * @return the {@link StaxFactories} of the model, or the default factories when the binding is not part of a model
+     */
+    StaxFactories getStaxFactories() {
+        BindingModel model = binding.getModel();
+        return model == null ? XmlStreamFactory.getDefaultStaxFactories() : model.getStaxFactories();
+    }
+
 }
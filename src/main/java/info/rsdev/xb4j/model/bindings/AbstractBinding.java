@@ -30,6 +30,7 @@ import info.rsdev.xb4j.model.java.constructor.ICreator;
 import info.rsdev.xb4j.model.java.constructor.IJavaArgument;
 import info.rsdev.xb4j.model.java.constructor.NullCreator;
 import info.rsdev.xb4j.model.xml.IElementFetchStrategy;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
@@ -37,10 +38,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
@@ -179,6 +178,19 @@ public abstract class AbstractBinding implements IBinding {
         return Collections.unmodifiableCollection(this.attributes);
     }
 
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        QName element = getElement();
+        if (element != null) {
+            symbolTable.adopt(element);
+        }
+        for (IAttribute attribute : getAttributes()) {
+            if (attribute.getAttributeName() != null) {
+                symbolTable.adopt(attribute.getAttributeName());
+            }
+        }
+    }
+
     boolean hasAttributes() {
         return (this.attributes != null) && !this.attributes.isEmpty();
     }
@@ -399,14 +411,12 @@ public abstract class AbstractBinding implements IBinding {
     void attributesToJava(RecordAndPlaybackXMLStreamReader staxReader, JavaContext javaContext) throws XMLStreamException {
         Collection<IAttribute> expectedAttributes = getAttributes();
         if ((expectedAttributes != null) && !expectedAttributes.isEmpty()) {
-            Map<QName, String> actualAttributes = staxReader.getAttributes();
-            if (actualAttributes != null) {
-                actualAttributes = new HashMap<>(actualAttributes);
+            if (staxReader.hasAttributes()) {
                 for (IAttribute attribute : expectedAttributes) {
-                    if (!actualAttributes.containsKey(attribute.getAttributeName()) && attribute.isRequired()) {
+                    String value = staxReader.getAttributeValue(attribute.getAttributeName());
+                    if ((value == null) && attribute.isRequired()) {
                         throw new Xb4jException(String.format("%s is required but not found in xml for %s", attribute, this));
                     }
-                    String value = actualAttributes.get(attribute.getAttributeName());
                     attribute.toJava(value, javaContext);
                 }
             }
@@ -418,9 +428,23 @@ public abstract class AbstractBinding implements IBinding {
         if (logger.isTraceEnabled()) {
             logger.trace("{Unmarshalling} " + getPath());
         }
+        long memoPosition = staxReader.getMemoPosition();
+        if (memoPosition >= 0) {
+            UnmarshallResult memoized = (UnmarshallResult) staxReader.recall(this);
+            if (memoized != null) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("{Unmarshalling} %s: recalled %s", getPath(), memoized));
+                }
+                return memoized;
+            }
+        }
         javaContext = this.actionManager.executeActions(ExecutionPhase.BEFORE_UNMARSHALLING, javaContext);
 
         UnmarshallResult result = unmarshall(staxReader, javaContext);
+        if ((memoPosition >= 0) && result.isError()) {
+            // a successful result is not memoized: it's Java object is bound to the Java context it was unmarshalled in
+            staxReader.memoize(this, memoPosition, result);
+        }
 
         if (this.actionManager.hasActionsForPhase(ExecutionPhase.AFTER_UNMARSHALLING)) {
             JavaContext actionContext = javaContext.getContextObject() == null
@@ -624,11 +648,8 @@ public abstract class AbstractBinding implements IBinding {
         return false;
     }
 
-    boolean containsNil(Map<QName, String> attributes) {
-        if (attributes == null) {
-            return false;
-        }
-        return Boolean.parseBoolean(attributes.get(NIL_ATTRIBUTE));
+    boolean containsNil(RecordAndPlaybackXMLStreamReader staxReader) {
+        return Boolean.parseBoolean(staxReader.getAttributeValue(NIL_ATTRIBUTE));
     }
 
     /**
@@ -659,7 +680,7 @@ public abstract class AbstractBinding implements IBinding {
      * @throws XMLStreamException propagate exceptions that may occur while reading the xml stream
      */
     boolean isNil(RecordAndPlaybackXMLStreamReader staxReader) throws XMLStreamException {
-        if (containsNil(staxReader.getAttributes())) {
+        if (containsNil(staxReader)) {
             if (!isNillable()) {
                 throw new Xb4jUnmarshallException(String.format("Found unexpected nil-attribute on xml element <%s>. Consider "
                         + "adding the NILLABLE option to the binding", getElement()), this);
@@ -20,6 +20,7 @@ import info.rsdev.xb4j.model.java.accessor.ISetter;
 import info.rsdev.xb4j.model.java.constructor.ICreator;
 import info.rsdev.xb4j.model.java.constructor.IJavaArgument;
 import info.rsdev.xb4j.model.xml.IElementFetchStrategy;
+import info.rsdev.xb4j.util.QNameTable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -130,6 +131,14 @@ public abstract class AbstractContainerBinding extends AbstractBinding implement
         });
     }
 
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        super.adoptNames(symbolTable);
+        this.children.forEach((child) -> {
+            child.adoptNames(symbolTable);
+        });
+    }
+
     @Override
     public IJavaArgument findArgumentBindingOrAttribute(QName argumentQName) {
         IJavaArgument argumentBinding = super.findArgumentBindingOrAttribute(argumentQName);
@@ -20,6 +20,7 @@ import info.rsdev.xb4j.model.java.accessor.IGetter;
 import info.rsdev.xb4j.model.java.accessor.ISetter;
 import info.rsdev.xb4j.model.java.constructor.ICreator;
 import info.rsdev.xb4j.model.xml.IElementFetchStrategy;
+import info.rsdev.xb4j.util.QNameTable;
 
 /**
  *
@@ -119,4 +120,13 @@ public abstract class AbstractSingleBinding extends AbstractBinding implements I
         }
     }
 
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        super.adoptNames(symbolTable);
+        // the child as it is; a Reference is not resolved for this
+        if (this.childBinding != null) {
+            this.childBinding.adoptNames(symbolTable);
+        }
+    }
+
 }
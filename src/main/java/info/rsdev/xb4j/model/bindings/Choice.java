@@ -19,11 +19,18 @@ import info.rsdev.xb4j.model.java.accessor.ISetter;
 import info.rsdev.xb4j.model.java.constructor.NullCreator;
 import info.rsdev.xb4j.model.xml.DefaultElementFetchStrategy;
 import info.rsdev.xb4j.model.xml.NoElementFetchStrategy;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +56,12 @@ public class Choice extends AbstractBinding {
      */
     private final List<IChooser> choosers = new LinkedList<>();
 
+    /**
+     * Lookup of the options that can match the next start element, or null when it is not built (yet). It is built when the
+     * references in the binding tree are resolved, which happens when the binding tree is made immutable.
+     */
+    private volatile OptionIndex optionIndex = null;
+
     /**
      * Create a new {@link Choice}.
      * @param isOptional
@@ -133,6 +146,7 @@ public class Choice extends AbstractBinding {
             option.setParent(this); // maintain bidirectional relationship
             options.add(option);
             choosers.add(selector);
+            optionIndex = null;
             return option;
         } finally {
             getSemaphore().unlock();
@@ -182,7 +196,13 @@ public class Choice extends AbstractBinding {
             boolean matchingOptionFound = false;
             UnmarshallResult result = null;
             int optionCounter = 1;
+            OptionIndex index = this.optionIndex;
+            boolean[] candidates = index == null ? null : index.selectCandidates(staxReader);
             for (IBinding candidate : options) {
+                if ((candidates != null) && !candidates[optionCounter - 1]) {
+                    optionCounter++;
+                    continue;   // this option cannot start with the next element
+                }
                 if (logger.isDebugEnabled()) {
                     logger.debug(String.format("[Unmarshal] Trying option %d from %d of %s", optionCounter, options.size(), this));
                 }
@@ -287,6 +307,112 @@ public class Choice extends AbstractBinding {
         options.forEach((option) -> {
             option.resolveReferences();
         });
+        this.optionIndex = OptionIndex.build(options);
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Built %s for %s", optionIndex, this));
+        }
+    }
+
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        super.adoptNames(symbolTable);
+        options.forEach((option) -> {
+            option.adoptNames(symbolTable);
+        });
+    }
+
+    List<IBinding> getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Lookup of the options of a {@link Choice} by the {@link FirstElements first element} they can start with. Options of which
+     * the first elements are unknown, or that can match without reading a start element, are candidates for every element. Options
+     * that share a first element are all candidates for that element, so that they are still tried in the order they were added.
+     */
+    private static final class OptionIndex {
+
+        private final int optionCount;
+
+        private final Map<QName, int[]> optionsByElement;
+
+        private final int[] alwaysCandidates;
+
+        private OptionIndex(int optionCount, Map<QName, int[]> optionsByElement, int[] alwaysCandidates) {
+            this.optionCount = optionCount;
+            this.optionsByElement = optionsByElement;
+            this.alwaysCandidates = alwaysCandidates;
+        }
+
+        private static OptionIndex build(List<IBinding> options) {
+            Map<QName, List<Integer>> byElement = new HashMap<>();
+            List<Integer> always = new ArrayList<>();
+            int optionNumber = 0;
+            for (IBinding option : options) {
+                FirstElements firstElements = FirstElements.of(option);
+                if (!firstElements.isKnown() || firstElements.matchesEmpty()) {
+                    always.add(optionNumber);
+                } else {
+                    for (QName element : firstElements.getElements()) {
+                        byElement.computeIfAbsent(element, (name) -> new ArrayList<>()).add(optionNumber);
+                    }
+                }
+                optionNumber++;
+            }
+
+            Map<QName, int[]> optionsByElement = new HashMap<>(byElement.size() * 2);
+            byElement.forEach((element, optionNumbers) -> {
+                optionsByElement.put(element, toArray(optionNumbers));
+            });
+            return new OptionIndex(optionNumber, optionsByElement, toArray(always));
+        }
+
+        private static int[] toArray(List<Integer> values) {
+            int[] result = new int[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Determine which options can match the xml that follows. Besides the next start element, the current start element is
+         * taken into account, because some bindings accept the element that has just been read.
+         *
+         * @return per option, whether it can match
+         */
+        private boolean[] selectCandidates(RecordAndPlaybackXMLStreamReader staxReader) throws XMLStreamException {
+            boolean[] candidates = new boolean[optionCount];
+            for (int optionNumber : alwaysCandidates) {
+                candidates[optionNumber] = true;
+            }
+            int currentEvent = staxReader.getEvent();
+            if (currentEvent == XMLStreamConstants.START_ELEMENT) {
+                markCandidates(candidates, staxReader.getName());
+            }
+            if (currentEvent != XMLStreamConstants.END_DOCUMENT) {
+                ParseEventData next = staxReader.peekTag();
+                if (next.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                    markCandidates(candidates, next.getName());
+                }
+            }
+            return candidates;
+        }
+
+        private void markCandidates(boolean[] candidates, QName element) {
+            int[] optionNumbers = optionsByElement.get(element);
+            if (optionNumbers != null) {
+                for (int optionNumber : optionNumbers) {
+                    candidates[optionNumber] = true;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("OptionIndex[elements=%s, alwaysCandidates=%s]", optionsByElement.keySet(),
+                    Arrays.toString(alwaysCandidates));
+        }
     }
 
 }
@@ -92,7 +92,7 @@ public class ElementInjector extends AbstractBinding {
         }
 
         //start tag is found: consume and ignore xml stream until end tag
-        staxReader.skipToElementEnd();
+        staxReader.skipElement();
 
         return UnmarshallResult.NO_RESULT;
     }
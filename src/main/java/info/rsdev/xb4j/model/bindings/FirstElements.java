@@ -0,0 +1,185 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model.bindings;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.xml.namespace.QName;
+
+/**
+ * <p>
+ * The elements that the xml of a binding can start with, as far as they can be determined from the binding tree. A {@link Choice}
+ * uses them to select the options that can possibly match the next start element, instead of trying every option in turn.</p>
+ * <p>
+ * The first elements are followed through element-less {@link Sequence}, {@link Choice}, {@link Repeater}, {@link ComplexType}
+ * and {@link Reference} bindings. For other element-less bindings (e.g. a {@link SimpleType} that reads the text of the current
+ * element) they are unknown.</p>
+ *
+ * @author Dave Schoorl
+ */
+final class FirstElements {
+
+    /**
+     * The first elements of a binding that can not be analyzed; such a binding must always be tried
+     */
+    static final FirstElements UNKNOWN = new FirstElements(null, true, true);
+
+    private static final FirstElements EMPTY = new FirstElements(Collections.<QName>emptySet(), true, true);
+
+    /**
+     * The names of the elements the binding can start with, or null when unknown
+     */
+    private final Set<QName> elements;
+
+    /**
+     * Whether the binding can be unmarshalled successfully without reading any of the {@link #elements}, so that the bindings
+     * after it in a {@link Sequence} can provide the first element
+     */
+    private final boolean optional;
+
+    /**
+     * Whether the binding can produce an {@link UnmarshallResult} that is not an error without reading any of the
+     * {@link #elements}. This differs from {@link #optional} for bindings with an element: a missing optional element is reported
+     * with an error code, that makes a {@link Choice} try the next option.
+     */
+    private final boolean matchesEmpty;
+
+    private FirstElements(Set<QName> elements, boolean optional, boolean matchesEmpty) {
+        this.elements = elements;
+        this.optional = optional;
+        this.matchesEmpty = matchesEmpty;
+    }
+
+    /**
+     * Determine the first elements of the given binding
+     *
+     * @param binding the {@link IBinding} to analyze
+     * @return the {@link FirstElements} of the binding, which may be {@link #UNKNOWN}
+     */
+    static FirstElements of(IBinding binding) {
+        return of(binding, new HashSet<>());
+    }
+
+    private static FirstElements of(IBinding binding, Set<IBinding> visiting) {
+        if (!visiting.add(binding)) {
+            return UNKNOWN; // recursion without reading an element
+        }
+        try {
+            QName element = binding.getElement();
+            if (element != null) {
+                return ofElement(binding, element);
+            }
+            if (binding instanceof Sequence) {
+                return ofSequence((Sequence) binding, visiting);
+            }
+            if (binding instanceof Choice) {
+                return ofChoice((Choice) binding, visiting);
+            }
+            if (binding instanceof Repeater) {
+                IBinding item = ((Repeater) binding).getItem();
+                FirstElements itemElements = item == null ? UNKNOWN : of(item, visiting);
+                if (!itemElements.isKnown()) {
+                    return UNKNOWN;
+                }
+                return new FirstElements(itemElements.elements, binding.isOptional(), binding.isOptional());
+            }
+            if ((binding instanceof ComplexType) || (binding instanceof Element)) {
+                IBinding child = ((AbstractSingleBinding) binding).getChildBinding();
+                if (child == null) {
+                    return EMPTY;
+                }
+                FirstElements childElements = of(child, visiting);
+                if (!childElements.isKnown()) {
+                    return UNKNOWN;
+                }
+                return new FirstElements(childElements.elements, childElements.optional, childElements.optional);
+            }
+            return UNKNOWN;
+        } finally {
+            visiting.remove(binding);
+        }
+    }
+
+    private static FirstElements ofElement(IBinding binding, QName element) {
+        if (binding instanceof Recursor) {
+            return UNKNOWN; // a Recursor may be successful without reading it's element
+        }
+        if (binding instanceof ElementInjector) {
+            return new FirstElements(Collections.singleton(element), true, false);
+        }
+        if ((binding instanceof AbstractBinding) || (binding instanceof Ignore)) {
+            return new FirstElements(Collections.singleton(element), binding.isOptional(), false);
+        }
+        return UNKNOWN;
+    }
+
+    private static FirstElements ofSequence(Sequence sequence, Set<IBinding> visiting) {
+        Set<QName> elements = new HashSet<>();
+        for (IBinding child : sequence.getChildren()) {
+            FirstElements childElements = of(child, visiting);
+            if (!childElements.isKnown()) {
+                return UNKNOWN;
+            }
+            elements.addAll(childElements.elements);
+            if (!childElements.optional) {
+                return new FirstElements(elements, false, false);
+            }
+        }
+        return new FirstElements(elements, true, true);
+    }
+
+    private static FirstElements ofChoice(Choice choice, Set<IBinding> visiting) {
+        Set<QName> elements = new HashSet<>();
+        boolean matchesEmpty = choice.isOptional();
+        for (IBinding option : choice.getOptions()) {
+            FirstElements optionElements = of(option, visiting);
+            if (!optionElements.isKnown()) {
+                return UNKNOWN;
+            }
+            elements.addAll(optionElements.elements);
+            matchesEmpty |= optionElements.matchesEmpty;
+        }
+        return new FirstElements(elements, matchesEmpty, matchesEmpty);
+    }
+
+    boolean isKnown() {
+        return this.elements != null;
+    }
+
+    /**
+     * @return the names of the elements the binding can start with; only to be called when the first elements are known
+     */
+    Set<QName> getElements() {
+        return Collections.unmodifiableSet(this.elements);
+    }
+
+    boolean isOptional() {
+        return this.optional;
+    }
+
+    boolean matchesEmpty() {
+        return this.matchesEmpty;
+    }
+
+    @Override
+    public String toString() {
+        if (!isKnown()) {
+            return "FirstElements[unknown]";
+        }
+        return String.format("FirstElements[elements=%s, optional=%b, matchesEmpty=%b]", elements, optional, matchesEmpty);
+    }
+
+}
@@ -24,6 +24,7 @@ import info.rsdev.xb4j.model.java.accessor.NoGetter;
 import info.rsdev.xb4j.model.java.accessor.NoSetter;
 import info.rsdev.xb4j.model.java.constructor.ICreator;
 import info.rsdev.xb4j.model.java.constructor.IJavaArgument;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
 import javax.xml.namespace.QName;
@@ -158,6 +159,17 @@ public interface IBinding {
     void validateMutability();
 
     void resolveReferences();
+
+    /**
+     * Make the element and attribute names of this binding and it's children the canonical names in the symbol table of the
+     * model, so that the names read from xml can be compared with them by reference. This is done once, when the binding tree
+     * becomes immutable; a name that is adopted by another binding before keeps it's canonical instance. By default, no names are
+     * adopted and the names of the binding are compared by value.
+     *
+     * @param symbolTable the {@link QNameTable} of the model
+     */
+    default void adoptNames(QNameTable symbolTable) {
+    }
     
     /**
      * Check if the given {@link SchemaOption option}  is set on this binding.
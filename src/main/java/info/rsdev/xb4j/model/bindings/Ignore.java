@@ -8,6 +8,7 @@ import info.rsdev.xb4j.model.java.JavaContext;
 import info.rsdev.xb4j.model.java.accessor.IGetter;
 import info.rsdev.xb4j.model.java.accessor.ISetter;
 import info.rsdev.xb4j.model.java.constructor.IJavaArgument;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
 import java.util.ArrayList;
@@ -59,11 +60,9 @@ public class Ignore implements IBinding {
         this.actionManager.executeActions(ExecutionPhase.BEFORE_UNMARSHALLING, javaContext);
 
         //start tag is found: consume and ignore xml stream until end tag and do so for all repeating elements (if any)
-        while (staxReader.skipToElementEnd() != null) {
-            if (!staxReader.isNextAnElementStart(expectedElement)) {
-                break;
-            }
-        }
+        do {
+            staxReader.skipElement();
+        } while (staxReader.isNextAnElementStart(expectedElement));
 
         this.actionManager.executeActions(ExecutionPhase.AFTER_UNMARSHALLING, javaContext);
 
@@ -272,6 +271,11 @@ public class Ignore implements IBinding {
         //there are no child bindings to resolve references for... nothing to do
     }
 
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        //the ignored xml is not bound to anything... nothing to do
+    }
+
     @Override
     public IJavaArgument findArgumentBindingOrAttribute(QName argumentQName) {
         //this implementation ignores all xml as of this point; therfore, there no IJavaArgument in this xml tree is read
@@ -23,6 +23,7 @@ import info.rsdev.xb4j.model.java.constructor.DefaultConstructor;
 import info.rsdev.xb4j.model.java.constructor.NullCreator;
 import info.rsdev.xb4j.model.xml.DefaultElementFetchStrategy;
 import info.rsdev.xb4j.model.xml.NoElementFetchStrategy;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
 import java.util.Map;
@@ -327,4 +328,11 @@ public class MapRepeater extends AbstractBinding {
         valueBinding.resolveReferences();
     }
 
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        super.adoptNames(symbolTable);
+        keyBinding.adoptNames(symbolTable);
+        valueBinding.adoptNames(symbolTable);
+    }
+
 }
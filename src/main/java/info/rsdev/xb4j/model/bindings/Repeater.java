@@ -24,6 +24,7 @@ import info.rsdev.xb4j.model.java.constructor.DefaultConstructor;
 import info.rsdev.xb4j.model.java.constructor.NullCreator;
 import info.rsdev.xb4j.model.xml.DefaultElementFetchStrategy;
 import info.rsdev.xb4j.model.xml.NoElementFetchStrategy;
+import info.rsdev.xb4j.util.QNameTable;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader;
 import info.rsdev.xb4j.util.SimplifiedXMLStreamWriter;
 import java.util.Collection;
@@ -91,6 +92,13 @@ public class Repeater extends AbstractBinding {
         }
     }
 
+    /**
+     * @return the binding for the items in the collection, as it is set on this {@link Repeater}
+     */
+    IBinding getItem() {
+        return this.itemBinding;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public UnmarshallResult unmarshall(RecordAndPlaybackXMLStreamReader staxReader, JavaContext javaContext)
@@ -327,6 +335,14 @@ public class Repeater extends AbstractBinding {
         }
     }
 
+    @Override
+    public void adoptNames(QNameTable symbolTable) {
+        super.adoptNames(symbolTable);
+        if (itemBinding != null) {
+            itemBinding.adoptNames(symbolTable);
+        }
+    }
+
     @Override
     public void validateContextObject(JavaContext javaContext) throws Xb4jException {
         Object collection = getProperty(javaContext).getContextObject();
@@ -35,7 +35,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
-import java.util.Map;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
@@ -313,10 +312,8 @@ public class SimpleFileType extends AbstractBinding {
                         value = attributeDefinition.getValue(javaContext);
                     } else {
                         //we are unmarshalling from Xml to Java
-                        Map<QName, String> attributes = staxReader.getAttributes();
-                        if ((attributes != null) && attributes.containsKey(attributeSource)) {
-                            value = attributes.get(attributeSource);
-                        } else {
+                        value = staxReader.getAttributeValue(attributeSource);
+                        if (value == null) {
                             value = attributeDefinition.getValue(javaContext);
                         }
                     }
@@ -0,0 +1,129 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * <p>
+ * An {@link OutputStream} that writes into a {@link ByteBuffer}, starting at it's position. When the buffer is full, a buffer that
+ * is at least twice as large is obtained from the allocator, e.g. a pool of direct buffers, and the bytes written so far are
+ * copied into it. {@link #getBuffer()} returns the buffer that holds the bytes, which is not the initial buffer after it has
+ * grown.</p>
+ * <p>
+ * The initial buffer and the buffer returned by {@link #getBuffer()} belong to the caller. Every other buffer that is obtained from
+ * the allocator is replaced when the stream grows again; it is passed to the releaser, e.g. to return it to the pool it came from,
+ * and must not be used by the stream anymore.</p>
+ * <p>
+ * This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class ByteBufferOutputStream extends OutputStream {
+
+    private final IntFunction<ByteBuffer> allocator;
+
+    private final Consumer<ByteBuffer> releaser;
+
+    private final ByteBuffer initial;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Create a {@link ByteBufferOutputStream} that allocates a larger buffer of the same kind (heap or direct) as the given buffer
+     *
+     * @param buffer the buffer to write into first
+     */
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        this(buffer, (buffer != null) && buffer.isDirect() ? ByteBuffer::allocateDirect : ByteBuffer::allocate);
+    }
+
+    /**
+     * Create a {@link ByteBufferOutputStream} that leaves the buffers that it replaces to the garbage collector
+     *
+     * @param buffer the buffer to write into first
+     * @param allocator provides a buffer with at least the requested capacity when the current buffer is full
+     */
+    public ByteBufferOutputStream(ByteBuffer buffer, IntFunction<ByteBuffer> allocator) {
+        this(buffer, allocator, (replaced) -> {
+        });
+    }
+
+    /**
+     * Create a {@link ByteBufferOutputStream}
+     *
+     * @param buffer the buffer to write into first
+     * @param allocator provides a buffer with at least the requested capacity when the current buffer is full
+     * @param releaser receives every buffer from the allocator that is replaced by a larger one; not the initial buffer
+     */
+    public ByteBufferOutputStream(ByteBuffer buffer, IntFunction<ByteBuffer> allocator, Consumer<ByteBuffer> releaser) {
+        if (buffer == null) {
+            throw new NullPointerException("ByteBuffer cannot be null");
+        }
+        if (allocator == null) {
+            throw new NullPointerException("Allocator cannot be null");
+        }
+        if (releaser == null) {
+            throw new NullPointerException("Releaser cannot be null");
+        }
+        this.buffer = buffer;
+        this.initial = buffer;
+        this.allocator = allocator;
+        this.releaser = releaser;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] source, int offset, int length) {
+        ensureRemaining(length);
+        buffer.put(source, offset, length);
+    }
+
+    private void ensureRemaining(int count) {
+        if (buffer.remaining() < count) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + count);
+            ByteBuffer larger = allocator.apply(capacity);
+            if (larger.remaining() < buffer.position() + count) {
+                throw new IllegalStateException(String.format("Allocator returned a buffer with %d bytes remaining; expected %d",
+                        larger.remaining(), buffer.position() + count));
+            }
+            buffer.flip();
+            larger.put(buffer);
+            ByteBuffer replaced = buffer;
+            buffer = larger;
+            if (replaced != initial) {
+                releaser.accept(replaced);
+            }
+        }
+    }
+
+    /**
+     * Get the buffer that holds the bytes written, positioned after the last byte written
+     *
+     * @return the current buffer
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+}
@@ -0,0 +1,257 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * An {@link XmlTokenizer} that walks a DOM tree, so that a {@link Node} can be unmarshalled without serializing it to bytes and
+ * parsing it again. The node can be a document, a document fragment or an element; comments, processing instructions and the
+ * document type are skipped and entity references are replaced by their children. The DOM should be namespace aware; for nodes
+ * that are not, the node name is used as local name. The DOM must not be changed while it is tokenized.
+ *
+ * @author Dave Schoorl
+ */
+final class DomTokenizer implements XmlTokenizer, XMLStreamConstants {
+
+    /**
+     * A DOM has no line- and column numbers
+     */
+    private static final Location UNKNOWN_LOCATION = new StreamLocation(-1, -1, -1);
+
+    private final Node root;
+
+    private Node node = null;
+
+    /**
+     * True when the current event is the end of the {@link #node}, rather than it's start
+     */
+    private boolean atEnd = false;
+
+    private int eventType = START_DOCUMENT;
+
+    private QName name = null;
+
+    private final List<Attr> attributes = new ArrayList<>();
+
+    private char[] text = null;
+
+    DomTokenizer(Node root) {
+        if (root == null) {
+            throw new NullPointerException("Node cannot be null");
+        }
+        this.root = root;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        while (eventType != END_DOCUMENT) {
+            if (!advance()) {
+                eventType = END_DOCUMENT;
+                break;
+            }
+            if (toEvent()) {
+                break;
+            }
+        }
+        return eventType;
+    }
+
+    /**
+     * Move to the next node in document order, or to the end of the current node when it has no more children
+     *
+     * @return false when the whole tree is walked
+     */
+    private boolean advance() {
+        if (node == null) {
+            node = root;
+            atEnd = false;
+        } else if (!atEnd && isContainer(node)) {
+            if (node.getFirstChild() != null) {
+                node = node.getFirstChild();
+            } else {
+                atEnd = true;
+            }
+        } else if (node == root) {
+            return false;
+        } else if (node.getNextSibling() != null) {
+            node = node.getNextSibling();
+            atEnd = false;
+        } else {
+            node = node.getParentNode();
+            atEnd = true;
+        }
+        return true;
+    }
+
+    /**
+     * Set up the event for the current node
+     *
+     * @return false when the node has no event, and is skipped
+     */
+    private boolean toEvent() {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                name = toQName(node);
+                text = null;
+                if (atEnd) {
+                    eventType = END_ELEMENT;
+                } else {
+                    eventType = START_ELEMENT;
+                    collectAttributes();
+                }
+                return true;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                eventType = node.getNodeType() == Node.TEXT_NODE ? CHARACTERS : CDATA;
+                text = node.getNodeValue().toCharArray();
+                return true;
+            default:
+                return false; // document, entity reference, comment, processing instruction, document type
+        }
+    }
+
+    private static boolean isContainer(Node node) {
+        short nodeType = node.getNodeType();
+        return (nodeType == Node.ELEMENT_NODE) || (nodeType == Node.DOCUMENT_NODE) || (nodeType == Node.DOCUMENT_FRAGMENT_NODE)
+                || (nodeType == Node.ENTITY_REFERENCE_NODE);
+    }
+
+    private void collectAttributes() {
+        attributes.clear();
+        NamedNodeMap nodeAttributes = node.getAttributes();
+        for (int i = 0; i < nodeAttributes.getLength(); i++) {
+            Attr attribute = (Attr) nodeAttributes.item(i);
+            if (!isNamespaceDeclaration(attribute)) {
+                attributes.add(attribute);
+            }
+        }
+    }
+
+    private static boolean isNamespaceDeclaration(Attr attribute) {
+        if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+            return true;
+        }
+        String nodeName = attribute.getNodeName();
+        return (attribute.getNamespaceURI() == null)
+                && (nodeName.equals(XMLConstants.XMLNS_ATTRIBUTE) || nodeName.startsWith("xmlns:"));
+    }
+
+    private static QName toQName(Node node) {
+        String localName = node.getLocalName();
+        if (localName == null) { // not namespace aware
+            return new QName(node.getNodeName());
+        }
+        String namespaceUri = node.getNamespaceURI();
+        String prefix = node.getPrefix();
+        return new QName(namespaceUri == null ? XMLConstants.NULL_NS_URI : namespaceUri, localName,
+                prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+    }
+
+    @Override
+    public QName getName() {
+        return name;
+    }
+
+    @Override
+    public String getLocalName() {
+        return name.getLocalPart();
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return name.getNamespaceURI();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return attributes.size();
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return toQName(attributes.get(index));
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        String namespaceUri = attributes.get(index).getNamespaceURI();
+        return namespaceUri == null ? XMLConstants.NULL_NS_URI : namespaceUri;
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        Attr attribute = attributes.get(index);
+        return attribute.getLocalName() == null ? attribute.getNodeName() : attribute.getLocalName();
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return attributes.get(index).getValue();
+    }
+
+    @Override
+    public String getText() {
+        return new String(text);
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        return text;
+    }
+
+    @Override
+    public int getTextStart() {
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return text.length;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        int count = Math.max(0, Math.min(length, text.length - sourceStart));
+        System.arraycopy(text, sourceStart, target, targetStart, count);
+        return count;
+    }
+
+    @Override
+    public Location getLocation() {
+        return UNKNOWN_LOCATION;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        node = null;
+        eventType = END_DOCUMENT;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DomTokenizer[root=%s]", root.getNodeName());
+    }
+
+}
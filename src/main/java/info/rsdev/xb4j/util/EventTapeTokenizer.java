@@ -0,0 +1,148 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * An {@link XmlTokenizer} that plays back events that are captured before, e.g. by
+ * {@link RecordAndPlaybackXMLStreamReader#skipToElementEnd()} or a {@link SaxEventRecorder}. The events must form a complete
+ * element. After the last event, {@link XMLStreamConstants#END_DOCUMENT} is reported.
+ *
+ * @author Dave Schoorl
+ */
+final class EventTapeTokenizer implements XmlTokenizer, XMLStreamConstants {
+
+    private static final Location UNKNOWN_LOCATION = new StreamLocation(-1, -1, -1);
+
+    private final List<ParseEventData> events;
+
+    private int index = -1;
+
+    private ParseEventData current = null;
+
+    private char[] text = null;
+
+    EventTapeTokenizer(List<ParseEventData> events) {
+        if (events == null) {
+            throw new NullPointerException("List of events cannot be null");
+        }
+        this.events = events;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (index < events.size()) {
+            index++;
+        }
+        current = index < events.size() ? events.get(index) : null;
+        text = null;
+        return current == null ? END_DOCUMENT : current.getEventType();
+    }
+
+    @Override
+    public QName getName() {
+        return current.getName();
+    }
+
+    @Override
+    public String getLocalName() {
+        return current.getName().getLocalPart();
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return current.getName().getNamespaceURI();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return current.getAttributeCount();
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return current.getAttributeName(index);
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return current.getAttributeName(index).getNamespaceURI();
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return current.getAttributeName(index).getLocalPart();
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return current.getAttributeValue(index);
+    }
+
+    @Override
+    public String getText() {
+        return current.getText();
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        if (text == null) {
+            text = current.getText().toCharArray();
+        }
+        return text;
+    }
+
+    @Override
+    public int getTextStart() {
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return current.getText().length();
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        String value = current.getText();
+        int count = Math.max(0, Math.min(length, value.length() - sourceStart));
+        value.getChars(sourceStart, sourceStart + count, target, targetStart);
+        return count;
+    }
+
+    @Override
+    public Location getLocation() {
+        Location location = current == null ? null : current.getLocation();
+        return location == null ? UNKNOWN_LOCATION : location;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        index = events.size();
+        current = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EventTapeTokenizer[events=%d, position=%d]", events.size(), index);
+    }
+
+}
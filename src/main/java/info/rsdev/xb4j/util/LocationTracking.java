@@ -0,0 +1,44 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Enumeration of the ways the {@link RecordAndPlaybackXMLStreamReader} keeps track of the position in the xml stream where each
+ * parse event was read. The position is only used in error messages and log statements.
+ *
+ * @author Dave Schoorl
+ */
+public enum LocationTracking {
+
+    /**
+     * Keep the {@link Location} that is returned by the {@link XMLStreamReader} for every parse event. This is the default.
+     */
+    FULL,
+
+    /**
+     * Only keep the line- and column number of every parse event. The {@link Location} object returned by the
+     * {@link XMLStreamReader} is not retained while the event is recorded.
+     */
+    LINE_COLUMN,
+
+    /**
+     * Do not keep track of the location of parse events. When a location is needed, the current location of the underlying
+     * {@link XMLStreamReader} is used on a best-effort basis.
+     */
+    NONE;
+}
@@ -0,0 +1,294 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * An {@link OutputStream} that gzip compresses the bytes written to it on the threads of a {@link ForkJoinPool}, in the way of
+ * pigz: the bytes are cut in blocks, that are deflated independently and written in order, so that the result is a standard gzip
+ * stream with a single member, that any gzip reader can decompress. Every block is deflated with the last 32 KiB of the block
+ * before it as dictionary, so the compression ratio is close to that of a {@link java.util.zip.GZIPOutputStream}.</p>
+ * <p>
+ * Only a limited number of blocks is compressed ahead of the underlying stream, so that the memory use does not depend on the
+ * size of the output. Call {@link #finish()} to write the gzip trailer without closing the underlying stream.</p>
+ * <p>
+ * This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * The default number of bytes that is deflated by one task
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = {(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream out;
+
+    private final int blockSize;
+
+    private final int level;
+
+    private final ForkJoinPool pool;
+
+    private final int maxInFlight;
+
+    private final Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+
+    private final CRC32 crc = new CRC32();
+
+    private long uncompressedSize = 0L;
+
+    private byte[] block;
+
+    private int blockLength = 0;
+
+    private byte[] previous = null;
+
+    private int previousLength = 0;
+
+    private boolean headerWritten = false;
+
+    private boolean finished = false;
+
+    /**
+     * Create a new {@link ParallelGzipOutputStream} that compresses blocks of {@link #DEFAULT_BLOCK_SIZE} bytes with the default
+     * compression level on the common {@link ForkJoinPool}
+     *
+     * @param out the stream to write the compressed bytes to
+     */
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new {@link ParallelGzipOutputStream}
+     *
+     * @param out the stream to write the compressed bytes to
+     * @param blockSize the number of bytes that is deflated by one task
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param pool the {@link ForkJoinPool} to compress the blocks on
+     */
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int level, ForkJoinPool pool) {
+        if (out == null) {
+            throw new NullPointerException("OutputStream cannot be null");
+        }
+        if (pool == null) {
+            throw new NullPointerException("ForkJoinPool cannot be null");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException(String.format("Block size must be positive: %d", blockSize));
+        }
+        if (((level < 0) || (level > 9)) && (level != Deflater.DEFAULT_COMPRESSION)) {
+            throw new IllegalArgumentException(String.format("Invalid compression level: %d", level));
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.pool = pool;
+        this.maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if ((offset < 0) || (length < 0) || (length > bytes.length - offset)) {
+            throw new IndexOutOfBoundsException(String.format("Offset %d and length %d do not fit in %d bytes", offset, length,
+                    bytes.length));
+        }
+        while (length > 0) {
+            int count = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Write the bytes of the blocks that are compressed so far to the underlying stream. The bytes of the current block are not
+     * compressed until the block is full, so that flushing does not make the compression worse.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeHeader();
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+            out.write(join(inFlight.poll()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Compress the remaining bytes and write them and the gzip trailer to the underlying stream, without closing it. Nothing can be
+     * written after the stream is finished.
+     *
+     * @throws IOException when writing to the underlying stream fails
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            submitBlock(true);
+            while (!inFlight.isEmpty()) {
+                out.write(join(inFlight.poll()));
+            }
+            writeTrailer();
+            out.flush();
+        } finally {
+            finished = true;
+            for (ForkJoinTask<byte[]> task : inFlight) {
+                task.cancel(false);
+            }
+            inFlight.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        writeHeader();
+        byte[] input = block;
+        int length = blockLength;
+        byte[] dictionary = previous;
+        int dictionaryEnd = previousLength;
+        crc.update(input, 0, length);
+        uncompressedSize += length;
+        inFlight.add(pool.submit(() -> deflate(input, length, dictionary, dictionaryEnd, last, level)));
+        previous = input;
+        previousLength = length;
+        if (!last) {
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+        while (inFlight.size() >= maxInFlight) {
+            out.write(join(inFlight.poll()));
+        }
+    }
+
+    /**
+     * Deflate a block to raw deflate data. All blocks but the last end with a sync flush, so that they end on a byte boundary and
+     * the compressed blocks can be concatenated to a single deflate stream.
+     */
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, int dictionaryEnd, boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if ((dictionary != null) && (dictionaryEnd > 0)) {
+                int dictionaryLength = Math.min(dictionaryEnd, DICTIONARY_SIZE);
+                deflater.setDictionary(dictionary, dictionaryEnd - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(input, 0, length);
+            byte[] output = new byte[length + (length >> 3) + 64];
+            int size = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (size == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    size += deflater.deflate(output, size, output.length - size);
+                }
+            } else {
+                do {
+                    if (size == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    size += deflater.deflate(output, size, output.length - size, Deflater.SYNC_FLUSH);
+                } while (size == output.length);
+            }
+            return Arrays.copyOf(output, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            throw new IOException("Exception occured when compressing a block", e);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+            out.write(HEADER);
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        byte[] trailer = new byte[8];
+        writeInt(trailer, 0, crc.getValue());
+        writeInt(trailer, 4, uncompressedSize);
+        out.write(trailer);
+    }
+
+    /**
+     * Write the lower 32 bits of the value in little endian byte order
+     */
+    private static void writeInt(byte[] target, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            target[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("ParallelGzipOutputStream is finished");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ParallelGzipOutputStream[blockSize=%d, level=%d, inFlight=%d]", blockSize, level, inFlight.size());
+    }
+
+}
@@ -0,0 +1,479 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An {@link XmlTokenizer} that tokenizes the xml stream on a separate thread, so that tokenizing and unmarshalling run in
+ * parallel on different cores. The tokenizer thread reads the events from the source {@link XmlTokenizer} and publishes a copy of
+ * them in a bounded ring; the thread that calls {@link #next()} consumes them in order. The ring has a single producer and a
+ * single consumer, so it needs no locks; a thread only parks when the ring is full or empty.</p>
+ * <p>
+ * The events are the same as those of the source tokenizer, including the exceptions it throws, which are rethrown by
+ * {@link #next()} when the event that failed is reached. Recording and rewinding by the {@link RecordAndPlaybackXMLStreamReader}
+ * happens on the consuming side and is not affected.</p>
+ * <p>
+ * The source tokenizer is read by the tokenizer thread only, and must not be used by others until this tokenizer is
+ * {@link #close() closed}. With {@link LocationTracking#NONE}, the location of the events is not copied and
+ * {@link #getLocation()} returns null. This class is not threadsafe: {@link #next()} must be called by one thread at a time.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class PipelinedTokenizer implements XmlTokenizer, XMLStreamConstants {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The number of times a thread checks the ring again before it parks
+     */
+    private static final int SPIN_COUNT = 64;
+
+    /**
+     * The maximum time a thread parks before it checks the ring again, in case it is not woken up because the other thread died
+     */
+    private static final long PARK_NANOS = 10_000_000L;
+
+    /**
+     * The maximum time {@link #close()} waits for the tokenizer thread to stop
+     */
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000L;
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedTokenizer.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private static final ThreadFactory DEFAULT_THREAD_FACTORY = (runnable) -> {
+        Thread thread = new Thread(runnable, "xb4j-tokenizer-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final XmlTokenizer source;
+
+    private final boolean keepLocation;
+
+    private final Event[] ring;
+
+    private final int mask;
+
+    private final Thread producer;
+
+    /**
+     * The number of events that are published by the tokenizer thread
+     */
+    private volatile long published = 0;
+
+    /**
+     * The index of the event that is consumed last; it's slot can not be reused until the consumer moves on
+     */
+    private volatile long consumed = -1;
+
+    private volatile boolean producerWaiting = false;
+
+    private volatile boolean consumerWaiting = false;
+
+    private volatile Thread consumerThread = null;
+
+    private volatile boolean closed = false;
+
+    private Event current = null;
+
+    /**
+     * Create a new {@link PipelinedTokenizer} with a ring of {@link #DEFAULT_CAPACITY} events, that tokenizes on a daemon thread
+     *
+     * @param source the {@link XmlTokenizer} to read the events from on the tokenizer thread
+     */
+    public PipelinedTokenizer(XmlTokenizer source) {
+        this(source, LocationTracking.FULL);
+    }
+
+    /**
+     * Create a new {@link PipelinedTokenizer} with a ring of {@link #DEFAULT_CAPACITY} events, that tokenizes on a daemon thread
+     *
+     * @param source the {@link XmlTokenizer} to read the events from on the tokenizer thread
+     * @param locationTracking the way the location of the events is used by the reader of this tokenizer
+     */
+    public PipelinedTokenizer(XmlTokenizer source, LocationTracking locationTracking) {
+        this(source, DEFAULT_CAPACITY, DEFAULT_THREAD_FACTORY, locationTracking);
+    }
+
+    /**
+     * Create a new {@link PipelinedTokenizer} that copies the location of every event
+     *
+     * @param source the {@link XmlTokenizer} to read the events from on the tokenizer thread
+     * @param capacity the maximum number of events that the tokenizer thread can read ahead; it is rounded up to a power of two
+     * @param threadFactory the factory that creates the tokenizer thread
+     */
+    public PipelinedTokenizer(XmlTokenizer source, int capacity, ThreadFactory threadFactory) {
+        this(source, capacity, threadFactory, LocationTracking.FULL);
+    }
+
+    /**
+     * Create a new {@link PipelinedTokenizer}
+     *
+     * @param source the {@link XmlTokenizer} to read the events from on the tokenizer thread
+     * @param capacity the maximum number of events that the tokenizer thread can read ahead; it is rounded up to a power of two
+     * @param threadFactory the factory that creates the tokenizer thread
+     * @param locationTracking the way the location of the events is used by the reader of this tokenizer
+     */
+    public PipelinedTokenizer(XmlTokenizer source, int capacity, ThreadFactory threadFactory, LocationTracking locationTracking) {
+        if (source == null) {
+            throw new NullPointerException("Source XmlTokenizer cannot be null");
+        }
+        if (threadFactory == null) {
+            throw new NullPointerException("ThreadFactory cannot be null");
+        }
+        if (locationTracking == null) {
+            throw new NullPointerException("LocationTracking cannot be null");
+        }
+        if (capacity < 2) {
+            throw new IllegalArgumentException(String.format("Capacity must be at least 2: %d", capacity));
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.source = source;
+        this.keepLocation = locationTracking != LocationTracking.NONE;
+        this.ring = new Event[size];
+        for (int i = 0; i < size; i++) {
+            this.ring[i] = new Event();
+        }
+        this.mask = size - 1;
+        this.producer = threadFactory.newThread(this::produce);
+        this.producer.start();
+    }
+
+    private void produce() {
+        long index = 0;
+        int eventType = START_DOCUMENT;
+        while ((eventType != END_DOCUMENT) && !closed) {
+            while (index - consumed > mask) {
+                awaitSpace(index);
+                if (closed) {
+                    return;
+                }
+            }
+            Event event = ring[(int) (index & mask)];
+            try {
+                eventType = source.next();
+                event.copyFrom(eventType, source, keepLocation);
+            } catch (XMLStreamException | RuntimeException e) {
+                event.fail(e);
+                eventType = END_DOCUMENT;
+            }
+            published = ++index;
+            if (consumerWaiting) {
+                LockSupport.unpark(consumerThread);
+            }
+        }
+    }
+
+    private void awaitSpace(long index) {
+        for (int i = 0; i < SPIN_COUNT; i++) {
+            if ((index - consumed <= mask) || closed) {
+                return;
+            }
+            Thread.yield();
+        }
+        producerWaiting = true;
+        if ((index - consumed > mask) && !closed) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        producerWaiting = false;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (closed) {
+            throw new XMLStreamException("PipelinedTokenizer is closed");
+        }
+        if ((current != null) && (current.eventType == END_DOCUMENT)) {
+            rethrowFailure(current);
+            throw new XMLStreamException("Cannot read beyond the end of the document");
+        }
+        long index = consumed + 1;
+        while (published <= index) {
+            awaitEvent(index);
+        }
+        Event event = ring[(int) (index & mask)];
+        current = event;
+        consumed = index;
+        if (producerWaiting) {
+            LockSupport.unpark(producer);
+        }
+        rethrowFailure(event);
+        return event.eventType;
+    }
+
+    private static void rethrowFailure(Event event) throws XMLStreamException {
+        if (event.failure instanceof XMLStreamException) {
+            throw (XMLStreamException) event.failure;
+        } else if (event.failure != null) {
+            throw (RuntimeException) event.failure;
+        }
+    }
+
+    private void awaitEvent(long index) throws XMLStreamException {
+        for (int i = 0; i < SPIN_COUNT; i++) {
+            if (published > index) {
+                return;
+            }
+            Thread.yield();
+        }
+        consumerThread = Thread.currentThread();
+        consumerWaiting = true;
+        if ((published <= index) && producer.isAlive()) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        consumerWaiting = false;
+        if ((published <= index) && !producer.isAlive()) {
+            throw new XMLStreamException("The tokenizer thread stopped unexpectedly");
+        }
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new XMLStreamException("Interrupted while waiting for the tokenizer thread");
+        }
+    }
+
+    private Event current() {
+        if (current == null) {
+            throw new IllegalStateException("next() is not called yet");
+        }
+        return current;
+    }
+
+    @Override
+    public QName getName() {
+        return current().name;
+    }
+
+    @Override
+    public String getLocalName() {
+        return current().name.getLocalPart();
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return current().name.getNamespaceURI();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return current().attributeCount;
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return current().attributeNames[index];
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return current().attributeNames[index].getNamespaceURI();
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return current().attributeNames[index].getLocalPart();
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return current().attributeValues[index];
+    }
+
+    @Override
+    public String getText() {
+        Event event = current();
+        return new String(event.text, 0, event.textLength);
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        return current().text;
+    }
+
+    @Override
+    public int getTextStart() {
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return current().textLength;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        Event event = current();
+        int copied = Math.max(0, Math.min(length, event.textLength - sourceStart));
+        System.arraycopy(event.text, sourceStart, target, targetStart, copied);
+        return copied;
+    }
+
+    @Override
+    public Location getLocation() {
+        return current == null ? null : current.location;
+    }
+
+    /**
+     * Stop the tokenizer thread and wait for it to finish, after which the source {@link XmlTokenizer} can be used or closed by
+     * others. The source tokenizer itself is not closed. The tokenizer thread is interrupted, so that it stops waiting for a source
+     * that reads from an interruptible channel. When the tokenizer thread is still blocked in the source after
+     * {@link #CLOSE_TIMEOUT_MILLIS}, e.g. on a stalled socket, it is abandoned and a warning is logged; the source must then not be
+     * used anymore, and closing the underlying input source lets the tokenizer thread end.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (Thread.currentThread() != producer) {
+            producer.interrupt();
+            boolean interrupted = false;
+            long deadline = System.nanoTime() + CLOSE_TIMEOUT_MILLIS * 1_000_000L;
+            long remaining = CLOSE_TIMEOUT_MILLIS;
+            while (producer.isAlive() && (remaining > 0)) {
+                try {
+                    producer.join(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                remaining = (deadline - System.nanoTime()) / 1_000_000L;
+            }
+            if (producer.isAlive()) {
+                logger.warn(String.format("Tokenizer thread %s did not stop within %d ms; it is still blocked in %s",
+                        producer.getName(), CLOSE_TIMEOUT_MILLIS, source));
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PipelinedTokenizer[source=%s, capacity=%d]", source, ring.length);
+    }
+
+    /**
+     * A slot in the ring; it is reused for every event that is published in it
+     */
+    private static final class Event {
+
+        private static final QName[] NO_NAMES = new QName[0];
+
+        private static final String[] NO_VALUES = new String[0];
+
+        private int eventType;
+
+        private QName name;
+
+        private int attributeCount;
+
+        private QName[] attributeNames = NO_NAMES;
+
+        private String[] attributeValues = NO_VALUES;
+
+        private char[] text = new char[64];
+
+        private int textLength;
+
+        private Location location;
+
+        private Exception failure;
+
+        private void copyFrom(int type, XmlTokenizer source, boolean keepLocation) throws XMLStreamException {
+            this.eventType = type;
+            this.name = null;
+            this.attributeCount = 0;
+            this.textLength = 0;
+            this.failure = null;
+            this.location = keepLocation ? snapshot(source.getLocation()) : null;
+            switch (type) {
+                case START_ELEMENT:
+                    this.name = source.getName();
+                    int count = source.getAttributeCount();
+                    if (count > attributeNames.length) {
+                        attributeNames = new QName[count];
+                        attributeValues = new String[count];
+                    }
+                    for (int i = 0; i < count; i++) {
+                        attributeNames[i] = source.getAttributeName(i);
+                        attributeValues[i] = source.getAttributeValue(i);
+                    }
+                    Arrays.fill(attributeValues, count, attributeValues.length, null); // do not keep values alive
+                    this.attributeCount = count;
+                    break;
+                case END_ELEMENT:
+                    this.name = source.getName();
+                    break;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                    int length = source.getTextLength();
+                    if (length > text.length) {
+                        text = new char[Math.max(length, text.length * 2)];
+                    }
+                    System.arraycopy(source.getTextCharacters(), source.getTextStart(), text, 0, length);
+                    this.textLength = length;
+                    break;
+                case ENTITY_REFERENCE:
+                    String reference = source.getText();
+                    if (reference.length() > text.length) {
+                        text = new char[reference.length()];
+                    }
+                    reference.getChars(0, reference.length(), text, 0);
+                    this.textLength = reference.length();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void fail(Exception exception) {
+            this.eventType = END_DOCUMENT;
+            this.name = null;
+            this.attributeCount = 0;
+            this.textLength = 0;
+            this.failure = exception;
+        }
+
+        /**
+         * Copy a location, because the location of some {@link javax.xml.stream.XMLStreamReader} implementations changes when they
+         * read on
+         */
+        private static Location snapshot(Location location) {
+            if ((location == null) || (location instanceof StreamLocation)) {
+                return location;
+            }
+            return new StreamLocation(location.getLineNumber(), location.getColumnNumber(), location.getCharacterOffset(),
+                    location.getPublicId(), location.getSystemId());
+        }
+    }
+
+}
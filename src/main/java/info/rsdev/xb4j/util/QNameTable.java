@@ -0,0 +1,176 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * <p>
+ * A symbol table that maps a namespace uri and local name onto a single, canonical {@link QName} instance. The
+ * {@link RecordAndPlaybackXMLStreamReader} uses it to name the elements and attributes it reads, so that they can be compared to
+ * the QNames of the bindings by reference, instead of by comparing strings.</p>
+ * <p>
+ * The QNames of the bindings are {@link #adopt(QName) adopted} as the canonical instance. The prefix is not part of the lookup;
+ * the canonical QName may therefore have another prefix than the one used in the xml document.</p>
+ * <p>
+ * This class is threadsafe: lookups are lock free and can be done concurrently by readers of different documents. Entries are
+ * immutable, so that a lookup that races with an update sees a complete entry; an adopted name replaces the entry.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class QNameTable {
+
+    /**
+     * The default maximum number of names kept in the table; this protects the table from growing unbounded when it is fed with
+     * random names.
+     */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile Entry[] buckets = new Entry[INITIAL_CAPACITY];
+
+    private final int maxSize;
+
+    private int size = 0;
+
+    public QNameTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public QNameTable(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(String.format("Maximum size cannot be negative: %d", maxSize));
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the canonical {@link QName} for the given namespace uri and local name. When the table does not know the name yet, a new
+     * QName is created and added to the table (as long as the table is not full).
+     *
+     * @param namespaceUri the namespace uri; null is treated as no namespace
+     * @param localPart the local name
+     * @return the canonical QName
+     */
+    public QName intern(String namespaceUri, String localPart) {
+        if (namespaceUri == null) {
+            namespaceUri = XMLConstants.NULL_NS_URI;
+        }
+        int hash = hash(namespaceUri, localPart);
+        Entry[] table = this.buckets;
+        for (Entry entry = table[hash & (table.length - 1)]; entry != null; entry = entry.next) {
+            if ((entry.hash == hash) && entry.matches(namespaceUri, localPart)) {
+                return entry.name;
+            }
+        }
+        return add(new QName(namespaceUri, localPart), hash, false);
+    }
+
+    /**
+     * Make the given {@link QName} the canonical instance for it's namespace uri and local name, so that subsequent calls to
+     * {@link #intern(String, String)} return this very instance. The first QName that is adopted for a name stays canonical; a
+     * QName that is adopted later for the same name does not replace it, so that equal names of different bindings do not take
+     * turns. Adopt names when the bindings are set up, not while reading.
+     *
+     * @param name the QName to adopt, typically the element or attribute name of a binding
+     */
+    public void adopt(QName name) {
+        if (name == null) {
+            throw new NullPointerException("QName cannot be null");
+        }
+        add(name, hash(name.getNamespaceURI(), name.getLocalPart()), true);
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    private synchronized QName add(QName name, int hash, boolean replace) {
+        Entry[] table = this.buckets;
+        int index = hash & (table.length - 1);
+        for (Entry entry = table[index]; entry != null; entry = entry.next) {
+            if ((entry.hash == hash) && entry.matches(name.getNamespaceURI(), name.getLocalPart())) {
+                if (replace && !entry.adopted) {
+                    table[index] = replace(table[index], entry, new Entry(hash, name, true, entry.next));
+                    return name;
+                }
+                return entry.name;
+            }
+        }
+
+        if (size >= maxSize) {
+            return name;
+        }
+        if (size >= (table.length * 3) / 4) {
+            table = resize(table);
+            index = hash & (table.length - 1);
+        }
+        table[index] = new Entry(hash, name, replace, table[index]);
+        size++;
+        return name;
+    }
+
+    private Entry[] resize(Entry[] table) {
+        Entry[] newTable = new Entry[table.length * 2];
+        for (Entry head : table) {
+            for (Entry entry = head; entry != null; entry = entry.next) {
+                int index = entry.hash & (newTable.length - 1);
+                newTable[index] = new Entry(entry.hash, entry.name, entry.adopted, newTable[index]);
+            }
+        }
+        this.buckets = newTable;
+        return newTable;
+    }
+
+    /**
+     * Copy the entries in the chain before the target, so that the chain with the replacement can be published as a whole
+     */
+    private static Entry replace(Entry head, Entry target, Entry replacement) {
+        if (head == target) {
+            return replacement;
+        }
+        return new Entry(head.hash, head.name, head.adopted, replace(head.next, target, replacement));
+    }
+
+    private static int hash(String namespaceUri, String localPart) {
+        int hash = (31 * namespaceUri.hashCode()) + localPart.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+
+        private final int hash;
+
+        private final QName name;
+
+        private final boolean adopted;
+
+        private final Entry next;
+
+        private Entry(int hash, QName name, boolean adopted, Entry next) {
+            this.hash = hash;
+            this.name = name;
+            this.adopted = adopted;
+            this.next = next;
+        }
+
+        private boolean matches(String namespaceUri, String localPart) {
+            return name.getLocalPart().equals(localPart) && name.getNamespaceURI().equals(namespaceUri);
+        }
+    }
+
+}
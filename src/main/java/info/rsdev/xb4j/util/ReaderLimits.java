@@ -0,0 +1,145 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+/**
+ * <p>
+ * Hard limits on the xml that a {@link RecordAndPlaybackXMLStreamReader} accepts, that protect against hostile or broken input
+ * exhausting the heap or the stack. The limits are checked when the events are read from the {@link XmlTokenizer}; when a limit is
+ * exceeded, an {@link info.rsdev.xb4j.exceptions.Xb4jUnmarshallException} is thrown right away.</p>
+ * <ul>
+ * <li>the maximum depth of nested elements;</li>
+ * <li>the maximum length, in characters, of the text directly inside an element;</li>
+ * <li>the maximum number of elements in a document;</li>
+ * <li>the maximum number of attributes of an element;</li>
+ * <li>the maximum number of events that are recorded while a {@link RecordAndPlaybackXMLStreamReader.Marker} is held.</li>
+ * </ul>
+ * <p>
+ * Start with {@link #UNLIMITED} and set the limits that apply. Instances of this class are immutable.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class ReaderLimits {
+
+    /**
+     * Do not limit the xml that is read
+     */
+    public static final ReaderLimits UNLIMITED = new ReaderLimits(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE,
+            Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxDepth;
+
+    private final long maxTextLength;
+
+    private final long maxElements;
+
+    private final int maxAttributes;
+
+    private final long maxRecordedEvents;
+
+    private ReaderLimits(int maxDepth, long maxTextLength, long maxElements, int maxAttributes, long maxRecordedEvents) {
+        this.maxDepth = maxDepth;
+        this.maxTextLength = maxTextLength;
+        this.maxElements = maxElements;
+        this.maxAttributes = maxAttributes;
+        this.maxRecordedEvents = maxRecordedEvents;
+    }
+
+    /**
+     * @param maxDepth the maximum number of nested elements, including the root element
+     * @return a copy of these limits with the given maximum depth
+     */
+    public ReaderLimits withMaxDepth(int maxDepth) {
+        return new ReaderLimits(positive(maxDepth, "Maximum depth"), maxTextLength, maxElements, maxAttributes,
+                maxRecordedEvents);
+    }
+
+    /**
+     * @param maxTextLength the maximum number of characters of the text directly inside an element
+     * @return a copy of these limits with the given maximum text length
+     */
+    public ReaderLimits withMaxTextLength(long maxTextLength) {
+        return new ReaderLimits(maxDepth, positive(maxTextLength, "Maximum text length"), maxElements, maxAttributes,
+                maxRecordedEvents);
+    }
+
+    /**
+     * @param maxElements the maximum number of elements in a document
+     * @return a copy of these limits with the given maximum number of elements
+     */
+    public ReaderLimits withMaxElements(long maxElements) {
+        return new ReaderLimits(maxDepth, maxTextLength, positive(maxElements, "Maximum number of elements"), maxAttributes,
+                maxRecordedEvents);
+    }
+
+    /**
+     * @param maxAttributes the maximum number of attributes of an element
+     * @return a copy of these limits with the given maximum number of attributes
+     */
+    public ReaderLimits withMaxAttributes(int maxAttributes) {
+        if (maxAttributes < 0) {
+            throw new IllegalArgumentException(String.format("Maximum number of attributes cannot be negative: %d",
+                    maxAttributes));
+        }
+        return new ReaderLimits(maxDepth, maxTextLength, maxElements, maxAttributes, maxRecordedEvents);
+    }
+
+    /**
+     * @param maxRecordedEvents the maximum number of events that are kept for playback while a marker is held
+     * @return a copy of these limits with the given maximum number of recorded events
+     */
+    public ReaderLimits withMaxRecordedEvents(long maxRecordedEvents) {
+        return new ReaderLimits(maxDepth, maxTextLength, maxElements, maxAttributes,
+                positive(maxRecordedEvents, "Maximum number of recorded events"));
+    }
+
+    private static int positive(int value, String description) {
+        return (int) positive((long) value, description);
+    }
+
+    private static long positive(long value, String description) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(String.format("%s must be positive: %d", description, value));
+        }
+        return value;
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    public long getMaxTextLength() {
+        return this.maxTextLength;
+    }
+
+    public long getMaxElements() {
+        return this.maxElements;
+    }
+
+    public int getMaxAttributes() {
+        return this.maxAttributes;
+    }
+
+    public long getMaxRecordedEvents() {
+        return this.maxRecordedEvents;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReaderLimits[maxDepth=%d, maxTextLength=%d, maxElements=%d, maxAttributes=%d, "
+                + "maxRecordedEvents=%d]", maxDepth, maxTextLength, maxElements, maxAttributes, maxRecordedEvents);
+    }
+
+}
@@ -15,18 +15,32 @@
 package info.rsdev.xb4j.util;
 
 import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.exceptions.Xb4jUnmarshallException;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,60 +67,208 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
     /**
      * The {@link XMLStreamReader} that parses an xml stream
      */
-    private XMLStreamReader staxReader = null;
+    private XmlTokenizer tokenizer = null;
 
     /**
-     * New recorded XMLStreamReader events are placed in this queue. When this queue is null, it means that currently, no events are
-     * recorded.
+     * The initial number of slots in the {@link #tape}. The tape doubles in size whenever it runs out of free slots.
      */
-    private LinkedList<ParseEventData> recordingQueue = null;
+    private static final int INITIAL_TAPE_CAPACITY = 32;
 
     /**
-     * The queue of parsing events that will be served to the user, when it is not empty. If it is empty, on the otherhand, then the
-     * next events are pulled from the {@link #staxReader} instead.
+     * <p>
+     * Ring buffer that holds both the recorded parse events and the parse events that are waiting to be played back. Positions on
+     * the tape are absolute (they only ever increase) and are mapped onto a slot in the array with {@link #tapeMask}:</p>
+     * <ul>
+     * <li>[{@link #tapeHead}, {@link #tapeCursor}) are the events that are recorded and that may be replayed after a rewind</li>
+     * <li>[{@link #tapeCursor}, {@link #tapeEnd}) are the events that will be played back before reading from the
+     * {@link #tokenizer} again</li>
+     * </ul>
+     * When nothing is recorded, the head moves along with the cursor, so that the slots can be reused. When the recorded events
+     * exceed the {@link #recordingBudget}, the oldest recorded events are moved to the {@link #spillFile}; the array then only holds
+     * the events as of {@link #tapeMemoryHead}.
+     */
+    private ParseEventData[] tape = new ParseEventData[INITIAL_TAPE_CAPACITY];
+
+    private int tapeMask = INITIAL_TAPE_CAPACITY - 1;
+
+    private long tapeHead = 0;
+
+    private long tapeCursor = 0;
+
+    private long tapeEnd = 0;
+
+    /**
+     * The position of the first event on the tape that is kept in memory; the events before it are in the {@link #spillFile}
      */
-    private LinkedList<ParseEventData> playbackQueue = new LinkedList<>();
+    private long tapeMemoryHead = 0;
 
-    private List<Marker> publishedMarkers = new ArrayList<>();
+    /**
+     * The estimated number of bytes used by the events that are kept in memory
+     */
+    private long tapeMemoryUsage = 0;
+
+    private final RecordingBudget recordingBudget;
+
+    /**
+     * The file that holds the recorded events before {@link #tapeMemoryHead}; it is created when the {@link #recordingBudget} is
+     * exceeded for the first time
+     */
+    private TapeSpillFile spillFile = null;
+
+    /**
+     * The memoized outcomes of reading the xml that starts at a tape position, by position and by owner (the party that read the
+     * xml, e.g. a binding), or null when outcomes are not memoized
+     */
+    private TreeMap<Long, Map<Object, MemoEntry>> memoTable = null;
+
+    /**
+     * The generations of the {@link Marker markers} that are still valid, in the order they were published. A marker is only valid
+     * when it's generation is found on the stack at the depth it was published at.
+     */
+    private long[] markerStack = new long[8];
+
+    private int markerCount = 0;
+
+    private long markerGeneration = 0;
 
     private ParseEventData currentEvent = null;
 
+    private static final int INITIAL_TEXT_BUFFER_SIZE = 256;
+
+    private static final int MAX_RETAINED_TEXT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Buffer that is reused to collect the text of an element from the {@link #tokenizer}
+     */
+    private StringBuilder textBuffer = new StringBuilder(INITIAL_TEXT_BUFFER_SIZE);
+
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Buffers and encoder that are reused to stream element content to an {@link OutputStream}; they are created on first use
+     */
+    private CharBuffer streamChars = null;
+
+    private ByteBuffer streamBytes = null;
+
+    private CharsetEncoder streamEncoder = null;
+
+    private final LocationTracking locationTracking;
+
+    /**
+     * The symbol table to obtain canonical {@link QName} instances from for the elements and attributes read, or null when every
+     * name read is a new QName instance
+     */
+    private final QNameTable symbolTable;
+
+    private ReaderLimits limits = ReaderLimits.UNLIMITED;
+
+    /**
+     * The schema that the xml stream is validated against while it is read, or null when it is not validated
+     */
+    private Schema schema = null;
+
+    /**
+     * The number of elements that are open in the xml stream, the number of elements read from it and the length of the text
+     * read since the last tag; used to enforce the {@link #limits}
+     */
+    private int streamDepth = 0;
+
+    private long elementCount = 0;
+
+    private long textLength = 0;
+
     public RecordAndPlaybackXMLStreamReader(XMLStreamReader staxReader) throws XMLStreamException {
-        if (staxReader == null) {
-            throw new NullPointerException("XMLStreamReader cannot be null");
+        this(staxReader, LocationTracking.FULL);
+    }
+
+    /**
+     * Create a new {@link RecordAndPlaybackXMLStreamReader} that keeps track of the location of parse events as indicated
+     *
+     * @param staxReader the {@link XMLStreamReader} that parses the xml stream
+     * @param locationTracking the way the location of every parse event is retained
+     * @throws XMLStreamException
+     */
+    public RecordAndPlaybackXMLStreamReader(XMLStreamReader staxReader, LocationTracking locationTracking)
+            throws XMLStreamException {
+        this(staxReader, locationTracking, null);
+    }
+
+    /**
+     * Create a new {@link RecordAndPlaybackXMLStreamReader} that names the elements and attributes it reads with the canonical
+     * {@link QName} instances from the given symbol table.
+     *
+     * @param staxReader the {@link XMLStreamReader} that parses the xml stream
+     * @param locationTracking the way the location of every parse event is retained
+     * @param symbolTable the {@link QNameTable} to intern element and attribute names with, or null to not intern names
+     * @throws XMLStreamException
+     */
+    public RecordAndPlaybackXMLStreamReader(XMLStreamReader staxReader, LocationTracking locationTracking,
+            QNameTable symbolTable) throws XMLStreamException {
+        this(staxReader, locationTracking, symbolTable, RecordingBudget.UNLIMITED);
+    }
+
+    /**
+     * Create a new {@link RecordAndPlaybackXMLStreamReader} that keeps it's recordings in memory as long as they fit in the given
+     * {@link RecordingBudget}, and moves the oldest recorded events to a temporary file otherwise.
+     *
+     * @param staxReader the {@link XMLStreamReader} that parses the xml stream
+     * @param locationTracking the way the location of every parse event is retained
+     * @param symbolTable the {@link QNameTable} to intern element and attribute names with, or null to not intern names
+     * @param recordingBudget the memory that recorded events may use
+     * @throws XMLStreamException
+     */
+    public RecordAndPlaybackXMLStreamReader(XMLStreamReader staxReader, LocationTracking locationTracking,
+            QNameTable symbolTable, RecordingBudget recordingBudget) throws XMLStreamException {
+        this(new StaxTokenizer(staxReader), locationTracking, symbolTable, recordingBudget);
+    }
+
+    /**
+     * Create a new {@link RecordAndPlaybackXMLStreamReader} that reads the xml stream with the given {@link XmlTokenizer}, e.g. a
+     * {@link Utf8XmlTokenizer}.
+     *
+     * @param tokenizer the {@link XmlTokenizer} that parses the xml stream
+     * @param locationTracking the way the location of every parse event is retained
+     * @param symbolTable the {@link QNameTable} to intern element and attribute names with, or null to not intern names
+     * @param recordingBudget the memory that recorded events may use
+     * @throws XMLStreamException
+     */
+    public RecordAndPlaybackXMLStreamReader(XmlTokenizer tokenizer, LocationTracking locationTracking,
+            QNameTable symbolTable, RecordingBudget recordingBudget) throws XMLStreamException {
+        if (tokenizer == null) {
+            throw new NullPointerException("XmlTokenizer cannot be null");
+        }
+        if (locationTracking == null) {
+            throw new NullPointerException("LocationTracking cannot be null");
         }
-        this.staxReader = staxReader;
+        if (recordingBudget == null) {
+            throw new NullPointerException("RecordingBudget cannot be null");
+        }
+        this.tokenizer = tokenizer;
+        this.locationTracking = locationTracking;
+        this.symbolTable = symbolTable;
+        this.recordingBudget = recordingBudget;
     }
 
     /**
      * <p>
      * Keep track of all parsing events as of now (including the current event). Parsing events read from the stream are both
-     * returned and recorded. When we were already recording, all current recodings are discarded, as if first
-     * {@link #stopAndWipeRecording()} was called.
+     * returned and recorded. When we were already recording, the existing recordings are kept, so that every {@link Marker} that
+     * is still valid can be rewound to.
      * </p>
      * <p>
      * When startRecording is called while playing back recordings, no current recordings must be dropped.
      * </p>
      *
-     * @return
+     * @return the {@link Marker} to pass to {@link #rewindAndPlayback(Marker)} or {@link #stopRecording(Marker)}
      */
     public Marker startRecording() {
-        if (recordingQueue == null) {
-            recordingQueue = new LinkedList<>();
-        }
-
-        // hashCode is used as a check to identify if the marker points to the
-        // expected ParseEventData instance
-        int hashCode = 0;
-        if (!recordingQueue.isEmpty()) {
-            ParseEventData top = recordingQueue.peekLast();
-            if (top != null) {
-                hashCode = top.hashCode();
-            }
+        if (markerCount == markerStack.length) {
+            markerStack = Arrays.copyOf(markerStack, markerCount * 2);
         }
-        Marker marker = new Marker(recordingQueue.size(), hashCode, this.currentEvent);
-        publishedMarkers.add(marker);
-
+        long generation = ++markerGeneration;
+        Marker marker = new Marker(tapeCursor, generation, markerCount, this.currentEvent);
+        markerStack[markerCount++] = generation;
         return marker;
     }
 
@@ -118,8 +280,8 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
     }
 
     /**
-     * Rewind to the parse event following the most recent call to {@link #startRecording()} and start playback of these recorded
-     * parsing events. When {@link #startRecording()} is called during playback, ... happens.
+     * Rewind to the parse event following the call to {@link #startRecording()} that returned the given {@link Marker marker} and
+     * start playback of the recorded parsing events. The marker and every marker that was set since become obsolete.
      *
      * @param marker
      */
@@ -128,12 +290,8 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
             throw new Xb4jException("Marker is obsolete");
         }
         removeMarker(marker);
-        List<ParseEventData> playbackEvents = recordingQueue.subList(marker.markedAt(), recordingQueue.size());
-        LinkedList<ParseEventData> newPlaybackQueue = new LinkedList<>(playbackEvents);
-        newPlaybackQueue.addAll(playbackQueue);
-        playbackQueue = newPlaybackQueue;
-        playbackEvents.clear();
-        if (publishedMarkers.isEmpty()) {
+        this.tapeCursor = marker.getPosition();
+        if (markerCount == 0) {
             clearAllRecordings();
         }
         this.currentEvent = marker.getCurrentEvent();
@@ -147,42 +305,111 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
      * @return true if the marker was valid and was removed, false otherwise
      */
     private boolean removeMarker(Marker marker) {
-        boolean markerWasValid = false;
-        int indexOfMarker = publishedMarkers.indexOf(marker);
-        if (indexOfMarker >= 0) {
-            // Remove this marker and anyone published after this one
-            publishedMarkers.subList(indexOfMarker, publishedMarkers.size()).clear();
+        if (isMarkerObsolete(marker)) {
+            return false;
         }
-        return markerWasValid;
+        // Remove this marker and anyone published after this one
+        markerCount = marker.getDepth();
+        return true;
     }
 
     /**
      * Indicate that the given {@link Marker marker} (and every marker that was set since) will never be used for rewinding; it is
-     * no longer needed. However, recorded events will only be removed from the recording queue when there are no more markers left,
+     * no longer needed. However, recorded events will only be removed from the tape when there are no more markers left,
      * because only then we are certain that a rewind can no longer happen.
      *
      * @param marker the {@link Marker} to dismiss
      */
     public void stopRecording(Marker marker) {
         removeMarker(marker);
-        if (publishedMarkers.isEmpty()) {
+        if (markerCount == 0) {
             clearAllRecordings();
         }
     }
 
     public boolean isMarkerObsolete(Marker marker) {
-        boolean isObsolete = !publishedMarkers.contains(marker);
-        isObsolete = isObsolete || recordingQueue == null;
-        isObsolete = isObsolete || (recordingQueue.size() < marker.markedAt());
-        if (!marker.isAtHead()) {
-            ParseEventData prior = recordingQueue.get(marker.markedAt() - 1);
-            isObsolete = isObsolete || ((prior != null) && (prior.hashCode() != marker.getHashCode()));
-        }
-        return isObsolete;
+        int depth = marker.getDepth();
+        return (depth >= markerCount) || (markerStack[depth] != marker.getGeneration());
     }
 
     public boolean isRecording() {
-        return this.recordingQueue != null;
+        return markerCount > 0;
+    }
+
+    /**
+     * <p>
+     * Switch memoization on or off. When memoization is on, the outcome of reading the xml from a position on the tape can be
+     * {@link #memoize(Object, long, Object) memoized}, so that when the same xml is read again by the same party after a rewind,
+     * the outcome can be {@link #recall(Object) recalled} instead of reading the xml again.</p>
+     * <p>
+     * Outcomes are only kept as long as the xml they were read from is on the tape.</p>
+     *
+     * @param memoizing true to memoize outcomes, false to forget all memoized outcomes and stop memoizing
+     */
+    public void setMemoizing(boolean memoizing) {
+        this.memoTable = memoizing ? new TreeMap<>() : null;
+    }
+
+    public boolean isMemoizing() {
+        return this.memoTable != null;
+    }
+
+    /**
+     * Get the position on the tape of the event that will be read next, to be passed on to
+     * {@link #memoize(Object, long, Object)} once the xml is read.
+     *
+     * @return the tape position, or -1 when not memoizing or when the events that are read next will not be on the tape, so that
+     * the outcome of reading them cannot be memoized
+     */
+    public long getMemoPosition() {
+        if ((memoTable == null) || (!isRecording() && !isPlayingBack())) {
+            return -1;
+        }
+        return tapeCursor;
+    }
+
+    /**
+     * Remember the outcome of reading the xml from the given tape position up to the current position by the given owner.
+     * Nothing is remembered when the events that were read are no longer on the tape.
+     *
+     * @param owner the party that read the xml; outcomes are looked up by it's identity
+     * @param startPosition the position obtained from {@link #getMemoPosition()} before the xml was read
+     * @param outcome the outcome to remember
+     */
+    public void memoize(Object owner, long startPosition, Object outcome) {
+        if ((memoTable == null) || (startPosition < tapeHead) || (startPosition > tapeCursor)) {
+            return;
+        }
+        memoTable.computeIfAbsent(startPosition, (position) -> new IdentityHashMap<>(4))
+                .put(owner, new MemoEntry(tapeCursor, outcome));
+    }
+
+    /**
+     * Lookup the outcome that the given owner memoized for the xml at the current tape position. When there is one, the events
+     * that were read to obtain the outcome are skipped, so that the reader is in the same state as after reading them.
+     *
+     * @param owner the party that reads the xml
+     * @return the memoized outcome, or null when there is none
+     * @throws XMLStreamException
+     */
+    public Object recall(Object owner) throws XMLStreamException {
+        long position = getMemoPosition();
+        if ((position < 0) || (position < tapeHead)) {
+            return null;
+        }
+        Map<Object, MemoEntry> entries = memoTable.get(position);
+        MemoEntry entry = entries == null ? null : entries.get(owner);
+        if ((entry == null) || (entry.end > tapeEnd)) {
+            return null;
+        }
+        if (entry.end > tapeCursor) {
+            this.currentEvent = eventAt(entry.end - 1);
+            this.tapeCursor = entry.end;
+            if (!isRecording()) {
+                releaseTape(tapeCursor);
+            }
+        }
+        return entry.outcome;
     }
 
     /**
@@ -209,9 +436,40 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
         return event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT;
     }
 
+    /**
+     * Get the attributes of the current element as a {@link Map}. The map is built on first request only; prefer
+     * {@link #getAttributeValue(QName)} to lookup the value of a single attribute.
+     *
+     * @return an unmodifiable map of attribute values by name, or null when the current event has no attributes
+     */
     public Map<QName, String> getAttributes() {
         if (currentEvent != null) {
-            return currentEvent.attributes;
+            return currentEvent.getAttributes();
+        }
+        return null;
+    }
+
+    /**
+     * Determine if the current event is a start element that has attributes
+     *
+     * @return true if the current event has one or more attributes, false otherwise
+     */
+    public boolean hasAttributes() {
+        return (currentEvent != null) && (currentEvent.getAttributeCount() > 0);
+    }
+
+    /**
+     * Get the value of the attribute with the given name on the current element.
+     *
+     * @param attributeName the {@link QName} of the attribute
+     * @return the attribute value, or null when the current element does not have the attribute
+     */
+    public String getAttributeValue(QName attributeName) {
+        if (currentEvent != null) {
+            int index = currentEvent.indexOfAttribute(attributeName);
+            if (index >= 0) {
+                return currentEvent.getAttributeValue(index);
+            }
         }
         return null;
     }
@@ -230,65 +488,178 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
      * @throws XMLStreamException
      */
     public int nextTag() throws XMLStreamException {
-        int eventType = 0;
         ParseEventData eventData = null;
+        do {
+            if (!isPlayingBack()) {
+                readAhead();
+            }
+            eventData = takeFromTape();
+        } while (!isTag(eventData.eventType));
+
+        this.currentEvent = eventData;
+        return this.currentEvent.eventType;
+    }
+
+    /**
+     * Look at the next start element, end element or end document event, without consuming it. The event remains in place, so
+     * that the next call to {@link #nextTag()} will return it. Peeking does not start a recording and does not change the current
+     * event.
+     *
+     * @return the next tag event
+     * @throws XMLStreamException any exception from the underlying stax reader is propagated up
+     */
+    public ParseEventData peekTag() throws XMLStreamException {
+        for (long position = tapeCursor; position < tapeEnd; position++) {
+            ParseEventData eventData = eventAt(position);
+            if (isTag(eventData.eventType)) {
+                return eventData;
+            }
+        }
+        return readAhead();
+    }
+
+    /**
+     * Read the next tag from the {@link #tokenizer} and put it on the tape, waiting to be played back. Text that directly follows
+     * a start element is put on the tape as well, prior to the tag, but only when the tag is an end element: text that is followed
+     * by a start element is whitespace between (or mixed content in) container elements, that no binding will ever read.
+     *
+     * @return the tag event that is read from the stream
+     */
+    private ParseEventData readAhead() throws XMLStreamException {
+        ParseEventData lastRead = isPlayingBack() ? eventAt(tapeEnd - 1) : this.currentEvent;
+        boolean collectText = (lastRead != null) && (lastRead.eventType == START_ELEMENT);
+        boolean hasText = false;
+        int eventType = nextToken();
         while ((eventType != START_ELEMENT) && (eventType != END_ELEMENT) && (eventType != END_DOCUMENT)) {
-            if (!playbackQueue.isEmpty()) {
-                eventData = playbackQueue.poll();
-                eventType = eventData.eventType;
-            } else {
-                // read from stream
-                eventType = staxReader.next();
-                while ((eventType != START_ELEMENT) && (eventType != END_ELEMENT) && (eventType != END_DOCUMENT)) {
-                    if (eventType == CHARACTERS || eventType == CDATA || eventType == ENTITY_REFERENCE) {
-                        if ((this.currentEvent != null) && (this.currentEvent.eventType == START_ELEMENT)) {
-                            StringBuffer content = new StringBuffer();
-                            while (eventType == CHARACTERS || eventType == CDATA || eventType == ENTITY_REFERENCE) {
-                                content.append(staxReader.getText());
-                                eventType = staxReader.next(); // read uptil the proper END_ELEMENT
-                            }
-                            // TODO: check that endtag and starttag match -- or is that not our concern...
-                            eventData = new ParseEventData(CHARACTERS, content.toString(), staxReader.getLocation());
-                            if (logger.isTraceEnabled()) {
-                                boolean whitespaceOnly = content.toString().trim().isEmpty();
-                                if (whitespaceOnly) {
-                                    logger.trace("Skipping whitespace");
-                                } else {
-                                    logger.trace(String.format("Skipping over element data of %s: '%s'", staxReader.getName(),
-                                            content));
-                                }
-                            }
-                            if (this.recordingQueue != null) {
-                                this.recordingQueue.add(eventData);
-                            }
-                        } else {
-                            // ignore characters that do not directly follow a start-element section
-                            eventType = staxReader.next();
-                        }
-                    } else if ((eventType != START_ELEMENT) && (eventType != END_ELEMENT)
-                            && (eventType != END_DOCUMENT)) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace(String.format("Skipping over stax event %s ", EVENTNAMES[eventType]));
-                        }
-                        eventType = staxReader.next();
+            if (eventType == CHARACTERS || eventType == CDATA || eventType == ENTITY_REFERENCE) {
+                // ignore characters that do not directly follow a start-element section
+                if (collectText) {
+                    if (!hasText) {
+                        textBuffer.setLength(0);
+                        hasText = true;
                     }
+                    appendText(eventType, textBuffer);
                 }
+            } else if (logger.isTraceEnabled()) {
+                logger.trace(String.format("Skipping over stax event %s ", EVENTNAMES[eventType]));
+            }
+            eventType = nextToken();
+        }
 
-                // we have just read an xml tag
-                if ((eventType == START_ELEMENT) || (eventType == END_ELEMENT)) {
-                    eventData = ParseEventData.newParseEventData(eventType, staxReader);
-                } else if (eventType == END_DOCUMENT) {
-                    eventData = new ParseEventData(eventType, (String) null, staxReader.getLocation());
+        if (hasText) {
+            if (eventType == END_ELEMENT) {
+                // TODO: check that endtag and starttag match -- or is that not our concern...
+                ParseEventData textData = ParseEventData.newTextEventData(CHARACTERS, textBuffer.toString(), tokenizer,
+                        locationTracking);
+                if (logger.isTraceEnabled()) {
+                    boolean whitespaceOnly = textData.text.trim().isEmpty();
+                    if (whitespaceOnly) {
+                        logger.trace("Skipping whitespace");
+                    } else {
+                        logger.trace(String.format("Skipping over element data of %s: '%s'", tokenizer.getName(),
+                                textData.text));
+                    }
                 }
+                appendForPlayback(textData);
+            } else if (logger.isTraceEnabled()) {
+                logger.trace(String.format("Dropping text before %s <%s>", EVENTNAMES[eventType],
+                        eventType == START_ELEMENT ? tokenizer.getName() : ""));
             }
+            releaseTextBuffer();
+        }
 
-            if (this.recordingQueue != null) {
-                this.recordingQueue.add(eventData);
-            }
+        // we have just read an xml tag
+        ParseEventData eventData = null;
+        if ((eventType == START_ELEMENT) || (eventType == END_ELEMENT)) {
+            eventData = ParseEventData.newParseEventData(eventType, tokenizer, locationTracking, symbolTable);
+        } else {
+            eventData = ParseEventData.newTextEventData(eventType, null, tokenizer, locationTracking);
         }
+        appendForPlayback(eventData);
+        return eventData;
+    }
 
-        this.currentEvent = eventData;
-        return this.currentEvent.eventType;
+    /**
+     * Read the next event from the {@link #tokenizer} and check it against the {@link #limits}
+     */
+    private int nextToken() throws XMLStreamException {
+        int eventType = tokenizer.next();
+        switch (eventType) {
+            case START_ELEMENT:
+                if (++streamDepth > limits.getMaxDepth()) {
+                    throw limitExceeded(String.format("elements are nested more than %d deep", limits.getMaxDepth()));
+                }
+                if (++elementCount > limits.getMaxElements()) {
+                    throw limitExceeded(String.format("the document has more than %d elements", limits.getMaxElements()));
+                }
+                if (tokenizer.getAttributeCount() > limits.getMaxAttributes()) {
+                    throw limitExceeded(String.format("element %s has more than %d attributes", tokenizer.getName(),
+                            limits.getMaxAttributes()));
+                }
+                textLength = 0;
+                break;
+            case END_ELEMENT:
+                streamDepth--;
+                textLength = 0;
+                break;
+            case CHARACTERS:
+            case CDATA:
+            case SPACE:
+                textLength += tokenizer.getTextLength();
+                checkTextLength();
+                break;
+            case ENTITY_REFERENCE:
+                textLength += tokenizer.getText().length();
+                checkTextLength();
+                break;
+            default:
+                break;
+        }
+        return eventType;
+    }
+
+    private void checkTextLength() {
+        if (textLength > limits.getMaxTextLength()) {
+            throw limitExceeded(String.format("the text of an element is longer than %d characters", limits.getMaxTextLength()));
+        }
+    }
+
+    private Xb4jUnmarshallException limitExceeded(String reason) {
+        return new Xb4jUnmarshallException(String.format("Reader limit exceeded: %s %s", reason,
+                getRowColumn(tokenizer.getLocation())), null);
+    }
+
+    /**
+     * Append the text of the current text event of the {@link #tokenizer} to the buffer, without creating an intermediate String
+     * where possible
+     */
+    private void appendText(int eventType, StringBuilder buffer) {
+        if (eventType == ENTITY_REFERENCE) {
+            buffer.append(tokenizer.getText());
+        } else {
+            buffer.append(tokenizer.getTextCharacters(), tokenizer.getTextStart(), tokenizer.getTextLength());
+        }
+    }
+
+    /**
+     * Do not hold on to a large buffer once a large text is read
+     */
+    private void releaseTextBuffer() {
+        if (textBuffer.capacity() > MAX_RETAINED_TEXT_BUFFER_SIZE) {
+            textBuffer = new StringBuilder(INITIAL_TEXT_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Compare the {@link QName} that a binding expects with the QName read from the stream. When a symbol table is used, the names
+     * are normally the same instance, because the model adopts the names of the bindings; otherwise they are compared by value.
+     */
+    private static boolean isSameName(QName expectedName, QName encounteredName) {
+        return (expectedName == encounteredName) || expectedName.equals(encounteredName);
+    }
+
+    private static boolean isTag(int eventType) {
+        return (eventType == START_ELEMENT) || (eventType == END_ELEMENT) || (eventType == END_DOCUMENT);
     }
 
     /**
@@ -307,12 +678,12 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
 
     public boolean isCurrentAnElementStart(QName expectedElement) {
         // check if the current element matches the question, i.o.w. we do not need to probe the stream
-        return (currentEvent != null) && (getEvent() == START_ELEMENT) && (getName().equals(expectedElement));
+        return (currentEvent != null) && (getEvent() == START_ELEMENT) && isSameName(expectedElement, getName());
     }
 
     /**
-     * Check if the next xml-tag in the stream is the start of the element that this binding expects. If not, then the staxReader is
-     * positioned prior to the element just read (so it can be re-read).
+     * Check if the next xml-tag in the stream is the start of the element that this binding expects. If not, then the tag is left
+     * in place (so it can be read by the next call to {@link #nextTag()}).
      *
      * @param expectedElement the QName of the expected start-tag
      * @return true if the expected start-tag is consumed, false otherwise
@@ -328,8 +699,8 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
     }
 
     /**
-     * Check if the next xml-tag in the stream is the end-tag of the expected element. If not, then the staxReader is positioned
-     * prior to the element just read (so it can be re-read).
+     * Check if the next xml-tag in the stream is the end-tag of the expected element. If not, then the tag is left in place (so it
+     * can be read by the next call to {@link #nextTag()}).
      *
      * @param expectedElement the QName of the expected end-tag
      * @return true if the expected end-tag is consumed, false otherwise
@@ -359,64 +730,153 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
                     + "Current event is '%s' %s).", EVENTNAMES[getEvent()], getRowColumn(getLocation())));
         }
 
-        LinkedList<ParseEventData> skippedEvents = null;
-
-        // first disable recording queue, so that skipped elements won't get
-        // recorded -- that would not be useful
-        LinkedList<ParseEventData> backupRecordingQueue = this.recordingQueue;
-        try {
-            this.recordingQueue = new LinkedList<>();
-            QName expectedElement = getName();
-            int xmlElementLevelCount = 0;
-            while (xmlElementLevelCount >= 0) {
-                int eventType = nextTag();
-                switch (eventType) {
-                    case START_ELEMENT:
-                        xmlElementLevelCount++;
-                        break;
-                    case END_ELEMENT:
-                        xmlElementLevelCount--;
-                        break;
-                    case END_DOCUMENT:
-                        throw new XMLStreamException(String.format("Unexpectedly reached end of xml document while searching "
-                                + "for end element (%s)", expectedElement));
-                    default:
-                        break;
-                }
+        // record the skipped events, so that they can be returned -- and replayed when an enclosing marker is rewound to
+        Marker skipMarker = startRecording();
+        QName expectedElement = getName();
+        int xmlElementLevelCount = 0;
+        while (xmlElementLevelCount >= 0) {
+            int eventType = nextTag();
+            switch (eventType) {
+                case START_ELEMENT:
+                    xmlElementLevelCount++;
+                    break;
+                case END_ELEMENT:
+                    xmlElementLevelCount--;
+                    break;
+                case END_DOCUMENT:
+                    stopRecording(skipMarker);
+                    throw new XMLStreamException(String.format("Unexpectedly reached end of xml document while searching "
+                            + "for end element (%s)", expectedElement));
+                default:
+                    break;
             }
+        }
 
-            // the current event should now be the expected end element tag.
-            // Let's check this
-            if (!getName().equals(expectedElement)) {
-                throw new XMLStreamException(String.format("Expected end element %s, but encountered unexpected end element %s ",
-                        expectedElement, getName()), getLocation());
-            }
+        // the current event should now be the expected end element tag. Let's check this
+        if (!getName().equals(expectedElement)) {
+            stopRecording(skipMarker);
+            throw new XMLStreamException(String.format("Expected end element %s, but encountered unexpected end element %s ",
+                    expectedElement, getName()), getLocation());
+        }
+
+        // copy the skipped events from the tape, except for the end-element event
+        List<ParseEventData> skippedEvents = new ArrayList<>((int) (tapeCursor - skipMarker.getPosition() - 1));
+        for (long position = skipMarker.getPosition(); position < tapeCursor - 1; position++) {
+            skippedEvents.add(eventAt(position));
+        }
+        stopRecording(skipMarker);
+
+        return skippedEvents;
+    }
 
-            skippedEvents = this.recordingQueue;
-            skippedEvents.pop();    //remove the end-element event
+    /**
+     * <p>
+     * Consume the current start-element and all its contents until and including the end-element that matches the current start
+     * element, like {@link #skipToElementEnd()}, but without keeping the skipped events. Unless we are recording, the contents are
+     * skipped on the underlying {@link XMLStreamReader} by counting the element depth; no parse events are created for them.</p>
+     * <p>
+     * When we are recording, the skipped events must be kept for playback, so then this method falls back to
+     * {@link #skipToElementEnd()}.</p>
+     *
+     * @throws XMLStreamException if start- and end-element do not match or the end of the document is reached
+     */
+    public void skipElement() throws XMLStreamException {
+        if (getEvent() != START_ELEMENT) {
+            throw new XMLStreamException(String.format("Can only skip to element end when we are currently on element start. "
+                    + "Current event is '%s' %s).", EVENTNAMES[getEvent()], getRowColumn(getLocation())));
+        }
+        if (isRecording()) {
+            skipToElementEnd();
+            return;
+        }
 
-            if (backupRecordingQueue != null) {
-                // add END_ELEMENT of the skipped element to the recording queue
-                backupRecordingQueue.add(this.currentEvent);
+        QName expectedElement = getName();
+        int xmlElementLevelCount = 0;
+
+        // first skip over the events that are waiting for playback
+        while (isPlayingBack()) {
+            ParseEventData eventData = takeFromTape();
+            switch (eventData.eventType) {
+                case START_ELEMENT:
+                    xmlElementLevelCount++;
+                    break;
+                case END_ELEMENT:
+                    if (xmlElementLevelCount == 0) {
+                        this.currentEvent = eventData;
+                        if (!isSameName(expectedElement, eventData.name)) {
+                            throw new XMLStreamException(String.format("Expected end element %s, but encountered unexpected end "
+                                    + "element %s ", expectedElement, eventData.name), getLocation());
+                        }
+                        return;
+                    }
+                    xmlElementLevelCount--;
+                    break;
+                case END_DOCUMENT:
+                    throw new XMLStreamException(String.format("Unexpectedly reached end of xml document while searching "
+                            + "for end element (%s)", expectedElement));
+                default:
+                    break;
             }
-        } finally {
-            this.recordingQueue = backupRecordingQueue; // restore recording
-            // queue
         }
 
-        return skippedEvents;
+        // then skip over the raw xml stream
+        while (true) {
+            int eventType = nextToken();
+            switch (eventType) {
+                case START_ELEMENT:
+                    xmlElementLevelCount++;
+                    break;
+                case END_ELEMENT:
+                    if (xmlElementLevelCount == 0) {
+                        String namespaceUri = tokenizer.getNamespaceURI();
+                        if (!expectedElement.getLocalPart().equals(tokenizer.getLocalName())
+                                || !expectedElement.getNamespaceURI().equals(namespaceUri == null ? "" : namespaceUri)) {
+                            throw new XMLStreamException(String.format("Expected end element %s, but encountered unexpected end "
+                                    + "element %s ", expectedElement, tokenizer.getName()), tokenizer.getLocation());
+                        }
+                        this.currentEvent = ParseEventData.newParseEventData(eventType, tokenizer, locationTracking,
+                                symbolTable);
+                        return;
+                    }
+                    xmlElementLevelCount--;
+                    break;
+                case END_DOCUMENT:
+                    throw new XMLStreamException(String.format("Unexpectedly reached end of xml document while searching "
+                            + "for end element (%s)", expectedElement));
+                default:
+                    break;
+            }
+        }
     }
 
     /**
-     * Read the contents (text only) from the current element and send the bytes to the {@link OutputStream}
+     * Read the contents (text only) from the current element and send the UTF-8 encoded bytes to the {@link OutputStream}
      *
-     * @param out
+     * @param out the stream to write the element content to
      * @throws XMLStreamException
+     * @see #elementContentToOutputStream(OutputStream, Charset)
      */
     public void elementContentToOutputStream(OutputStream out) throws XMLStreamException {
+        elementContentToOutputStream(out, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the contents (text only) from the current element and send the bytes, encoded in the given {@link Charset}, to the
+     * {@link OutputStream}. The content is streamed in chunks through buffers that are reused, so that arbitrary large content (e.g.
+     * base64 encoded files) can be handled without allocating memory for every chunk. Characters that cannot be encoded are
+     * replaced by the replacement bytes of the charset.
+     *
+     * @param out the stream to write the element content to
+     * @param charset the character encoding of the bytes written to the stream
+     * @throws XMLStreamException
+     */
+    public void elementContentToOutputStream(OutputStream out, Charset charset) throws XMLStreamException {
         if (out == null) {
             throw new NullPointerException("OutputStream cannot be null");
         }
+        if (charset == null) {
+            throw new NullPointerException("Charset cannot be null");
+        }
 
         if (getEvent() != START_ELEMENT) {
             throw new XMLStreamException(
@@ -426,22 +886,20 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
                             EVENTNAMES[getEvent()], getRowColumn(getLocation())));
         }
 
-        // first disable recording queue, so that content of what's streamed to
-        // outputstream won't get recorded -- this possibly is very large
+        // the content of what's streamed to the outputstream is not recorded -- this possibly is very large
         QName currentTextElement = getName();
-        LinkedList<ParseEventData> backupRecordingQueue = this.recordingQueue;
-        this.recordingQueue = null;
         try {
-            // read content of text-only element from staxReader
-            int eventType = staxReader.next();
+            prepareStreamEncoding(charset);
+
+            // read content of text-only element from the tokenizer
+            int eventType = nextToken();
             while (eventType != END_ELEMENT) {
                 switch (eventType) {
                     case CHARACTERS:
                     case CDATA:
                     case SPACE:
                     case ENTITY_REFERENCE:
-                        out.write(staxReader.getText().getBytes());
-                        // TODO: what about encodings etc.
+                        streamText(eventType, out);
                         break;
                     // ignore -- really?, because this is strange...
                     case PROCESSING_INSTRUCTION:
@@ -449,94 +907,166 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
                         break;
                     case END_DOCUMENT:
                         throw new XMLStreamException(String.format("Malformed xml; reached %s when reading text for <%s>",
-                                EVENTNAMES[eventType], currentTextElement), staxReader.getLocation());
+                                EVENTNAMES[eventType], currentTextElement), tokenizer.getLocation());
                     case XMLStreamConstants.START_ELEMENT:
                         // mixed content is currently not supported
                         throw new XMLStreamException(String.format("Found %s <%s> while reading text for <%s>; mixed content "
-                                + "is currently not supported %s", EVENTNAMES[eventType], staxReader.getName(),
-                                currentTextElement, getRowColumn(staxReader.getLocation())));
+                                + "is currently not supported %s", EVENTNAMES[eventType], tokenizer.getName(),
+                                currentTextElement, getRowColumn(tokenizer.getLocation())));
                     default:
-                        throw new XMLStreamException(String.format("Unexpected %s", EVENTNAMES[eventType]), staxReader.getLocation());
+                        throw new XMLStreamException(String.format("Unexpected %s", EVENTNAMES[eventType]), tokenizer.getLocation());
                 }
-                eventType = staxReader.next(); // read END_ELEMENT
+                eventType = nextToken(); // read END_ELEMENT
             }
+            finishStreamEncoding(out);
 
             if (eventType == END_ELEMENT) {
-                if (!currentTextElement.equals(staxReader.getName())) {
+                if (!currentTextElement.equals(tokenizer.getName())) {
                     throw new XMLStreamException(
                             String.format("Malformed xml; expected end element </%s>, but encountered </%s>",
-                                    currentTextElement, staxReader.getName()),
-                            staxReader.getLocation());
+                                    currentTextElement, tokenizer.getName()),
+                            tokenizer.getLocation());
                 }
 
-                // push the end element on the playback queue
-                playbackQueue.add(ParseEventData.newParseEventData(eventType, staxReader));
+                // push the end element on the tape for playback
+                appendForPlayback(ParseEventData.newParseEventData(eventType, tokenizer, locationTracking, symbolTable));
             }
         } catch (IOException e) {
             throw new XMLStreamException(String.format(
                     "Exception occured when streaming content of element %s to OutputStream", currentTextElement), e);
-        } finally {
-            this.recordingQueue = backupRecordingQueue; // restore recording
-            // queue
+        }
+    }
+
+    private void prepareStreamEncoding(Charset charset) {
+        if (streamChars == null) {
+            streamChars = CharBuffer.allocate(STREAM_BUFFER_SIZE);
+            streamBytes = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        }
+        streamChars.clear();
+        streamBytes.clear();
+        if ((streamEncoder == null) || !streamEncoder.charset().equals(charset)) {
+            streamEncoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } else {
+            streamEncoder.reset();
+        }
+    }
+
+    /**
+     * Copy the text of the current text event of the {@link #tokenizer} in chunks into the reusable char buffer and encode
+     * every chunk to the {@link OutputStream}
+     */
+    private void streamText(int eventType, OutputStream out) throws IOException, XMLStreamException {
+        char[] chars = streamChars.array();
+        if (eventType == ENTITY_REFERENCE) {
+            String text = tokenizer.getText();
+            int sourceStart = 0;
+            while (sourceStart < text.length()) {
+                int copied = Math.min(streamChars.remaining(), text.length() - sourceStart);
+                text.getChars(sourceStart, sourceStart + copied, chars, streamChars.position());
+                sourceStart += copied;
+                streamChars.position(streamChars.position() + copied);
+                encodeStreamChars(out, false);
+            }
+        } else {
+            int sourceStart = 0;
+            int requested;
+            int copied;
+            do {
+                requested = streamChars.remaining();
+                copied = tokenizer.getTextCharacters(sourceStart, chars, streamChars.position(), requested);
+                sourceStart += copied;
+                streamChars.position(streamChars.position() + copied);
+                encodeStreamChars(out, false);
+            } while (copied == requested);
+        }
+    }
+
+    /**
+     * Encode the characters in the char buffer and write the bytes to the {@link OutputStream}. Characters that cannot be encoded
+     * yet (e.g. the first half of a surrogate pair) are kept in the char buffer.
+     */
+    private void encodeStreamChars(OutputStream out, boolean endOfInput) throws IOException {
+        streamChars.flip();
+        CoderResult result = null;
+        do {
+            result = streamEncoder.encode(streamChars, streamBytes, endOfInput);
+            if (result.isOverflow()) {
+                writeStreamBytes(out);
+            }
+        } while (result.isOverflow());
+        streamChars.compact();
+    }
+
+    private void finishStreamEncoding(OutputStream out) throws IOException {
+        encodeStreamChars(out, true);
+        while (streamEncoder.flush(streamBytes).isOverflow()) {
+            writeStreamBytes(out);
+        }
+        writeStreamBytes(out);
+    }
+
+    private void writeStreamBytes(OutputStream out) throws IOException {
+        if (streamBytes.position() > 0) {
+            out.write(streamBytes.array(), 0, streamBytes.position());
+            streamBytes.clear();
         }
     }
 
     private boolean isNextElement(QName expectedElement, int expectedEventType) throws XMLStreamException {
         if (expectedElement != null) {
-            boolean matchesExpected = false;
-            Marker marker = startRecording();
-            int realEvent = 0;
-            QName encounteredName = null;
-            try {
-                realEvent = nextTag();
-                if (realEvent != END_DOCUMENT) {
-                    if (realEvent == START_ELEMENT || realEvent == END_ELEMENT) {
-                        encounteredName = getName();
-                    }
-                    if (realEvent == expectedEventType) { // should only be start- or end element
-                        matchesExpected = expectedElement.equals(encounteredName);
-                    }
-                }
-            } finally {
-                if (!matchesExpected) {
-                    rewindAndPlayback(marker);
-                    if (logger.isTraceEnabled()) {
-                        if (encounteredName != null) {
-                            boolean sameNamespace = expectedElement.getNamespaceURI().equals(encounteredName.getNamespaceURI());
-                            boolean sameLocalName = expectedElement.getLocalPart().equals(encounteredName.getLocalPart());
-                            boolean sameEvent = expectedEventType == realEvent;
-                            if (sameEvent) {
-                                if (sameLocalName && !sameNamespace) {
-                                    logger.trace(String.format("%s has wrong namespace: expected '%s' but was '%s'",
-                                            expectedElement.getLocalPart(), expectedElement.getNamespaceURI(),
-                                            encounteredName.getNamespaceURI()));
-                                } else if (sameNamespace && !sameLocalName) {
-                                    logger.trace(String.format("Expected %s %s, but found %s (%s)", EVENTNAMES[expectedEventType],
-                                        expectedElement.getLocalPart(), encounteredName.getLocalPart(),
-                                        getRowColumn(getLocation())));
-                                }
-                            } else {
-                                logger.trace(String.format("Expected %s (%s), but found %s (%s %s)", EVENTNAMES[expectedEventType],
-                                        expectedElement, EVENTNAMES[realEvent], encounteredName, getRowColumn(getLocation())));
-                            }
-                        }
-                        if (realEvent == END_DOCUMENT) {
-                            logger.trace(String.format("Expected %s (%s), but reached the end of the document",
-                                    EVENTNAMES[expectedEventType], expectedElement));
+            ParseEventData next = peekTag();
+            int realEvent = next.eventType;
+            QName encounteredName = next.name;
+            if ((realEvent == expectedEventType) && isSameName(expectedElement, encounteredName)) { // should only be start- or end element
+                nextTag();
+                return true;
+            }
+
+            if (logger.isTraceEnabled()) {
+                if (encounteredName != null) {
+                    boolean sameNamespace = expectedElement.getNamespaceURI().equals(encounteredName.getNamespaceURI());
+                    boolean sameLocalName = expectedElement.getLocalPart().equals(encounteredName.getLocalPart());
+                    boolean sameEvent = expectedEventType == realEvent;
+                    if (sameEvent) {
+                        if (sameLocalName && !sameNamespace) {
+                            logger.trace(String.format("%s has wrong namespace: expected '%s' but was '%s'",
+                                    expectedElement.getLocalPart(), expectedElement.getNamespaceURI(),
+                                    encounteredName.getNamespaceURI()));
+                        } else if (sameNamespace && !sameLocalName) {
+                            logger.trace(String.format("Expected %s %s, but found %s (%s)", EVENTNAMES[expectedEventType],
+                                    expectedElement.getLocalPart(), encounteredName.getLocalPart(),
+                                    getRowColumn(next.getLocation())));
                         }
+                    } else {
+                        logger.trace(String.format("Expected %s (%s), but found %s (%s %s)", EVENTNAMES[expectedEventType],
+                                expectedElement, EVENTNAMES[realEvent], encounteredName, getRowColumn(next.getLocation())));
                     }
-                } else {
-                    stopRecording(marker);
+                }
+                if (realEvent == END_DOCUMENT) {
+                    logger.trace(String.format("Expected %s (%s), but reached the end of the document",
+                            EVENTNAMES[expectedEventType], expectedElement));
                 }
             }
-            return matchesExpected;
+            return false;
         }
         return true; // when we expect nothing, all is well
     }
 
+    /**
+     * Get the location in the xml stream of the current event. When the location of parse events is not tracked (see
+     * {@link LocationTracking#NONE}), the current location of the underlying {@link XMLStreamReader} is returned instead.
+     *
+     * @return the {@link Location} of the current event, or null when reading of the xml has not yet started
+     */
     public Location getLocation() {
         if (currentEvent != null) {
-            return currentEvent.location;
+            Location location = currentEvent.getLocation();
+            if (location == null) {
+                location = tokenizer.getLocation();
+            }
+            return location;
         }
         return null;
     }
@@ -548,28 +1078,29 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
      * @throws XMLStreamException
      */
     public String getElementText() throws XMLStreamException {
-        if (!playbackQueue.isEmpty()) {
-            this.currentEvent = playbackQueue.poll();
+        if (isPlayingBack()) {
+            this.currentEvent = takeFromTape();
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("ParseEvent read from PlaybackQueue: %s", currentEvent));
             }
         } else {
-            // read content of text-only element from staxReader
+            // read content of text-only element from the tokenizer
             if (getEvent() != START_ELEMENT) {
                 throw new XMLStreamException("parser must be on START_ELEMENT to read text", getLocation());
             }
 
             QName currentTextElement = getName();
 
-            int eventType = staxReader.next();
-            StringBuilder content = new StringBuilder();
+            int eventType = nextToken();
+            StringBuilder content = textBuffer;
+            content.setLength(0);
             while (eventType != END_ELEMENT) {
                 switch (eventType) {
                     case CHARACTERS:
                     case CDATA:
                     case SPACE:
                     case ENTITY_REFERENCE:
-                        content.append(staxReader.getText());
+                        appendText(eventType, content);
                         break;
                     case PROCESSING_INSTRUCTION:
                     case COMMENT:
@@ -577,42 +1108,41 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
                         break;
                     case END_DOCUMENT:
                         throw new XMLStreamException(String.format("Malformed xml; reached %s when reading text for <%s>",
-                                EVENTNAMES[eventType], currentTextElement), staxReader.getLocation());
+                                EVENTNAMES[eventType], currentTextElement), tokenizer.getLocation());
                     case XMLStreamConstants.START_ELEMENT:
                         // mixed content is currently not supported
                         throw new XMLStreamException(String.format(
                                 "Found %s <%s> while reading text for <%s>; mixed content is "
                                 + "currently not supported %s",
-                                EVENTNAMES[eventType], staxReader.getName(), currentTextElement,
-                                getRowColumn(staxReader.getLocation())));
+                                EVENTNAMES[eventType], tokenizer.getName(), currentTextElement,
+                                getRowColumn(tokenizer.getLocation())));
                     default:
                         throw new XMLStreamException(String.format("Unexpected %s", EVENTNAMES[eventType]),
-                                staxReader.getLocation());
+                                tokenizer.getLocation());
                 }
-                eventType = staxReader.next(); // read END_ELEMENT
+                eventType = nextToken(); // read END_ELEMENT
             }
 
             if (eventType == END_ELEMENT) {
-                if (!currentTextElement.equals(staxReader.getName())) {
+                if (!currentTextElement.equals(tokenizer.getName())) {
                     throw new XMLStreamException(
                             String.format("Malformed xml; expected end element </%s>, but encountered </%s>",
-                                    currentTextElement, staxReader.getName()),
-                            staxReader.getLocation());
+                                    currentTextElement, tokenizer.getName()),
+                            tokenizer.getLocation());
                 }
-
-                // push the end element on the playback queue
-                playbackQueue.add(ParseEventData.newParseEventData(eventType, staxReader));
             }
 
-            this.currentEvent = new ParseEventData(CHARACTERS, content.toString(), staxReader.getLocation());
+            this.currentEvent = ParseEventData.newTextEventData(CHARACTERS, content.toString(), tokenizer, locationTracking);
+            releaseTextBuffer();
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("ParseEvent read by StaxReader: %s", currentEvent));
             }
-        }
+            record(this.currentEvent);
 
-        if (this.recordingQueue != null) {
-            this.recordingQueue.add(this.currentEvent);
+            // push the end element on the tape for playback
+            appendForPlayback(ParseEventData.newParseEventData(eventType, tokenizer, locationTracking, symbolTable));
         }
+
         if (this.currentEvent.eventType != CHARACTERS) {
             throw new XMLStreamException("No element text could be read at this point in the stream");
         }
@@ -626,26 +1156,210 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
      */
     public void close() {
         clearAllRecordings();
-        this.playbackQueue.clear();
+        releaseTape(tapeEnd);
+        this.tapeCursor = this.tapeEnd;
+        if (spillFile != null) {
+            spillFile.close();
+            spillFile = null;
+        }
+        if (memoTable != null) {
+            memoTable.clear();
+        }
+    }
+
+    /**
+     * Set the limits on the xml that this reader accepts. The limits are checked when the events are read from the
+     * {@link XmlTokenizer}, and an {@link Xb4jUnmarshallException} is thrown as soon as a limit is exceeded.
+     *
+     * @param limits the {@link ReaderLimits} for the xml stream
+     */
+    public void setLimits(ReaderLimits limits) {
+        if (limits == null) {
+            throw new NullPointerException("ReaderLimits cannot be null");
+        }
+        this.limits = limits;
+    }
+
+    public ReaderLimits getLimits() {
+        return this.limits;
+    }
+
+    /**
+     * Validate the xml stream against the given schema while it is read, so that it does not need to be parsed twice. When the xml
+     * is invalid, an {@link Xb4jUnmarshallException} with the location of the violation is thrown. The schema must be set before
+     * the first event is read; it also applies to the documents after a {@link #reset(XmlTokenizer)}.
+     *
+     * @param schema the schema to validate against, or null to stop validating
+     * @throws IllegalStateException when reading has started
+     */
+    public void setSchema(Schema schema) {
+        if (currentEvent != null) {
+            throw new IllegalStateException("The schema cannot be changed after reading has started");
+        }
+        if (tokenizer instanceof ValidatingTokenizer) {
+            tokenizer = ((ValidatingTokenizer) tokenizer).getTokenizer();
+        }
+        this.schema = schema;
+        if (schema != null) {
+            tokenizer = new ValidatingTokenizer(tokenizer, schema);
+        }
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Continue with the next xml document, e.g. the next message on a connection, that is read by the given tokenizer. The
+     * recordings of the previous document are discarded, but the tape and buffers of this reader are kept for reuse.
+     *
+     * @param tokenizer the {@link XmlTokenizer} that is positioned before the start of the next document
+     */
+    public void reset(XmlTokenizer tokenizer) {
+        if (tokenizer == null) {
+            throw new NullPointerException("XmlTokenizer cannot be null");
+        }
+        close();
+        this.tokenizer = schema == null ? tokenizer : new ValidatingTokenizer(tokenizer, schema);
+        this.currentEvent = null;
+        this.streamDepth = 0;
+        this.elementCount = 0;
+        this.textLength = 0;
     }
 
     public void close(boolean closeXmlStream) {
         close();
-        if (closeXmlStream && (staxReader != null)) {
+        if (closeXmlStream && (tokenizer != null)) {
             try {
-                staxReader.close();
+                tokenizer.close();
             } catch (XMLStreamException e) {
-                logger.error("Exception occured when trying to close the underlying XMLStreamReader", e);
+                logger.error("Exception occured when trying to close the underlying XmlTokenizer", e);
             }
         }
     }
 
     private void clearAllRecordings() {
-        if (this.recordingQueue != null) {
-            this.recordingQueue.clear();
-            this.recordingQueue = null;
+        releaseTape(tapeCursor);
+        this.markerCount = 0;
+    }
+
+    private boolean isPlayingBack() {
+        return tapeCursor < tapeEnd;
+    }
+
+    private int slot(long position) {
+        return (int) (position & tapeMask);
+    }
+
+    /**
+     * Read the next event that is waiting on the tape for playback. When nothing is recorded, the event is released from the
+     * tape right away.
+     */
+    private ParseEventData takeFromTape() throws XMLStreamException {
+        ParseEventData eventData = eventAt(tapeCursor++);
+        if (!isRecording()) {
+            releaseTape(tapeCursor);
+        }
+        return eventData;
+    }
+
+    /**
+     * Add an event that is just read from the {@link #tokenizer} to the recordings, when we are recording.
+     */
+    private void record(ParseEventData eventData) throws XMLStreamException {
+        if (isRecording()) {
+            appendForPlayback(eventData);
+            this.tapeCursor = this.tapeEnd;
+        }
+    }
+
+    /**
+     * Add an event to the end of the tape, so that it will be played back after all events that are currently waiting
+     */
+    private void appendForPlayback(ParseEventData eventData) throws XMLStreamException {
+        if (tapeEnd - tapeMemoryHead == tape.length) {
+            growTape();
+        }
+        tape[slot(tapeEnd++)] = eventData;
+        tapeMemoryUsage += eventData.estimateSize();
+        if (isRecording() && (tapeEnd - tapeHead > limits.getMaxRecordedEvents())) {
+            throw limitExceeded(String.format("more than %d events are recorded for playback", limits.getMaxRecordedEvents()));
+        }
+        if (tapeMemoryUsage > recordingBudget.getMaxMemory()) {
+            spillRecordedEvents();
+        }
+    }
+
+    /**
+     * Move the oldest recorded events from memory to the {@link #spillFile}, until the memory used is back to half of the budget.
+     * Events that are waiting for playback are never moved.
+     */
+    private void spillRecordedEvents() throws XMLStreamException {
+        long target = recordingBudget.getMaxMemory() / 2;
+        try {
+            while ((tapeMemoryHead < tapeCursor) && (tapeMemoryUsage > target)) {
+                if (spillFile == null) {
+                    spillFile = new TapeSpillFile(recordingBudget.getSpillDirectory());
+                }
+                int slot = slot(tapeMemoryHead);
+                ParseEventData eventData = tape[slot];
+                spillFile.append(tapeMemoryHead++, eventData);
+                tape[slot] = null;
+                tapeMemoryUsage -= eventData.estimateSize();
+            }
+            if (spillFile != null) {
+                spillFile.flush();
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException("Exception occured when moving recorded parse events to a temporary file", e);
+        }
+    }
+
+    /**
+     * Get the event at the given position on the tape, either from memory or from the {@link #spillFile}
+     */
+    private ParseEventData eventAt(long position) throws XMLStreamException {
+        if (position >= tapeMemoryHead) {
+            return tape[slot(position)];
+        }
+        try {
+            return spillFile.read(position, symbolTable);
+        } catch (IOException e) {
+            throw new XMLStreamException("Exception occured when reading recorded parse events from a temporary file", e);
+        }
+    }
+
+    private void growTape() {
+        ParseEventData[] newTape = new ParseEventData[tape.length * 2];
+        int newMask = newTape.length - 1;
+        for (long position = tapeMemoryHead; position < tapeEnd; position++) {
+            newTape[(int) (position & newMask)] = tape[slot(position)];
+        }
+        this.tape = newTape;
+        this.tapeMask = newMask;
+    }
+
+    /**
+     * Drop all events from the tape that are positioned before the given position, so that their slots can be reused
+     */
+    private void releaseTape(long upTo) {
+        for (long position = Math.max(tapeHead, tapeMemoryHead); position < upTo; position++) {
+            int slot = slot(position);
+            tapeMemoryUsage -= tape[slot].estimateSize();
+            tape[slot] = null;
+        }
+        if (tapeHead < upTo) {
+            tapeHead = upTo;
+        }
+        if (tapeMemoryHead < tapeHead) {
+            tapeMemoryHead = tapeHead;
+        }
+        if ((spillFile != null) && !spillFile.isEmpty() && (tapeHead >= spillFile.getEnd())) {
+            spillFile.clear();
+        }
+        if ((memoTable != null) && !memoTable.isEmpty()) {
+            memoTable.headMap(tapeHead).clear();
         }
-        this.publishedMarkers.clear();
     }
 
     private String getRowColumn(Location location) {
@@ -672,15 +1386,15 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
         }
 
         sb.append(separator);
-        if ((recordingQueue != null) && !recordingQueue.isEmpty()) {
-            sb.append("recordingQueueSize=").append(recordingQueue.size());
+        if (isRecording() && (tapeCursor > tapeHead)) {
+            sb.append("recordingSize=").append(tapeCursor - tapeHead);
         } else {
             sb.append("isRecording=").append(isRecording());
         }
 
         sb.append(", ");
-        if (!playbackQueue.isEmpty()) {
-            sb.append("playbackQueueSize=").append(playbackQueue.size());
+        if (isPlayingBack()) {
+            sb.append("playbackSize=").append(tapeEnd - tapeCursor);
         } else {
             sb.append("isPlayingback=false");
         }
@@ -691,26 +1405,67 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
 
     public static final class ParseEventData {
 
+        private static final QName[] NO_ATTRIBUTE_NAMES = new QName[0];
+
+        private static final String[] NO_ATTRIBUTE_VALUES = new String[0];
+
+        private static final int UNKNOWN_POSITION = Integer.MIN_VALUE;
+
         private final Location location;
+        private final int lineNumber;
+        private final int columnNumber;
         private final QName name;
         private final int eventType;
         private final String text;
-        private final Map<QName, String> attributes;
 
-        private ParseEventData(int eventType, String elementText, Location location) {
+        /**
+         * The attribute names and values as read from the stream; the value of the attribute in attributeNames[i] is found in
+         * attributeValues[i]
+         */
+        private final QName[] attributeNames;
+        private final String[] attributeValues;
+
+        /**
+         * A {@link Map} view on the attributes, that is only created when requested
+         */
+        private Map<QName, String> attributes = null;
+
+        private ParseEventData(int eventType, QName elementName, String elementText, QName[] attributeNames,
+                String[] attributeValues, XmlTokenizer tokenizer, LocationTracking locationTracking) {
             this.eventType = eventType;
+            this.name = elementName;
             this.text = elementText;
-            this.location = location;
-            this.name = null;
-            this.attributes = null;
+            this.attributeNames = attributeNames;
+            this.attributeValues = attributeValues;
+            switch (locationTracking) {
+                case FULL:
+                    this.location = tokenizer.getLocation();
+                    this.lineNumber = UNKNOWN_POSITION;
+                    this.columnNumber = UNKNOWN_POSITION;
+                    break;
+                case LINE_COLUMN:
+                    Location current = tokenizer.getLocation();
+                    this.location = null;
+                    this.lineNumber = current == null ? UNKNOWN_POSITION : current.getLineNumber();
+                    this.columnNumber = current == null ? UNKNOWN_POSITION : current.getColumnNumber();
+                    break;
+                default:
+                    this.location = null;
+                    this.lineNumber = UNKNOWN_POSITION;
+                    this.columnNumber = UNKNOWN_POSITION;
+            }
         }
 
-        private ParseEventData(int eventType, QName elementName, Map<QName, String> attributes, Location location) {
+        private ParseEventData(int eventType, QName elementName, String elementText, QName[] attributeNames,
+                String[] attributeValues, int lineNumber, int columnNumber) {
             this.eventType = eventType;
             this.name = elementName;
-            this.location = location;
-            this.attributes = attributes;
-            this.text = null;
+            this.text = elementText;
+            this.attributeNames = attributeNames;
+            this.attributeValues = attributeValues;
+            this.location = null;
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
         }
 
         public QName getName() {
@@ -721,26 +1476,228 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
             return this.eventType;
         }
 
-        private static ParseEventData newParseEventData(int eventType, XMLStreamReader staxReader)
-                throws XMLStreamException {
+        /**
+         * @return the text of a text event, or null for other events
+         */
+        String getText() {
+            return this.text;
+        }
+
+        public int getAttributeCount() {
+            return this.attributeNames.length;
+        }
+
+        public QName getAttributeName(int index) {
+            return this.attributeNames[index];
+        }
+
+        public String getAttributeValue(int index) {
+            return this.attributeValues[index];
+        }
+
+        /**
+         * Lookup the value of the given attribute by scanning the attribute names of this event
+         *
+         * @param attributeName the {@link QName} of the attribute
+         * @return the attribute value, or null when this event does not have the attribute
+         */
+        public String getAttributeValue(QName attributeName) {
+            int index = indexOfAttribute(attributeName);
+            return index < 0 ? null : attributeValues[index];
+        }
+
+        private int indexOfAttribute(QName attributeName) {
+            for (int i = 0; i < attributeNames.length; i++) {
+                if (attributeNames[i] == attributeName) {
+                    return i;
+                }
+            }
+            for (int i = 0; i < attributeNames.length; i++) {
+                if (attributeNames[i].equals(attributeName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Get the attributes as a {@link Map}. The map is created on the first call of this method.
+         *
+         * @return an unmodifiable map of attribute values by name, or null when this event has no attributes
+         */
+        public Map<QName, String> getAttributes() {
+            if ((this.attributes == null) && (attributeNames.length > 0)) {
+                Map<QName, String> attributeMap = new HashMap<>(attributeNames.length * 2);
+                for (int i = 0; i < attributeNames.length; i++) {
+                    attributeMap.put(attributeNames[i], attributeValues[i]);
+                }
+                this.attributes = Collections.unmodifiableMap(attributeMap);
+            }
+            return this.attributes;
+        }
+
+        /**
+         * Create the data of an event that is not read from an {@link XmlTokenizer}, e.g. from SAX events
+         *
+         * @param lineNumber the line number of the event, or a negative number when it is unknown
+         * @param columnNumber the column number of the event, or a negative number when it is unknown
+         */
+        static ParseEventData newEventData(int eventType, QName elementName, String elementText, QName[] attributeNames,
+                String[] attributeValues, int lineNumber, int columnNumber) {
+            boolean known = (lineNumber >= 0) && (columnNumber >= 0);
+            return new ParseEventData(eventType, elementName, elementText,
+                    attributeNames == null ? NO_ATTRIBUTE_NAMES : attributeNames,
+                    attributeValues == null ? NO_ATTRIBUTE_VALUES : attributeValues,
+                    known ? lineNumber : UNKNOWN_POSITION, known ? columnNumber : UNKNOWN_POSITION);
+        }
+
+        private static ParseEventData newTextEventData(int eventType, String elementText, XmlTokenizer tokenizer,
+                LocationTracking locationTracking) {
+            return new ParseEventData(eventType, null, elementText, NO_ATTRIBUTE_NAMES, NO_ATTRIBUTE_VALUES, tokenizer,
+                    locationTracking);
+        }
+
+        private static ParseEventData newParseEventData(int eventType, XmlTokenizer tokenizer,
+                LocationTracking locationTracking, QNameTable symbolTable) throws XMLStreamException {
             if ((eventType != START_ELEMENT) && (eventType != END_ELEMENT)) {
                 throw new XMLStreamException("This type of event is currently unsupported: " + eventType);
             }
-            Map<QName, String> attributes = null;
+            QName[] attributeNames = NO_ATTRIBUTE_NAMES;
+            String[] attributeValues = NO_ATTRIBUTE_VALUES;
             if (eventType == START_ELEMENT) {
-                int attributeCount = staxReader.getAttributeCount();
+                int attributeCount = tokenizer.getAttributeCount();
                 if (attributeCount > 0) {
-                    attributes = new HashMap<>(attributeCount);
+                    attributeNames = new QName[attributeCount];
+                    attributeValues = new String[attributeCount];
                     for (int i = 0; i < attributeCount; i++) {
-                        attributes.put(staxReader.getAttributeName(i), staxReader.getAttributeValue(i));
+                        attributeNames[i] = symbolTable == null ? tokenizer.getAttributeName(i)
+                                : symbolTable.intern(tokenizer.getAttributeNamespace(i), tokenizer.getAttributeLocalName(i));
+                        attributeValues[i] = tokenizer.getAttributeValue(i);
                     }
                 }
             }
-            ParseEventData eventData = new ParseEventData(eventType, staxReader.getName(), attributes,
-                    staxReader.getLocation());
+            QName elementName = symbolTable == null ? tokenizer.getName()
+                    : symbolTable.intern(tokenizer.getNamespaceURI(), tokenizer.getLocalName());
+            ParseEventData eventData = new ParseEventData(eventType, elementName, null, attributeNames, attributeValues,
+                    tokenizer, locationTracking);
             return eventData;
         }
 
+        /**
+         * Estimate the number of bytes this event takes on the heap. Names are not counted, because they are mostly shared.
+         */
+        long estimateSize() {
+            long size = 64;
+            if (text != null) {
+                size += 40 + (2L * text.length());
+            }
+            if (location != null) {
+                size += 48;
+            }
+            for (String attributeValue : attributeValues) {
+                size += 48 + (2L * attributeValue.length());
+            }
+            return size;
+        }
+
+        /**
+         * Write this event in a compact binary form, so that it can be {@link #readFrom(DataInput, QNameTable) read} back
+         * later. Of the location, only the line- and column number are written.
+         */
+        void writeTo(DataOutput out) throws IOException {
+            out.writeByte(eventType);
+            writeName(out, name);
+            writeString(out, text);
+            Location eventLocation = getLocation();
+            out.writeInt(eventLocation == null ? UNKNOWN_POSITION : eventLocation.getLineNumber());
+            out.writeInt(eventLocation == null ? UNKNOWN_POSITION : eventLocation.getColumnNumber());
+            out.writeInt(attributeNames.length);
+            for (int i = 0; i < attributeNames.length; i++) {
+                writeName(out, attributeNames[i]);
+                writeString(out, attributeValues[i]);
+            }
+        }
+
+        static ParseEventData readFrom(DataInput in, QNameTable symbolTable) throws IOException {
+            int eventType = in.readByte();
+            QName elementName = readName(in, symbolTable);
+            String elementText = readString(in);
+            int lineNumber = in.readInt();
+            int columnNumber = in.readInt();
+            int attributeCount = in.readInt();
+            QName[] attributeNames = NO_ATTRIBUTE_NAMES;
+            String[] attributeValues = NO_ATTRIBUTE_VALUES;
+            if (attributeCount > 0) {
+                attributeNames = new QName[attributeCount];
+                attributeValues = new String[attributeCount];
+                for (int i = 0; i < attributeCount; i++) {
+                    attributeNames[i] = readName(in, symbolTable);
+                    attributeValues[i] = readString(in);
+                }
+            }
+            return new ParseEventData(eventType, elementName, elementText, attributeNames, attributeValues, lineNumber,
+                    columnNumber);
+        }
+
+        private static void writeName(DataOutput out, QName name) throws IOException {
+            if (name == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeString(out, name.getNamespaceURI());
+                writeString(out, name.getLocalPart());
+                writeString(out, name.getPrefix());
+            }
+        }
+
+        private static QName readName(DataInput in, QNameTable symbolTable) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            String namespaceUri = readString(in);
+            String localPart = readString(in);
+            String prefix = readString(in);
+            if (symbolTable != null) {
+                return symbolTable.intern(namespaceUri, localPart);
+            }
+            return new QName(namespaceUri, localPart, prefix);
+        }
+
+        private static void writeString(DataOutput out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private static String readString(DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Get the location where this event was read, as far as it is tracked
+         *
+         * @return the {@link Location} of this event, or null when the location is not tracked
+         */
+        Location getLocation() {
+            if (this.location != null) {
+                return this.location;
+            }
+            if (this.lineNumber != UNKNOWN_POSITION) {
+                return new LineColumnLocation(this.lineNumber, this.columnNumber);
+            }
+            return null;
+        }
+
         @Override
         public String toString() {
             String data = text == null ? name.toString() : text;
@@ -792,48 +1749,129 @@ public class RecordAndPlaybackXMLStreamReader implements XMLStreamConstants {
 
     }
 
+    /**
+     * A memoized outcome and the tape position up to which the xml was read to obtain it
+     */
+    private static final class MemoEntry {
+
+        private final long end;
+
+        private final Object outcome;
+
+        private MemoEntry(long end, Object outcome) {
+            this.end = end;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * A {@link Location} that only knows about line- and column number; it is created on demand for events that are read with
+     * {@link LocationTracking#LINE_COLUMN}
+     */
+    private static final class LineColumnLocation implements Location {
+
+        private final int lineNumber;
+
+        private final int columnNumber;
+
+        private LineColumnLocation(int lineNumber, int columnNumber) {
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return this.lineNumber;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return this.columnNumber;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+    }
+
     public static final class Marker {
 
         /**
-         * Pointer to the first recorded element since recording was started.
+         * Absolute position on the tape of the first event recorded since recording was started.
          */
-        private int indexIntoRecordingQueue = 0;
+        private final long position;
 
         /**
-         * The hasCode of the {@link ParseEventData} that preceeds the element that the indexIntoRecordingQueue points to
+         * Identifies this marker on the marker stack of the reader; a marker is obsolete once it's generation has been popped
          */
-        private final int hashCode;
+        private final long generation;
+
+        /**
+         * The index of this marker on the marker stack of the reader
+         */
+        private final int depth;
 
         /**
          * The currentEvent at the time the marking was set
          */
         private final ParseEventData currentEvent;
 
-        private Marker(int recordingQueueSize, int hashCode, ParseEventData current) {
-            this.hashCode = hashCode;
-            this.indexIntoRecordingQueue = recordingQueueSize;
+        private Marker(long position, long generation, int depth, ParseEventData current) {
+            this.position = position;
+            this.generation = generation;
+            this.depth = depth;
             this.currentEvent = current;
         }
 
+        /**
+         * @return the absolute position on the tape of the first event recorded since this marker was set
+         */
+        public long getPosition() {
+            return this.position;
+        }
+
+        /**
+         * @return the position of this marker, capped at {@link Integer#MAX_VALUE}
+         * @deprecated the tape of a reader can hold more events than fit in an int; use {@link #getPosition()}
+         */
+        @Deprecated
         public int markedAt() {
-            return this.indexIntoRecordingQueue;
+            return (int) Math.min(this.position, Integer.MAX_VALUE);
         }
 
-        private int getHashCode() {
-            return hashCode;
+        /**
+         * @return true when this marker is not nested in another recording
+         */
+        public boolean isAtHead() {
+            return this.depth == 0;
         }
 
-        private ParseEventData getCurrentEvent() {
-            return this.currentEvent;
+        private long getGeneration() {
+            return this.generation;
         }
 
-        public boolean isAtHead() {
-            return this.indexIntoRecordingQueue == 0;
+        private int getDepth() {
+            return this.depth;
+        }
+
+        private ParseEventData getCurrentEvent() {
+            return this.currentEvent;
         }
 
         @Override
         public String toString() {
-            return String.format("Marker[indexIntoRecordingQueue=%d, hashcode=%d]", indexIntoRecordingQueue, hashCode);
+            return String.format("Marker[position=%d, generation=%d]", position, generation);
         }
     }
 
@@ -0,0 +1,92 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.io.File;
+
+/**
+ * <p>
+ * The amount of heap memory the {@link RecordAndPlaybackXMLStreamReader} may use to keep recorded parse events. When a recording
+ * outgrows the budget, e.g. because a large subtree is read while a {@link RecordAndPlaybackXMLStreamReader.Marker} is held, the
+ * oldest recorded events are moved to a temporary file, and read back from there when they are played back.</p>
+ * <p>
+ * The memory used by parse events is estimated from the length of their names, texts and attribute values; the budget is
+ * therefore not an exact limit on the heap that is used. Instances of this class are immutable.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class RecordingBudget {
+
+    /**
+     * Keep all recorded events in memory, no matter how many there are
+     */
+    public static final RecordingBudget UNLIMITED = new RecordingBudget(Long.MAX_VALUE, null);
+
+    private final long maxMemory;
+
+    private final File spillDirectory;
+
+    private RecordingBudget(long maxMemory, File spillDirectory) {
+        this.maxMemory = maxMemory;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Create a budget that moves recorded events to a temporary file in the default temporary-file directory, once they take
+     * more than the given amount of memory.
+     *
+     * @param maxMemory the estimated number of bytes that recorded events may use on the heap
+     * @return a new {@link RecordingBudget}
+     */
+    public static RecordingBudget of(long maxMemory) {
+        return of(maxMemory, null);
+    }
+
+    /**
+     * Create a budget that moves recorded events to a temporary file in the given directory, once they take more than the given
+     * amount of memory.
+     *
+     * @param maxMemory the estimated number of bytes that recorded events may use on the heap
+     * @param spillDirectory the directory to create the temporary file in, or null to use the default temporary-file directory
+     * @return a new {@link RecordingBudget}
+     */
+    public static RecordingBudget of(long maxMemory, File spillDirectory) {
+        if (maxMemory <= 0) {
+            throw new IllegalArgumentException(String.format("Memory budget must be positive: %d", maxMemory));
+        }
+        return new RecordingBudget(maxMemory, spillDirectory);
+    }
+
+    public long getMaxMemory() {
+        return this.maxMemory;
+    }
+
+    public File getSpillDirectory() {
+        return this.spillDirectory;
+    }
+
+    public boolean isUnlimited() {
+        return this.maxMemory == Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        if (isUnlimited()) {
+            return "RecordingBudget[unlimited]";
+        }
+        return String.format("RecordingBudget[maxMemory=%d, spillDirectory=%s]", maxMemory, spillDirectory);
+    }
+
+}
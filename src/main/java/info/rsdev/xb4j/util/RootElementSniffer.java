@@ -0,0 +1,253 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * <p>
+ * Determine the name of the root element of an xml document from it's first bytes, without a parser: the prolog (xml
+ * declaration, comments, processing instructions and document type declaration) is skipped and the first start tag is read,
+ * including the namespace declarations on it. This is much cheaper than starting to parse the document, and allows to choose the
+ * binding for a document before it is parsed once.</p>
+ * <p>
+ * The document must be in an encoding that is compatible with US-ASCII, e.g. UTF-8 or ISO-8859-1. When the root element can not
+ * be determined from the bytes, e.g. because the first start tag is not complete, null is returned, and the document must be
+ * parsed to find out.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class RootElementSniffer {
+
+    /**
+     * The number of bytes that is usually enough to find the root element
+     */
+    public static final int DEFAULT_SNIFF_SIZE = 1024;
+
+    private static final Pattern ENCODING_DECLARATION = Pattern.compile("\\sencoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private RootElementSniffer() {
+    }
+
+    /**
+     * Determine the name of the root element from the first bytes of an xml document
+     *
+     * @param xml the bytes that contain the start of the document
+     * @param offset the index of the first byte of the document
+     * @param length the number of bytes available
+     * @return the name of the root element, or null when it can not be determined from the bytes
+     */
+    public static QName sniff(byte[] xml, int offset, int length) {
+        if (xml == null) {
+            throw new NullPointerException("Byte array cannot be null");
+        }
+        int end = offset + length;
+        int index = offset;
+        if ((length >= 3) && ((xml[index] & 0xFF) == 0xEF) && ((xml[index + 1] & 0xFF) == 0xBB)
+                && ((xml[index + 2] & 0xFF) == 0xBF)) {
+            index += 3; // byte order mark
+        } else if ((length >= 2) && ((xml[index] == 0) || (xml[index + 1] == 0) || ((xml[index] & 0xFF) >= 0xFE))) {
+            return null; // UTF-16 or UTF-32
+        }
+        Charset charset = StandardCharsets.UTF_8;
+        while (true) {
+            index = skipWhitespace(xml, index, end);
+            if ((index + 1 >= end) || (xml[index] != '<')) {
+                return null;
+            }
+            byte next = xml[index + 1];
+            if (next == '?') {
+                int close = indexOf(xml, index, end, "?>");
+                if (close < 0) {
+                    return null;
+                }
+                String instruction = new String(xml, index, close - index, StandardCharsets.ISO_8859_1);
+                if (instruction.startsWith("<?xml ")) {
+                    charset = declaredCharset(instruction);
+                    if (charset == null) {
+                        return null;
+                    }
+                }
+                index = close + 2;
+            } else if (next == '!') {
+                if (startsWith(xml, index, end, "<!--")) {
+                    int close = indexOf(xml, index + 4, end, "-->");
+                    if (close < 0) {
+                        return null;
+                    }
+                    index = close + 3;
+                } else {
+                    index = skipDoctype(xml, index, end);
+                    if (index < 0) {
+                        return null;
+                    }
+                }
+            } else {
+                return readStartTag(xml, index + 1, end, charset);
+            }
+        }
+    }
+
+    /**
+     * Read the name and the namespace declarations of the start tag, and resolve the name
+     */
+    private static QName readStartTag(byte[] xml, int index, int end, Charset charset) {
+        int nameStart = index;
+        index = skipName(xml, index, end);
+        if ((index >= end) || (index == nameStart)) {
+            return null;
+        }
+        String qualifiedName = new String(xml, nameStart, index - nameStart, charset);
+        Map<String, String> namespaces = new HashMap<>();
+        while (true) {
+            index = skipWhitespace(xml, index, end);
+            if (index >= end) {
+                return null;
+            }
+            if ((xml[index] == '>') || (xml[index] == '/')) {
+                break;
+            }
+            int attributeStart = index;
+            index = skipName(xml, index, end);
+            if (index == attributeStart) {
+                return null;
+            }
+            String attribute = new String(xml, attributeStart, index - attributeStart, charset);
+            index = skipWhitespace(xml, index, end);
+            if ((index >= end) || (xml[index] != '=')) {
+                return null;
+            }
+            index = skipWhitespace(xml, index + 1, end);
+            if ((index >= end) || ((xml[index] != '"') && (xml[index] != '\''))) {
+                return null;
+            }
+            int valueStart = index + 1;
+            index = indexOf(xml, valueStart, end, xml[index] == '"' ? "\"" : "'");
+            if (index < 0) {
+                return null;
+            }
+            if (attribute.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+                namespaces.put(XMLConstants.DEFAULT_NS_PREFIX, new String(xml, valueStart, index - valueStart, charset));
+            } else if (attribute.startsWith("xmlns:")) {
+                namespaces.put(attribute.substring(6), new String(xml, valueStart, index - valueStart, charset));
+            }
+            index++;
+        }
+        int colon = qualifiedName.indexOf(':');
+        String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : qualifiedName.substring(0, colon);
+        String localName = qualifiedName.substring(colon + 1);
+        String namespaceUri = namespaces.get(prefix);
+        if (namespaceUri == null) {
+            if (!prefix.isEmpty()) {
+                return null; // unbound prefix; let the parser report it
+            }
+            namespaceUri = XMLConstants.NULL_NS_URI;
+        }
+        return new QName(namespaceUri, localName, prefix);
+    }
+
+    private static Charset declaredCharset(String declaration) {
+        Matcher matcher = ENCODING_DECLARATION.matcher(declaration);
+        if (!matcher.find()) {
+            return StandardCharsets.UTF_8;
+        }
+        String encoding = matcher.group(1).trim().toUpperCase(Locale.ROOT);
+        if (encoding.startsWith("UTF-16") || encoding.startsWith("UTF-32") || encoding.startsWith("UCS")) {
+            return null;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Skip a document type declaration, including an internal subset
+     *
+     * @return the index after the declaration, or -1 when it does not end in the bytes
+     */
+    private static int skipDoctype(byte[] xml, int index, int end) {
+        int brackets = 0;
+        byte quote = 0;
+        for (int i = index + 2; i < end; i++) {
+            byte b = xml[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if ((b == '"') || (b == '\'')) {
+                quote = b;
+            } else if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if ((b == '>') && (brackets == 0)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipName(byte[] xml, int index, int end) {
+        while ((index < end) && !isWhitespace(xml[index]) && (xml[index] != '>') && (xml[index] != '/')
+                && (xml[index] != '=')) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipWhitespace(byte[] xml, int index, int end) {
+        while ((index < end) && isWhitespace(xml[index])) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return (b == ' ') || (b == '\t') || (b == '\r') || (b == '\n');
+    }
+
+    private static boolean startsWith(byte[] xml, int index, int end, String ascii) {
+        if (index + ascii.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (xml[index + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] xml, int from, int end, String ascii) {
+        for (int i = from; i <= end - ascii.length(); i++) {
+            if (startsWith(xml, i, end, ascii)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
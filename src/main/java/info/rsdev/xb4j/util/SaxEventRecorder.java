@@ -0,0 +1,132 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <p>
+ * A SAX {@link org.xml.sax.ContentHandler} that captures the events it receives in the event model of xb4j, so that SAX events can
+ * be unmarshalled without serializing them to bytes and parsing them again: pass the {@link #getEvents() events} to
+ * {@link XmlStreamFactory#makeTokenizer(List)} or {@link info.rsdev.xb4j.model.XmlStreamer#toJava(List)}. Adjacent character
+ * events are joined. The SAX source should report namespaces; when it does not, the qualified name is used as local name.</p>
+ * <p>
+ * A recorder can capture one document at a time; it is cleared at the start of every document. This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public class SaxEventRecorder extends DefaultHandler {
+
+    private final List<ParseEventData> events = new ArrayList<>();
+
+    private final StringBuilder text = new StringBuilder();
+
+    private Locator locator = null;
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startDocument() {
+        events.clear();
+        text.setLength(0);
+    }
+
+    @Override
+    public void endDocument() {
+        flushText();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        flushText();
+        List<QName> names = new ArrayList<>(attributes.getLength());
+        List<String> values = new ArrayList<>(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String attributeName = attributes.getQName(i);
+            if (!attributeName.equals(XMLConstants.XMLNS_ATTRIBUTE) && !attributeName.startsWith("xmlns:")) {
+                names.add(toQName(attributes.getURI(i), attributes.getLocalName(i), attributeName));
+                values.add(attributes.getValue(i));
+            }
+        }
+        add(XMLStreamConstants.START_ELEMENT, toQName(uri, localName, qName), null, names.toArray(new QName[names.size()]),
+                values.toArray(new String[values.size()]));
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        flushText();
+        add(XMLStreamConstants.END_ELEMENT, toQName(uri, localName, qName), null, null, null);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+    }
+
+    private void flushText() {
+        if (text.length() > 0) {
+            add(XMLStreamConstants.CHARACTERS, null, text.toString(), null, null);
+            text.setLength(0);
+        }
+    }
+
+    private void add(int eventType, QName name, String value, QName[] attributeNames, String[] attributeValues) {
+        int lineNumber = locator == null ? -1 : locator.getLineNumber();
+        int columnNumber = locator == null ? -1 : locator.getColumnNumber();
+        events.add(ParseEventData.newEventData(eventType, name, value, attributeNames, attributeValues, lineNumber,
+                columnNumber));
+    }
+
+    private static QName toQName(String uri, String localName, String qualifiedName) {
+        if ((localName == null) || localName.isEmpty()) { // namespaces are not reported
+            return new QName(qualifiedName);
+        }
+        int colon = qualifiedName.indexOf(':');
+        String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : qualifiedName.substring(0, colon);
+        return new QName(uri == null ? XMLConstants.NULL_NS_URI : uri, localName, prefix);
+    }
+
+    /**
+     * Get the events that are captured
+     *
+     * @return an unmodifiable view on the events of the last document
+     */
+    public List<ParseEventData> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SaxEventRecorder[events=%d]", events.size());
+    }
+
+}
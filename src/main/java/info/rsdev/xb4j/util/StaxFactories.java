@@ -0,0 +1,278 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * The configured StAX factories that the {@link XMLStreamReader}s and {@link XMLStreamWriter}s are created with. The factories are
+ * looked up and configured once, on first use, and then shared: looking up a StAX implementation and creating a factory for every
+ * document is a considerable fixed cost when many small documents are read or written.</p>
+ * <p>
+ * Start with {@link #DEFAULT} and set the properties that apply, e.g.
+ * <code>StaxFactories.DEFAULT.withCoalescing(true).withSupportDtd(false)</code>. Properties that are not set keep the default of
+ * the StAX implementation. Implementation specific properties, e.g. buffer sizes, are set with
+ * {@link #withInputProperty(String, Object)} and {@link #withOutputProperty(String, Object)}; they are skipped when the
+ * implementation does not support them.</p>
+ * <p>
+ * The StAX implementation is found with the standard lookup of {@link XMLInputFactory#newInstance()} and
+ * {@link XMLOutputFactory#newInstance()}, which already prefers an implementation on the classpath, such as Woodstox or Aalto,
+ * over the one of the JDK.</p>
+ * <p>
+ * Instances of this class are immutable and threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class StaxFactories {
+
+    /**
+     * The factories with the default properties of the StAX implementation
+     */
+    public static final StaxFactories DEFAULT = new StaxFactories(Collections.<String, Object>emptyMap(),
+            Collections.<String, Object>emptyMap());
+
+    private static final Logger logger = LoggerFactory.getLogger(StaxFactories.class);
+
+    private final Map<String, Object> inputProperties;
+
+    private final Map<String, Object> outputProperties;
+
+    private volatile XMLInputFactory inputFactory = null;
+
+    private volatile XMLOutputFactory outputFactory = null;
+
+    private StaxFactories(Map<String, Object> inputProperties, Map<String, Object> outputProperties) {
+        this.inputProperties = inputProperties;
+        this.outputProperties = outputProperties;
+    }
+
+    /**
+     * @param coalescing true to report adjacent text, including CDATA sections, as one event
+     * @return a copy of these factories with the given coalescing property
+     */
+    public StaxFactories withCoalescing(boolean coalescing) {
+        return withInputProperty(XMLInputFactory.IS_COALESCING, coalescing);
+    }
+
+    /**
+     * @param namespaceAware true to process namespaces
+     * @return a copy of these factories with the given namespace awareness
+     */
+    public StaxFactories withNamespaceAware(boolean namespaceAware) {
+        return withInputProperty(XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware);
+    }
+
+    /**
+     * @param supportDtd true to process document type declarations; false to protect against entity expansion attacks
+     * @return a copy of these factories with the given DTD support
+     */
+    public StaxFactories withSupportDtd(boolean supportDtd) {
+        return withInputProperty(XMLInputFactory.SUPPORT_DTD, supportDtd);
+    }
+
+    /**
+     * @param replacingEntityReferences true to replace internal entity references by their replacement text
+     * @return a copy of these factories with the given entity replacement
+     */
+    public StaxFactories withReplacingEntityReferences(boolean replacingEntityReferences) {
+        return withInputProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, replacingEntityReferences);
+    }
+
+    /**
+     * @param supportingExternalEntities true to resolve external parsed entities
+     * @return a copy of these factories with the given external entity support
+     */
+    public StaxFactories withSupportingExternalEntities(boolean supportingExternalEntities) {
+        return withInputProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, supportingExternalEntities);
+    }
+
+    /**
+     * @param repairingNamespaces true to let the writers declare the namespaces that are used
+     * @return a copy of these factories with the given namespace repairing
+     */
+    public StaxFactories withRepairingNamespaces(boolean repairingNamespaces) {
+        return withOutputProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, repairingNamespaces);
+    }
+
+    /**
+     * @param name the name of a property of the {@link XMLInputFactory}, standard or implementation specific
+     * @param value the value of the property
+     * @return a copy of these factories with the given input property
+     */
+    public StaxFactories withInputProperty(String name, Object value) {
+        return new StaxFactories(with(inputProperties, name, value), outputProperties);
+    }
+
+    /**
+     * @param name the name of a property of the {@link XMLOutputFactory}, standard or implementation specific
+     * @param value the value of the property
+     * @return a copy of these factories with the given output property
+     */
+    public StaxFactories withOutputProperty(String name, Object value) {
+        return new StaxFactories(inputProperties, with(outputProperties, name, value));
+    }
+
+    private static Map<String, Object> with(Map<String, Object> properties, String name, Object value) {
+        if (name == null) {
+            throw new NullPointerException("Property name cannot be null");
+        }
+        if (value == null) {
+            throw new NullPointerException(String.format("Value of property %s cannot be null", name));
+        }
+        Map<String, Object> copy = new LinkedHashMap<>(properties);
+        copy.put(name, value);
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Get the {@link XMLInputFactory}, that is created and configured on first use
+     *
+     * @return the shared input factory
+     */
+    public XMLInputFactory getInputFactory() {
+        XMLInputFactory factory = inputFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = inputFactory;
+                if (factory == null) {
+                    factory = newInputFactory();
+                    inputFactory = factory;
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Get the {@link XMLOutputFactory}, that is created and configured on first use
+     *
+     * @return the shared output factory
+     */
+    public XMLOutputFactory getOutputFactory() {
+        XMLOutputFactory factory = outputFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = outputFactory;
+                if (factory == null) {
+                    factory = newOutputFactory();
+                    outputFactory = factory;
+                }
+            }
+        }
+        return factory;
+    }
+
+    private XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        for (Map.Entry<String, Object> property : inputProperties.entrySet()) {
+            if (factory.isPropertySupported(property.getKey())) {
+                factory.setProperty(property.getKey(), property.getValue());
+            } else {
+                logger.debug(String.format("%s does not support property %s", factory.getClass().getName(), property.getKey()));
+            }
+        }
+        return factory;
+    }
+
+    private XMLOutputFactory newOutputFactory() {
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        for (Map.Entry<String, Object> property : outputProperties.entrySet()) {
+            if (factory.isPropertySupported(property.getKey())) {
+                factory.setProperty(property.getKey(), property.getValue());
+            } else {
+                logger.debug(String.format("%s does not support property %s", factory.getClass().getName(), property.getKey()));
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * @return a new XMLStreamReader that is created by the shared factory
+     */
+    public XMLStreamReader createReader(InputStream stream) {
+        try {
+            return getInputFactory().createXMLStreamReader(stream);
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Cannot create XMLStreamReader", e);
+        }
+    }
+
+    /**
+     * @return a new XMLStreamReader that is created by the shared factory
+     */
+    public XMLStreamReader createReader(Reader reader) {
+        try {
+            return getInputFactory().createXMLStreamReader(reader);
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Cannot create XMLStreamReader", e);
+        }
+    }
+
+    /**
+     * @return a new XMLStreamWriter that is created by the shared factory
+     */
+    public XMLStreamWriter createWriter(OutputStream stream) {
+        try {
+            return getOutputFactory().createXMLStreamWriter(stream);
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Cannot create XMLStreamWriter", e);
+        }
+    }
+
+    /**
+     * @param stream the stream to write the encoded xml to
+     * @param encoding the name of the character encoding, e.g. "UTF-8"
+     * @return a new XMLStreamWriter that is created by the shared factory and encodes the xml with the given encoding
+     */
+    public XMLStreamWriter createWriter(OutputStream stream, String encoding) {
+        try {
+            return getOutputFactory().createXMLStreamWriter(stream, encoding);
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Cannot create XMLStreamWriter", e);
+        }
+    }
+
+    /**
+     * @return a new XMLStreamWriter that is created by the shared factory
+     */
+    public XMLStreamWriter createWriter(Writer writer) {
+        try {
+            return getOutputFactory().createXMLStreamWriter(writer);
+        } catch (XMLStreamException e) {
+            throw new Xb4jException("Cannot create XMLStreamWriter", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StaxFactories[input=%s, output=%s]", inputProperties, outputProperties);
+    }
+
+}
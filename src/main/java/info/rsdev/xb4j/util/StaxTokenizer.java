@@ -0,0 +1,124 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An {@link XmlTokenizer} that reads the xml stream with an {@link XMLStreamReader}. This supports everything the
+ * {@link XMLStreamReader} supports, e.g. any character encoding and DTD's.
+ *
+ * @author Dave Schoorl
+ */
+final class StaxTokenizer implements XmlTokenizer {
+
+    private final XMLStreamReader staxReader;
+
+    StaxTokenizer(XMLStreamReader staxReader) {
+        if (staxReader == null) {
+            throw new NullPointerException("XMLStreamReader cannot be null");
+        }
+        this.staxReader = staxReader;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        return staxReader.next();
+    }
+
+    @Override
+    public QName getName() {
+        return staxReader.getName();
+    }
+
+    @Override
+    public String getLocalName() {
+        return staxReader.getLocalName();
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return staxReader.getNamespaceURI();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return staxReader.getAttributeCount();
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return staxReader.getAttributeName(index);
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return staxReader.getAttributeNamespace(index);
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return staxReader.getAttributeLocalName(index);
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return staxReader.getAttributeValue(index);
+    }
+
+    @Override
+    public String getText() {
+        return staxReader.getText();
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        return staxReader.getTextCharacters();
+    }
+
+    @Override
+    public int getTextStart() {
+        return staxReader.getTextStart();
+    }
+
+    @Override
+    public int getTextLength() {
+        return staxReader.getTextLength();
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        return staxReader.getTextCharacters(sourceStart, target, targetStart, length);
+    }
+
+    @Override
+    public Location getLocation() {
+        return staxReader.getLocation();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        staxReader.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StaxTokenizer[%s]", staxReader.getClass().getName());
+    }
+
+}
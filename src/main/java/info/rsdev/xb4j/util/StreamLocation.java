@@ -0,0 +1,79 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import javax.xml.stream.Location;
+
+/**
+ * An immutable {@link Location} in an xml stream, for {@link XmlTokenizer} implementations that do not get their location from an
+ * {@link javax.xml.stream.XMLStreamReader}
+ *
+ * @author Dave Schoorl
+ */
+final class StreamLocation implements Location {
+
+    private final int lineNumber;
+
+    private final int columnNumber;
+
+    private final long characterOffset;
+
+    private final String publicId;
+
+    private final String systemId;
+
+    StreamLocation(int lineNumber, int columnNumber, long characterOffset) {
+        this(lineNumber, columnNumber, characterOffset, null, null);
+    }
+
+    StreamLocation(int lineNumber, int columnNumber, long characterOffset, String publicId, String systemId) {
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+        this.characterOffset = characterOffset;
+        this.publicId = publicId;
+        this.systemId = systemId;
+    }
+
+    @Override
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+
+    @Override
+    public int getCharacterOffset() {
+        return characterOffset > Integer.MAX_VALUE ? -1 : (int) characterOffset;
+    }
+
+    @Override
+    public String getPublicId() {
+        return publicId;
+    }
+
+    @Override
+    public String getSystemId() {
+        return systemId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Line number = %d%nColumn number = %d", lineNumber, columnNumber);
+    }
+
+}
@@ -0,0 +1,196 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A temporary file that holds the oldest part of the recordings of a {@link RecordAndPlaybackXMLStreamReader}, when the recordings
+ * outgrow their {@link RecordingBudget}. The file holds the parse events of a contiguous range of tape positions; events are
+ * appended at the end of the range and read back by their position.</p>
+ * <p>
+ * This class is not threadsafe; it is used by a single {@link RecordAndPlaybackXMLStreamReader} only.</p>
+ *
+ * @author Dave Schoorl
+ */
+final class TapeSpillFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(TapeSpillFile.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final RandomAccessFile content;
+
+    /**
+     * The tape position of the first event in the file
+     */
+    private long start = 0;
+
+    /**
+     * The number of events in the file; offsets[i] is the file offset of the event at tape position start + i
+     */
+    private int count = 0;
+
+    private long[] offsets = new long[1024];
+
+    /**
+     * The number of bytes that is written to the file; events that are appended after that, are still in the write buffer
+     */
+    private long fileLength = 0;
+
+    private final ExposedByteArrayOutputStream writeBuffer = new ExposedByteArrayOutputStream(BUFFER_SIZE);
+
+    private final DataOutputStream writer = new DataOutputStream(writeBuffer);
+
+    private final byte[] readBuffer = new byte[BUFFER_SIZE];
+
+    private long readBufferOffset = 0;
+
+    private int readBufferLength = 0;
+
+    TapeSpillFile(File directory) throws IOException {
+        this.file = File.createTempFile("xb4j-recording", ".tape", directory);
+        this.content = new RandomAccessFile(this.file, "rw");
+    }
+
+    boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    /**
+     * @return the tape position after the last event in this file
+     */
+    long getEnd() {
+        return this.start + this.count;
+    }
+
+    /**
+     * Add the event at the given tape position to the end of this file
+     */
+    void append(long position, ParseEventData eventData) throws IOException {
+        if (isEmpty()) {
+            this.start = position;
+        } else if (position != getEnd()) {
+            throw new IllegalStateException(String.format("Expected to append tape position %d, but got %d", getEnd(), position));
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[count++] = fileLength + writeBuffer.size();
+        eventData.writeTo(writer);
+        if (writeBuffer.size() >= BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the events that are appended to this file, but that are still buffered, to disk
+     */
+    void flush() throws IOException {
+        if (writeBuffer.size() > 0) {
+            content.seek(fileLength);
+            content.write(writeBuffer.buffer(), 0, writeBuffer.size());
+            fileLength += writeBuffer.size();
+            writeBuffer.reset();
+        }
+    }
+
+    /**
+     * Read the event at the given tape position back from this file
+     *
+     * @param position the tape position of the event
+     * @param symbolTable the table to intern the names of the event with, or null to create new names
+     * @return the event that was appended at the given position
+     */
+    ParseEventData read(long position, QNameTable symbolTable) throws IOException {
+        if ((position < start) || (position >= getEnd())) {
+            throw new IllegalStateException(String.format("Tape position %d is not in this file [%d, %d)", position, start,
+                    getEnd()));
+        }
+        flush();
+        int index = (int) (position - start);
+        long offset = offsets[index];
+        long end = (index + 1 < count) ? offsets[index + 1] : fileLength;
+        int length = (int) (end - offset);
+        byte[] source = readBuffer;
+        int sourceOffset;
+        if ((offset >= readBufferOffset) && (end <= readBufferOffset + readBufferLength)) {
+            sourceOffset = (int) (offset - readBufferOffset);
+        } else if (length <= readBuffer.length) {
+            // read ahead, because events are mostly played back in the order they are recorded
+            readBufferOffset = offset;
+            readBufferLength = (int) Math.min(readBuffer.length, fileLength - offset);
+            content.seek(offset);
+            content.readFully(readBuffer, 0, readBufferLength);
+            sourceOffset = 0;
+        } else {
+            source = new byte[length];
+            content.seek(offset);
+            content.readFully(source);
+            sourceOffset = 0;
+        }
+        return ParseEventData.readFrom(new DataInputStream(new ByteArrayInputStream(source, sourceOffset, length)), symbolTable);
+    }
+
+    /**
+     * Forget all events in this file; the file will be overwritten by the events that are appended next
+     */
+    void clear() {
+        this.count = 0;
+        this.fileLength = 0;
+        this.readBufferLength = 0;
+        this.writeBuffer.reset();
+    }
+
+    /**
+     * Close and delete this file
+     */
+    void close() {
+        clear();
+        try {
+            content.close();
+        } catch (IOException e) {
+            logger.warn(String.format("Could not close temporary file %s", file), e);
+        }
+        if (!file.delete()) {
+            logger.warn(String.format("Could not delete temporary file %s", file));
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        private byte[] buffer() {
+            return this.buf;
+        }
+    }
+
+}
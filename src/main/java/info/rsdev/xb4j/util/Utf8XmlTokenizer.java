@@ -0,0 +1,1121 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * <p>
+ * An {@link XmlTokenizer} that reads UTF-8 encoded xml directly from the bytes of an {@link InputStream}. It supports the subset of
+ * xml that is used to exchange data: elements, attributes, namespaces, text, CDATA sections, character references and the
+ * predefined entities. Comments and processing instructions are skipped. Documents with a document type declaration, or in another
+ * encoding than UTF-8 (or US-ASCII), are rejected with an {@link XMLStreamException}; use
+ * {@link XmlStreamFactory#makeTokenizer(InputStream)} to fall back to a full StAX parser for those.</p>
+ * <p>
+ * Element names, attribute names and namespace prefixes are decoded once and then looked up by their bytes, so that reading a tag
+ * does not create Strings for names that were read before. Text is decoded into a reusable char array.</p>
+ * <p>
+ * Columns in the {@link Location} of an event are counted in bytes. Like {@link javax.xml.stream.XMLStreamReader}, closing this
+ * tokenizer does not close the {@link InputStream}. This class is not threadsafe.</p>
+ *
+ * @author Dave Schoorl
+ */
+public final class Utf8XmlTokenizer implements XmlTokenizer, XMLStreamConstants {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private InputStream stream;
+
+    private byte[] buffer;
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    /**
+     * The number of bytes read from the stream before the start of the {@link #buffer}
+     */
+    private long bufferOffset = 0;
+
+    private int lineNumber = 1;
+
+    private long lineOffset = 0;
+
+    private int eventType = START_DOCUMENT;
+
+    private int eventLine = 1;
+
+    private int eventColumn = 1;
+
+    private long eventOffset = 0;
+
+    /**
+     * The element names and the namespace uris of the open elements, by depth; the current element is at depth - 1
+     */
+    private String[] elementPrefixes = new String[16];
+
+    private String[] elementLocalNames = new String[16];
+
+    private String[] elementNamespaces = new String[16];
+
+    /**
+     * The number of namespace declarations in scope when the element at a depth was started
+     */
+    private int[] namespaceMarks = new int[16];
+
+    private int depth = 0;
+
+    private boolean rootRead = false;
+
+    /**
+     * Whether the stream holds concatenated documents, so that the end of the root element is the end of the document
+     */
+    private boolean multiDocument = false;
+
+    /**
+     * The offset in the stream where the current document starts
+     */
+    private long documentOffset = 0;
+
+    /**
+     * Whether the current start element is an empty element tag, for which an end element event is reported next
+     */
+    private boolean emptyElement = false;
+
+    private QName name = null;
+
+    private String[] namespacePrefixes = new String[8];
+
+    private String[] namespaceUris = new String[8];
+
+    private int namespaceCount = 0;
+
+    private String[] attributePrefixes = new String[8];
+
+    private String[] attributeLocalNames = new String[8];
+
+    private String[] attributeNamespaces = new String[8];
+
+    private String[] attributeValues = new String[8];
+
+    private int attributeCount = 0;
+
+    private char[] text = new char[256];
+
+    private int textLength = 0;
+
+    /**
+     * The bytes of the name that is read last, and the number of bytes in it
+     */
+    private byte[] nameBytes = new byte[64];
+
+    private int nameLength = 0;
+
+    private final NameCache names = new NameCache();
+
+    /**
+     * Create a new {@link Utf8XmlTokenizer}. The {@link InputStream} does not need to be buffered.
+     *
+     * @param stream the stream of UTF-8 encoded xml
+     * @throws XMLStreamException when the stream is not UTF-8 encoded
+     */
+    public Utf8XmlTokenizer(InputStream stream) throws XMLStreamException {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new {@link Utf8XmlTokenizer} that reads the stream in blocks of the given size. Use a small buffer for small
+     * documents that are already in memory.
+     *
+     * @param stream the stream of UTF-8 encoded xml
+     * @param bufferSize the number of bytes that is read from the stream at once
+     * @throws XMLStreamException when the stream is not UTF-8 encoded
+     */
+    public Utf8XmlTokenizer(InputStream stream, int bufferSize) throws XMLStreamException {
+        if (stream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException(String.format("Buffer size must be at least 16 bytes: %d", bufferSize));
+        }
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+        readByteOrderMark();
+    }
+
+    private void readByteOrderMark() throws XMLStreamException {
+        if (!ensure(2)) {
+            return; // let next() report the missing root element
+        }
+        if (((buffer[0] & 0xFF) == 0xEF) && ensure(3) && ((buffer[1] & 0xFF) == 0xBB) && ((buffer[2] & 0xFF) == 0xBF)) {
+            position = 3; // byte order mark
+        } else if ((buffer[0] == 0) || (buffer[1] == 0) || ((buffer[0] & 0xFF) >= 0xFE)) {
+            throw new XMLStreamException("Only UTF-8 encoded xml can be tokenized; found a UTF-16 or UTF-32 encoded stream");
+        }
+    }
+
+    /**
+     * Start reading a new stream, reusing the buffers and the decoded names of this tokenizer. The previous stream is not closed.
+     *
+     * @param stream the stream of UTF-8 encoded xml
+     * @throws XMLStreamException when the stream is not UTF-8 encoded
+     */
+    public void reset(InputStream stream) throws XMLStreamException {
+        if (stream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        this.stream = stream;
+        this.position = 0;
+        this.limit = 0;
+        this.bufferOffset = 0;
+        this.lineNumber = 1;
+        this.lineOffset = 0;
+        resetDocument();
+        readByteOrderMark();
+    }
+
+    /**
+     * Indicate whether the stream holds concatenated documents. When it does, {@link #next()} reports the end of the document
+     * directly after the end of the root element, without reading further from the stream, and {@link #nextDocument()} moves on to
+     * the next document.
+     *
+     * @param multiDocument true when the stream holds concatenated documents
+     */
+    public void setMultiDocument(boolean multiDocument) {
+        this.multiDocument = multiDocument;
+    }
+
+    /**
+     * Move on to the next document in the stream, when the previous document is read up to the end, or before the first document.
+     * This reads from the stream until the start of the next document or the end of the stream is found.
+     *
+     * @return true when there is another document, false at the end of the stream
+     * @throws XMLStreamException when the stream could not be read
+     */
+    public boolean nextDocument() throws XMLStreamException {
+        boolean rootEnded = (eventType == END_ELEMENT) && (depth == 1) && !emptyElement;
+        if ((eventType != START_DOCUMENT) && (eventType != END_DOCUMENT) && !rootEnded) {
+            throw new IllegalStateException("The current document is not read up to the end");
+        }
+        if (stream == null) {
+            return false;
+        }
+        resetDocument();
+        skipWhitespace();
+        documentOffset = bufferOffset + position;
+        return peekByte() >= 0;
+    }
+
+    private void resetDocument() {
+        this.eventType = START_DOCUMENT;
+        this.depth = 0;
+        this.rootRead = false;
+        this.emptyElement = false;
+        this.name = null;
+        this.namespaceCount = 0;
+        this.attributeCount = 0;
+        this.textLength = 0;
+        this.documentOffset = bufferOffset + position;
+    }
+
+    /**
+     * Check whether the first bytes of an xml stream can be read by a {@link Utf8XmlTokenizer}: the stream is UTF-8 (or US-ASCII)
+     * encoded and the start of the first element is found before a document type declaration.
+     *
+     * @param prolog the first bytes of the stream
+     * @param length the number of bytes in the prolog
+     * @return true when the document can be tokenized, false when it is not known or when it can not
+     */
+    public static boolean canTokenize(byte[] prolog, int length) {
+        int index = 0;
+        if ((length >= 3) && ((prolog[0] & 0xFF) == 0xEF) && ((prolog[1] & 0xFF) == 0xBB) && ((prolog[2] & 0xFF) == 0xBF)) {
+            index = 3;
+        }
+        if ((length - index >= 2) && ((prolog[index] == 0) || (prolog[index + 1] == 0) || ((prolog[index] & 0xFF) >= 0xFE))) {
+            return false;
+        }
+        while (index < length) {
+            int start = indexOf(prolog, length, index, "<");
+            if ((start < 0) || (start + 1 >= length)) {
+                return false;
+            }
+            byte marker = prolog[start + 1];
+            if (marker == '?') {
+                int end = indexOf(prolog, length, start, "?>");
+                if (end < 0) {
+                    return false;
+                }
+                String instruction = new String(prolog, start, end - start, StandardCharsets.ISO_8859_1);
+                if (instruction.startsWith("<?xml ") && !isSupportedEncoding(instruction)) {
+                    return false;
+                }
+                index = end + 2;
+            } else if (marker == '!') {
+                if (!startsWith(prolog, length, start, "<!--")) {
+                    return false; // document type declaration
+                }
+                int end = indexOf(prolog, length, start + 4, "-->");
+                if (end < 0) {
+                    return false;
+                }
+                index = end + 3;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSupportedEncoding(String xmlDeclaration) {
+        int index = xmlDeclaration.indexOf("encoding");
+        if (index < 0) {
+            return true;
+        }
+        int quote = index + "encoding".length();
+        while ((quote < xmlDeclaration.length()) && (xmlDeclaration.charAt(quote) != '"')
+                && (xmlDeclaration.charAt(quote) != '\'')) {
+            quote++;
+        }
+        int end = quote + 1 < xmlDeclaration.length() ? xmlDeclaration.indexOf(xmlDeclaration.charAt(quote), quote + 1) : -1;
+        if (end < 0) {
+            return false;
+        }
+        String encoding = xmlDeclaration.substring(quote + 1, end).trim().toUpperCase(Locale.ROOT);
+        return encoding.equals("UTF-8") || encoding.equals("UTF8") || encoding.equals("US-ASCII") || encoding.equals("ASCII");
+    }
+
+    private static int indexOf(byte[] bytes, int length, int from, String ascii) {
+        for (int i = from; i <= length - ascii.length(); i++) {
+            if (startsWith(bytes, length, i, ascii)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int from, String ascii) {
+        if (from + ascii.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[from + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (eventType == END_DOCUMENT) {
+            throw new XMLStreamException("Cannot read beyond the end of the document");
+        }
+        name = null;
+        if (emptyElement) {
+            emptyElement = false;
+            eventType = END_ELEMENT;
+            return eventType;
+        }
+        if (eventType == END_ELEMENT) {
+            depth--;
+            namespaceCount = namespaceMarks[depth];
+            if (multiDocument && (depth == 0)) {
+                eventType = END_DOCUMENT; // do not wait for input that belongs to the next document
+                return eventType;
+            }
+        }
+        attributeCount = 0;
+        textLength = 0;
+        while (true) {
+            markEvent();
+            int b = peekByte();
+            if (b < 0) {
+                if (depth > 0) {
+                    throw error(String.format("Unexpected end of document; element <%s> is not closed",
+                            qualifiedName(elementPrefixes[depth - 1], elementLocalNames[depth - 1])));
+                }
+                if (!rootRead) {
+                    throw error("The document has no root element");
+                }
+                eventType = END_DOCUMENT;
+                return eventType;
+            }
+            if (b != '<') {
+                if (depth == 0) {
+                    skipWhitespace();
+                    if ((peekByte() >= 0) && (peekByte() != '<')) {
+                        throw error("Content is not allowed outside the root element");
+                    }
+                    continue;
+                }
+                readText();
+                eventType = CHARACTERS;
+                return eventType;
+            }
+            position++;
+            b = readByte();
+            if (b == '/') {
+                readEndTag();
+                eventType = END_ELEMENT;
+                return eventType;
+            } else if (b == '?') {
+                skipProcessingInstruction(!rootRead && (eventOffset <= documentOffset + 3));
+            } else if (b == '!') {
+                b = readByte();
+                if ((b == '-') && (readByte() == '-')) {
+                    skipComment();
+                } else if ((b == '[') && (depth > 0)) {
+                    expect("CDATA[");
+                    readCData();
+                    eventType = CDATA;
+                    return eventType;
+                } else if (b == 'D') {
+                    throw error("Document type declarations are not supported; use a StAX parser to read this document");
+                } else {
+                    throw error("Malformed markup after '<!'");
+                }
+            } else {
+                if ((depth == 0) && rootRead) {
+                    throw error("Only one root element is allowed");
+                }
+                position--;
+                readStartTag();
+                eventType = START_ELEMENT;
+                return eventType;
+            }
+        }
+    }
+
+    private void markEvent() {
+        eventOffset = bufferOffset + position;
+        eventLine = lineNumber;
+        eventColumn = (int) (eventOffset - lineOffset) + 1;
+    }
+
+    private void readStartTag() throws XMLStreamException {
+        if (depth == elementLocalNames.length) {
+            int newLength = depth * 2;
+            elementPrefixes = Arrays.copyOf(elementPrefixes, newLength);
+            elementLocalNames = Arrays.copyOf(elementLocalNames, newLength);
+            elementNamespaces = Arrays.copyOf(elementNamespaces, newLength);
+            namespaceMarks = Arrays.copyOf(namespaceMarks, newLength);
+        }
+        namespaceMarks[depth] = namespaceCount;
+        int colon = readName();
+        String prefix = prefixOf(colon);
+        String localName = localNameOf(colon);
+        while (true) {
+            boolean separated = skipWhitespace();
+            int b = readByte();
+            if (b == '>') {
+                break;
+            } else if (b == '/') {
+                if (readByte() != '>') {
+                    throw error("Expected '>' after '/' in empty element tag");
+                }
+                emptyElement = true;
+                break;
+            } else if ((b < 0) || !separated) {
+                throw error(String.format("Malformed start tag <%s>", qualifiedName(prefix, localName)));
+            }
+            position--;
+            readAttribute();
+        }
+
+        elementPrefixes[depth] = prefix;
+        elementLocalNames[depth] = localName;
+        elementNamespaces[depth] = resolve(prefix, true);
+        depth++;
+        rootRead = true;
+        for (int i = 0; i < attributeCount; i++) {
+            attributeNamespaces[i] = attributePrefixes[i] == null ? XMLConstants.NULL_NS_URI : resolve(attributePrefixes[i], false);
+            for (int j = 0; j < i; j++) {
+                if (attributeLocalNames[i].equals(attributeLocalNames[j]) && attributeNamespaces[i].equals(attributeNamespaces[j])) {
+                    throw error(String.format("Duplicate attribute %s", qualifiedName(attributePrefixes[i],
+                            attributeLocalNames[i])));
+                }
+            }
+        }
+    }
+
+    private void readAttribute() throws XMLStreamException {
+        int colon = readName();
+        String prefix = prefixOf(colon);
+        String localName = localNameOf(colon);
+        skipWhitespace();
+        if (readByte() != '=') {
+            throw error(String.format("Expected '=' after attribute name %s", qualifiedName(prefix, localName)));
+        }
+        skipWhitespace();
+        int quote = readByte();
+        if ((quote != '"') && (quote != '\'')) {
+            throw error(String.format("Expected a quoted value for attribute %s", qualifiedName(prefix, localName)));
+        }
+        textLength = 0;
+        while (true) {
+            int b = readByte();
+            if (b == quote) {
+                break;
+            } else if (b < 0) {
+                throw error("Unexpected end of document in attribute value");
+            } else if (b == '<') {
+                throw error(String.format("The value of attribute %s must not contain '<'", qualifiedName(prefix, localName)));
+            } else if (b == '&') {
+                readReference();
+            } else if ((b == '\t') || (b == '\n') || (b == '\r')) {
+                if ((b == '\r') && (peekByte() == '\n')) {
+                    position++;
+                    newLine();
+                }
+                appendChar(' '); // attribute value normalization
+            } else if (b < 0x80) {
+                appendChar((char) b);
+            } else {
+                readMultiByteChar(b);
+            }
+        }
+        String value = new String(text, 0, textLength);
+        textLength = 0;
+
+        if ((prefix == null) && localName.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+            declareNamespace(XMLConstants.DEFAULT_NS_PREFIX, value);
+        } else if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+            declareNamespace(localName, value);
+        } else {
+            if (attributeCount == attributeLocalNames.length) {
+                int newLength = attributeCount * 2;
+                attributePrefixes = Arrays.copyOf(attributePrefixes, newLength);
+                attributeLocalNames = Arrays.copyOf(attributeLocalNames, newLength);
+                attributeNamespaces = Arrays.copyOf(attributeNamespaces, newLength);
+                attributeValues = Arrays.copyOf(attributeValues, newLength);
+            }
+            attributePrefixes[attributeCount] = prefix;
+            attributeLocalNames[attributeCount] = localName;
+            attributeValues[attributeCount] = value;
+            attributeCount++;
+        }
+    }
+
+    private void declareNamespace(String prefix, String namespaceUri) {
+        if (namespaceCount == namespacePrefixes.length) {
+            namespacePrefixes = Arrays.copyOf(namespacePrefixes, namespaceCount * 2);
+            namespaceUris = Arrays.copyOf(namespaceUris, namespaceCount * 2);
+        }
+        namespacePrefixes[namespaceCount] = prefix;
+        namespaceUris[namespaceCount] = namespaceUri;
+        namespaceCount++;
+    }
+
+    /**
+     * Lookup the namespace uri that is bound to the given prefix
+     *
+     * @param prefix the prefix, or null for an unprefixed name
+     * @param isElement whether the name is an element name; unprefixed attribute names have no namespace
+     */
+    private String resolve(String prefix, boolean isElement) throws XMLStreamException {
+        String lookup = prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix;
+        for (int i = namespaceCount - 1; i >= 0; i--) {
+            if (namespacePrefixes[i].equals(lookup)) {
+                return namespaceUris[i];
+            }
+        }
+        if (prefix == null) {
+            return XMLConstants.NULL_NS_URI;
+        }
+        if (prefix.equals(XMLConstants.XML_NS_PREFIX)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        throw error(String.format("The namespace prefix '%s' is not bound", prefix));
+    }
+
+    private void readEndTag() throws XMLStreamException {
+        int colon = readName();
+        String prefix = prefixOf(colon);
+        String localName = localNameOf(colon);
+        skipWhitespace();
+        if (readByte() != '>') {
+            throw error(String.format("Malformed end tag </%s>", qualifiedName(prefix, localName)));
+        }
+        if (depth == 0) {
+            throw error(String.format("Unexpected end tag </%s>", qualifiedName(prefix, localName)));
+        }
+        if (!localName.equals(elementLocalNames[depth - 1]) || !equals(prefix, elementPrefixes[depth - 1])) {
+            throw error(String.format("Expected end tag </%s>, but encountered </%s>",
+                    qualifiedName(elementPrefixes[depth - 1], elementLocalNames[depth - 1]), qualifiedName(prefix, localName)));
+        }
+    }
+
+    private static boolean equals(String one, String other) {
+        return one == null ? other == null : one.equals(other);
+    }
+
+    /**
+     * Read a (qualified) name into {@link #nameBytes}
+     *
+     * @return the index of the colon that separates the prefix from the local name, or -1 when the name has no prefix
+     */
+    private int readName() throws XMLStreamException {
+        int length = 0;
+        int colon = -1;
+        while (true) {
+            if ((position == limit) && !fill()) {
+                break;
+            }
+            byte b = buffer[position];
+            if ((b == ' ') || (b == '>') || (b == '/') || (b == '=') || (b == '\n') || (b == '\t') || (b == '\r') || (b == '<')
+                    || (b == '"') || (b == '\'')) {
+                break;
+            }
+            if ((b == ':') && (colon < 0)) {
+                colon = length;
+            }
+            if (length == nameBytes.length) {
+                nameBytes = Arrays.copyOf(nameBytes, length * 2);
+            }
+            nameBytes[length++] = b;
+            position++;
+        }
+        if ((length == 0) || (colon == 0) || (colon == length - 1)) {
+            throw error("Expected a name");
+        }
+        nameLength = length;
+        return colon;
+    }
+
+    private String prefixOf(int colon) {
+        return colon < 0 ? null : names.get(nameBytes, 0, colon);
+    }
+
+    private String localNameOf(int colon) {
+        return names.get(nameBytes, colon + 1, nameLength - colon - 1);
+    }
+
+    private void readText() throws XMLStreamException {
+        while (true) {
+            if ((position == limit) && !fill()) {
+                return;
+            }
+            byte b = buffer[position];
+            if (b == '<') {
+                return;
+            }
+            position++;
+            if ((b >= 0) && (b != '&') && (b != '\r')) {
+                if (b == '\n') {
+                    newLine();
+                }
+                if (textLength == text.length) {
+                    text = Arrays.copyOf(text, textLength * 2);
+                }
+                text[textLength++] = (char) b;
+            } else if (b == '&') {
+                readReference();
+            } else if (b == '\r') {
+                if (peekByte() == '\n') {
+                    position++;
+                }
+                newLine();
+                appendChar('\n'); // end-of-line handling
+            } else {
+                readMultiByteChar(b & 0xFF);
+            }
+        }
+    }
+
+    private void readCData() throws XMLStreamException {
+        while (true) {
+            int b = readByte();
+            if (b < 0) {
+                throw error("Unexpected end of document in CDATA section");
+            } else if ((b == ']') && (peekByte() == ']')) {
+                position++;
+                while (peekByte() == ']') {
+                    position++;
+                    appendChar(']');
+                }
+                if (peekByte() == '>') {
+                    position++;
+                    return;
+                }
+                appendChar(']');
+                appendChar(']');
+            } else if (b == '\r') {
+                if (peekByte() == '\n') {
+                    position++;
+                    newLine();
+                }
+                appendChar('\n');
+            } else if (b < 0x80) {
+                appendChar((char) b);
+            } else {
+                readMultiByteChar(b);
+            }
+        }
+    }
+
+    /**
+     * Read a character reference or a predefined entity reference after the '&amp;' and append the character to the text
+     */
+    private void readReference() throws XMLStreamException {
+        int length = 0;
+        int b = readByte();
+        while ((b != ';') && (b >= 0) && (length < 12)) {
+            nameBytes[length++] = (byte) b;
+            b = readByte();
+        }
+        if (b != ';') {
+            throw error("Malformed entity or character reference");
+        }
+        if ((length > 1) && (nameBytes[0] == '#')) {
+            boolean hex = nameBytes[1] == 'x';
+            int codePoint = 0;
+            for (int i = hex ? 2 : 1; i < length; i++) {
+                int digit = Character.digit(nameBytes[i], hex ? 16 : 10);
+                if ((digit < 0) || (codePoint > 0x10FFFF)) {
+                    throw error("Malformed character reference");
+                }
+                codePoint = codePoint * (hex ? 16 : 10) + digit;
+            }
+            if ((codePoint == 0) || (codePoint > Character.MAX_CODE_POINT)
+                    || ((codePoint >= Character.MIN_SURROGATE) && (codePoint <= Character.MAX_SURROGATE))) {
+                throw error(String.format("Invalid character reference &#%s%x;", hex ? "x" : "", codePoint));
+            }
+            appendCodePoint(codePoint);
+            return;
+        }
+        String entity = new String(nameBytes, 0, length, StandardCharsets.ISO_8859_1);
+        switch (entity) {
+            case "lt":
+                appendChar('<');
+                break;
+            case "gt":
+                appendChar('>');
+                break;
+            case "amp":
+                appendChar('&');
+                break;
+            case "quot":
+                appendChar('"');
+                break;
+            case "apos":
+                appendChar('\'');
+                break;
+            default:
+                throw error(String.format("Undeclared entity &%s;", entity));
+        }
+    }
+
+    private void readMultiByteChar(int lead) throws XMLStreamException {
+        int codePoint;
+        int continuationBytes;
+        if ((lead >= 0xC2) && (lead < 0xE0)) {
+            codePoint = lead & 0x1F;
+            continuationBytes = 1;
+        } else if ((lead >= 0xE0) && (lead < 0xF0)) {
+            codePoint = lead & 0x0F;
+            continuationBytes = 2;
+        } else if ((lead >= 0xF0) && (lead < 0xF5)) {
+            codePoint = lead & 0x07;
+            continuationBytes = 3;
+        } else {
+            throw error(String.format("Invalid UTF-8 byte 0x%02x", lead));
+        }
+        for (int i = 0; i < continuationBytes; i++) {
+            int b = readByte();
+            if ((b & 0xC0) != 0x80) {
+                throw error("Invalid UTF-8 byte sequence");
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        if (((continuationBytes == 2) && ((codePoint < 0x800)
+                || ((codePoint >= Character.MIN_SURROGATE) && (codePoint <= Character.MAX_SURROGATE))))
+                || ((continuationBytes == 3) && ((codePoint < 0x10000) || (codePoint > Character.MAX_CODE_POINT)))) {
+            throw error("Invalid UTF-8 byte sequence");
+        }
+        appendCodePoint(codePoint);
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            appendChar((char) codePoint);
+        } else {
+            appendChar(Character.highSurrogate(codePoint));
+            appendChar(Character.lowSurrogate(codePoint));
+        }
+    }
+
+    private void appendChar(char c) {
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, textLength * 2);
+        }
+        text[textLength++] = c;
+    }
+
+    /**
+     * Skip a processing instruction after the '&lt;?'
+     *
+     * @param atDocumentStart whether the instruction is at the start of the document, where it may be the xml declaration
+     */
+    private void skipProcessingInstruction(boolean atDocumentStart) throws XMLStreamException {
+        StringBuilder declaration = atDocumentStart ? new StringBuilder("<?") : null;
+        boolean questionMark = false;
+        while (true) {
+            int b = readByte();
+            if (b < 0) {
+                throw error("Unexpected end of document in processing instruction");
+            } else if ((b == '>') && questionMark) {
+                break;
+            }
+            questionMark = b == '?';
+            if (declaration != null) {
+                declaration.append((char) b);
+            }
+        }
+        if ((declaration != null) && declaration.toString().startsWith("<?xml ")
+                && !isSupportedEncoding(declaration.toString())) {
+            throw error("Only UTF-8 encoded xml can be tokenized; use a StAX parser to read this document");
+        }
+    }
+
+    private void skipComment() throws XMLStreamException {
+        int dashes = 0;
+        while (true) {
+            int b = readByte();
+            if (b < 0) {
+                throw error("Unexpected end of document in comment");
+            } else if ((b == '>') && (dashes >= 2)) {
+                return;
+            }
+            dashes = b == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private void expect(String ascii) throws XMLStreamException {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (readByte() != ascii.charAt(i)) {
+                throw error(String.format("Expected '%s'", ascii));
+            }
+        }
+    }
+
+    /**
+     * @return true when any whitespace was skipped
+     */
+    private boolean skipWhitespace() throws XMLStreamException {
+        boolean skipped = false;
+        while (true) {
+            int b = peekByte();
+            if ((b == ' ') || (b == '\t') || (b == '\r')) {
+                position++;
+            } else if (b == '\n') {
+                position++;
+                newLine();
+            } else {
+                return skipped;
+            }
+            skipped = true;
+        }
+    }
+
+    private void newLine() {
+        lineNumber++;
+        lineOffset = bufferOffset + position;
+    }
+
+    private int readByte() throws XMLStreamException {
+        if ((position == limit) && !fill()) {
+            return -1;
+        }
+        int b = buffer[position++] & 0xFF;
+        if (b == '\n') {
+            newLine();
+        }
+        return b;
+    }
+
+    private int peekByte() throws XMLStreamException {
+        if ((position == limit) && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Read the next bytes from the stream into the buffer, discarding the bytes that are consumed
+     *
+     * @return false when the end of the stream is reached
+     */
+    private boolean fill() throws XMLStreamException {
+        if (stream == null) {
+            return false;
+        }
+        bufferOffset += position;
+        int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+        try {
+            int read = stream.read(buffer, limit, buffer.length - limit);
+            while (read == 0) {
+                read = stream.read(buffer, limit, buffer.length - limit);
+            }
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new XMLStreamException("Exception occured when reading from xml stream", getLocation(), e);
+        }
+    }
+
+    /**
+     * Make sure that at least the given number of bytes is available in the buffer, as far as the stream has them
+     */
+    private boolean ensure(int count) throws XMLStreamException {
+        while (limit - position < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private XMLStreamException error(String message) {
+        markEvent();
+        Location location = getLocation();
+        return new XMLStreamException(String.format("%s [row,col]:[%d,%d]", message, location.getLineNumber(),
+                location.getColumnNumber()), location);
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null ? localName : prefix + ":" + localName;
+    }
+
+    private void requireTag() {
+        if ((eventType != START_ELEMENT) && (eventType != END_ELEMENT)) {
+            throw new IllegalStateException(String.format("Current event is not a start- or end element: %d", eventType));
+        }
+    }
+
+    private void requireStartTag() {
+        if (eventType != START_ELEMENT) {
+            throw new IllegalStateException(String.format("Current event is not a start element: %d", eventType));
+        }
+    }
+
+    private void requireText() {
+        if ((eventType != CHARACTERS) && (eventType != CDATA)) {
+            throw new IllegalStateException(String.format("Current event is not a text event: %d", eventType));
+        }
+    }
+
+    @Override
+    public QName getName() {
+        requireTag();
+        if (name == null) {
+            String prefix = elementPrefixes[depth - 1];
+            name = new QName(elementNamespaces[depth - 1], elementLocalNames[depth - 1],
+                    prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+        }
+        return name;
+    }
+
+    @Override
+    public String getLocalName() {
+        requireTag();
+        return elementLocalNames[depth - 1];
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        requireTag();
+        return elementNamespaces[depth - 1];
+    }
+
+    @Override
+    public int getAttributeCount() {
+        requireStartTag();
+        return attributeCount;
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        checkAttributeIndex(index);
+        String prefix = attributePrefixes[index];
+        return new QName(attributeNamespaces[index], attributeLocalNames[index],
+                prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        return attributeNamespaces[index];
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        checkAttributeIndex(index);
+        return attributeLocalNames[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        checkAttributeIndex(index);
+        return attributeValues[index];
+    }
+
+    private void checkAttributeIndex(int index) {
+        requireStartTag();
+        if ((index < 0) || (index >= attributeCount)) {
+            throw new IndexOutOfBoundsException(String.format("Attribute index %d is out of bounds [0,%d)", index,
+                    attributeCount));
+        }
+    }
+
+    @Override
+    public String getText() {
+        requireText();
+        return new String(text, 0, textLength);
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        requireText();
+        return text;
+    }
+
+    @Override
+    public int getTextStart() {
+        requireText();
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        requireText();
+        return textLength;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        requireText();
+        int copied = Math.max(0, Math.min(length, textLength - sourceStart));
+        System.arraycopy(text, sourceStart, target, targetStart, copied);
+        return copied;
+    }
+
+    @Override
+    public Location getLocation() {
+        return new StreamLocation(eventLine, eventColumn, eventOffset);
+    }
+
+    @Override
+    public void close() {
+        this.eventType = END_DOCUMENT;
+        this.stream = null;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Utf8XmlTokenizer[line=%d, depth=%d]", lineNumber, depth);
+    }
+
+    /**
+     * The Strings of the names that are read, looked up by their UTF-8 bytes
+     */
+    private static final class NameCache {
+
+        private static final int MAX_SIZE = 4096;
+
+        private byte[][] keys = new byte[64][];
+
+        private String[] values = new String[64];
+
+        private int size = 0;
+
+        private String get(byte[] bytes, int offset, int length) {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int mask = keys.length - 1;
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (keys[index] != null) {
+                if (matches(keys[index], bytes, offset, length)) {
+                    return values[index];
+                }
+                index = (index + 1) & mask;
+            }
+            String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            if (size < MAX_SIZE) { // do not grow without bounds on documents with generated names
+                keys[index] = Arrays.copyOfRange(bytes, offset, offset + length);
+                values[index] = value;
+                if (++size * 2 > keys.length) {
+                    rehash();
+                }
+            }
+            return value;
+        }
+
+        private static boolean matches(byte[] key, byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    byte[] key = oldKeys[i];
+                    int hash = 1;
+                    for (byte b : key) {
+                        hash = 31 * hash + b;
+                    }
+                    int index = (hash ^ (hash >>> 16)) & mask;
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = key;
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+
+}
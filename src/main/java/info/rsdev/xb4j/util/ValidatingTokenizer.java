@@ -0,0 +1,314 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import info.rsdev.xb4j.exceptions.Xb4jUnmarshallException;
+import java.util.Enumeration;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * <p>
+ * An {@link XmlTokenizer} that validates the events of another tokenizer against a {@link Schema} while they are read, so that a
+ * document is parsed only once to validate and unmarshall it. Every event is passed on to a {@link ValidatorHandler} of the
+ * schema. When the document is invalid, an {@link Xb4jUnmarshallException} with the location of the violation is thrown by
+ * {@link #next()}; warnings are ignored.</p>
+ * <p>
+ * The {@link XmlTokenizer} contract does not include namespace declarations. The prefixes of the element and attribute names are
+ * declared to the validator for the element they are used on, so that names validate correctly. Content of type QName, e.g.
+ * <code>xsi:type</code> values, can only use prefixes that are used by the name of the element or one of it's ancestors or
+ * attributes.</p>
+ *
+ * @author Dave Schoorl
+ */
+final class ValidatingTokenizer implements XmlTokenizer, XMLStreamConstants, Locator {
+
+    private static final ErrorHandler FAIL_ON_ERROR = new ErrorHandler() {
+
+        @Override
+        public void warning(SAXParseException exception) {
+            // warnings do not make a document invalid
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+
+    private final XmlTokenizer tokenizer;
+
+    private final ValidatorHandler validator;
+
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+
+    private final AttributesImpl attributes = new AttributesImpl();
+
+    private boolean started = false;
+
+    private boolean ended = false;
+
+    private int depth = 0;
+
+    ValidatingTokenizer(XmlTokenizer tokenizer, Schema schema) {
+        if (tokenizer == null) {
+            throw new NullPointerException("XmlTokenizer cannot be null");
+        }
+        if (schema == null) {
+            throw new NullPointerException("Schema cannot be null");
+        }
+        this.tokenizer = tokenizer;
+        this.validator = schema.newValidatorHandler();
+        this.validator.setErrorHandler(FAIL_ON_ERROR);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        int eventType = tokenizer.next();
+        try {
+            if (!started) {
+                started = true;
+                validator.setDocumentLocator(this);
+                validator.startDocument();
+            }
+            switch (eventType) {
+                case START_ELEMENT:
+                    depth++;
+                    startElement();
+                    break;
+                case END_ELEMENT:
+                    endElement();
+                    if (--depth == 0) {
+                        endDocument();
+                    }
+                    break;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                    if (depth > 0) {
+                        validator.characters(tokenizer.getTextCharacters(), tokenizer.getTextStart(), tokenizer.getTextLength());
+                    }
+                    break;
+                case END_DOCUMENT:
+                    endDocument();
+                    break;
+                default:
+                    break;
+            }
+        } catch (SAXException e) {
+            throw invalid(e);
+        }
+        return eventType;
+    }
+
+    private void startElement() throws SAXException {
+        namespaces.pushContext();
+        QName name = tokenizer.getName();
+        String elementQName = declare(name.getPrefix(), tokenizer.getNamespaceURI(), tokenizer.getLocalName());
+        attributes.clear();
+        for (int i = 0; i < tokenizer.getAttributeCount(); i++) {
+            String namespaceUri = tokenizer.getAttributeNamespace(i);
+            String localName = tokenizer.getAttributeLocalName(i);
+            String prefix = tokenizer.getAttributeName(i).getPrefix();
+            String attributeQName = isEmpty(namespaceUri) ? localName : declare(prefix, namespaceUri, localName);
+            attributes.addAttribute(nonNull(namespaceUri), localName, attributeQName, "CDATA", tokenizer.getAttributeValue(i));
+        }
+        validator.startElement(nonNull(tokenizer.getNamespaceURI()), tokenizer.getLocalName(), elementQName, attributes);
+    }
+
+    /**
+     * Make sure that the prefix is bound to the namespace for the validator
+     *
+     * @return the qualified name
+     */
+    private String declare(String prefix, String namespaceUri, String localName) throws SAXException {
+        prefix = nonNull(prefix);
+        namespaceUri = nonNull(namespaceUri);
+        if (prefix.equals(XMLConstants.XML_NS_PREFIX)) {
+            return prefix + ":" + localName;
+        }
+        if (!namespaceUri.equals(nonNull(namespaces.getURI(prefix)))) {
+            namespaces.declarePrefix(prefix, namespaceUri);
+            validator.startPrefixMapping(prefix, namespaceUri);
+        }
+        return prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private void endElement() throws SAXException {
+        QName name = tokenizer.getName();
+        String prefix = nonNull(name.getPrefix());
+        validator.endElement(nonNull(tokenizer.getNamespaceURI()), tokenizer.getLocalName(),
+                prefix.isEmpty() ? tokenizer.getLocalName() : prefix + ":" + tokenizer.getLocalName());
+        Enumeration<?> declared = namespaces.getDeclaredPrefixes();
+        while (declared.hasMoreElements()) {
+            validator.endPrefixMapping((String) declared.nextElement());
+        }
+        namespaces.popContext();
+    }
+
+    private void endDocument() throws SAXException {
+        if (started && !ended) {
+            ended = true;
+            validator.endDocument();
+        }
+    }
+
+    private Xb4jUnmarshallException invalid(SAXException e) {
+        int lineNumber = getLineNumber();
+        int columnNumber = getColumnNumber();
+        if (e instanceof SAXParseException) {
+            lineNumber = ((SAXParseException) e).getLineNumber();
+            columnNumber = ((SAXParseException) e).getColumnNumber();
+        }
+        return new Xb4jUnmarshallException(String.format("Schema validation failed: %s @ line %d, column %d", e.getMessage(),
+                lineNumber, columnNumber), null, e);
+    }
+
+    private static boolean isEmpty(String value) {
+        return (value == null) || value.isEmpty();
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? XMLConstants.NULL_NS_URI : value;
+    }
+
+    @Override
+    public String getPublicId() {
+        Location location = tokenizer.getLocation();
+        return location == null ? null : location.getPublicId();
+    }
+
+    @Override
+    public String getSystemId() {
+        Location location = tokenizer.getLocation();
+        return location == null ? null : location.getSystemId();
+    }
+
+    @Override
+    public int getLineNumber() {
+        Location location = tokenizer.getLocation();
+        return location == null ? -1 : location.getLineNumber();
+    }
+
+    @Override
+    public int getColumnNumber() {
+        Location location = tokenizer.getLocation();
+        return location == null ? -1 : location.getColumnNumber();
+    }
+
+    /**
+     * @return the tokenizer whose events are validated
+     */
+    XmlTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    @Override
+    public QName getName() {
+        return tokenizer.getName();
+    }
+
+    @Override
+    public String getLocalName() {
+        return tokenizer.getLocalName();
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return tokenizer.getNamespaceURI();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return tokenizer.getAttributeCount();
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return tokenizer.getAttributeName(index);
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return tokenizer.getAttributeNamespace(index);
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return tokenizer.getAttributeLocalName(index);
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return tokenizer.getAttributeValue(index);
+    }
+
+    @Override
+    public String getText() {
+        return tokenizer.getText();
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        return tokenizer.getTextCharacters();
+    }
+
+    @Override
+    public int getTextStart() {
+        return tokenizer.getTextStart();
+    }
+
+    @Override
+    public int getTextLength() {
+        return tokenizer.getTextLength();
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        return tokenizer.getTextCharacters(sourceStart, target, targetStart, length);
+    }
+
+    @Override
+    public Location getLocation() {
+        return tokenizer.getLocation();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        tokenizer.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ValidatingTokenizer[%s]", tokenizer);
+    }
+
+}
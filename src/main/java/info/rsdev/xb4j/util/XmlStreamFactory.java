@@ -15,61 +15,326 @@
 package info.rsdev.xb4j.util;
 
 import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.w3c.dom.Node;
+
 public abstract class XmlStreamFactory {
 
+    /**
+     * The number of bytes at the start of a stream that is inspected to decide whether a {@link Utf8XmlTokenizer} can read it
+     */
+    private static final int PROLOG_SIZE = 4 * 1024;
+
+    /**
+     * The size of the buffer that compressed bytes are read into
+     */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static volatile StaxFactories defaultStaxFactories = StaxFactories.DEFAULT;
+
     private XmlStreamFactory() {
     }
 
-    public static XMLStreamWriter makeWriter(OutputStream stream) {
-        XMLStreamWriter staxWriter = null;
-        try {
-            staxWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(stream);
-        } catch (XMLStreamException e) {
-            throw new Xb4jException("Cannot create XMLStreamWriter", e);
+    /**
+     * Set the {@link StaxFactories} that are used when no other factories are given, e.g. to tune the StAX implementation for all
+     * binding models at once
+     *
+     * @param factories the factories to use by default
+     */
+    public static void setDefaultStaxFactories(StaxFactories factories) {
+        if (factories == null) {
+            throw new NullPointerException("StaxFactories cannot be null");
         }
-        return staxWriter;
+        defaultStaxFactories = factories;
+    }
+
+    /**
+     * @return the {@link StaxFactories} that are used when no other factories are given; {@link StaxFactories#DEFAULT} unless set
+     * otherwise
+     */
+    public static StaxFactories getDefaultStaxFactories() {
+        return defaultStaxFactories;
+    }
+
+    public static XMLStreamWriter makeWriter(OutputStream stream) {
+        return defaultStaxFactories.createWriter(stream);
     }
 
     public static XMLStreamWriter makeWriter(Writer writer) {
-        XMLStreamWriter staxWriter = null;
-        try {
-            staxWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
-        } catch (XMLStreamException e) {
-            throw new Xb4jException("Cannot create XMLStreamWriter", e);
+        return defaultStaxFactories.createWriter(writer);
+    }
+
+    /**
+     * Create an {@link XMLStreamWriter} that writes UTF-8 encoded xml to the given channel. The channel is not closed when the
+     * writer is closed.
+     *
+     * @param channel the channel to write the xml to
+     * @return a new {@link XMLStreamWriter}
+     */
+    public static XMLStreamWriter makeWriter(WritableByteChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("WritableByteChannel cannot be null");
         }
-        return staxWriter;
+        return defaultStaxFactories.createWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8.name());
     }
 
     public static XMLStreamReader makeReader(InputStream stream) {
-        XMLStreamReader staxReader = null;
+        return defaultStaxFactories.createReader(stream);
+    }
+
+    public static XMLStreamReader makeReader(Reader reader) {
+        return defaultStaxFactories.createReader(reader);
+    }
+
+    /**
+     * Prepare a stream for reading xml: when the stream starts with the gzip magic number, it is decompressed transparently.
+     * Concatenated gzip members, e.g. from appending to a compressed file, are read as one stream.
+     *
+     * @param stream the xml stream, that is compressed or not
+     * @return a stream that supports {@link InputStream#mark(int)} and provides the uncompressed bytes
+     */
+    public static InputStream decompress(InputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        InputStream markable = stream.markSupported() ? stream : new BufferedInputStream(stream, PROLOG_SIZE);
         try {
-            staxReader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
-        } catch (XMLStreamException e) {
-            throw new Xb4jException("Cannot create XMLStreamReader", e);
+            markable.mark(2);
+            int first = markable.read();
+            int second = first < 0 ? -1 : markable.read();
+            markable.reset();
+            if ((first == 0x1f) && (second == 0x8b)) {
+                return new BufferedInputStream(new GZIPInputStream(markable, GZIP_BUFFER_SIZE), PROLOG_SIZE);
+            }
+        } catch (IOException e) {
+            throw new Xb4jException("Exception occured when reading from xml stream", e);
         }
-        return staxReader;
+        return markable;
     }
 
-    public static XMLStreamReader makeReader(Reader reader) {
-        XMLStreamReader staxReader = null;
+    /**
+     * Create the fastest {@link XmlTokenizer} that can read the given stream. When the stream is UTF-8 encoded and has no document
+     * type declaration, it is read by a {@link Utf8XmlTokenizer}, otherwise by the {@link XMLStreamReader} from
+     * {@link #makeReader(InputStream)}. The decision is made on the first bytes of the stream, which are read ahead. A gzip
+     * compressed stream is {@link #decompress(InputStream) decompressed} first. When the {@link #getDefaultStaxFactories() default
+     * factories} are configured, they always read the stream.
+     *
+     * @param stream the xml stream
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(InputStream stream) {
+        return makeTokenizer(stream, defaultStaxFactories);
+    }
+
+    /**
+     * Like {@link #makeTokenizer(InputStream)}, but with the given factories. The {@link Utf8XmlTokenizer} is only used with
+     * {@link StaxFactories#DEFAULT}; with other factories the stream is always read by an {@link XMLStreamReader} that is created
+     * by them, so that their configuration applies.
+     *
+     * @param stream the xml stream
+     * @param factories the factories to create an {@link XMLStreamReader} with
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(InputStream stream, StaxFactories factories) {
+        if (factories == null) {
+            throw new NullPointerException("StaxFactories cannot be null");
+        }
+        if (stream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        InputStream markable = decompress(stream);
+        if (!canUseUtf8Tokenizer(factories)) {
+            return new StaxTokenizer(factories.createReader(markable));
+        }
         try {
-            staxReader = XMLInputFactory.newInstance().createXMLStreamReader(reader);
-        } catch (XMLStreamException e) {
-            throw new Xb4jException("Cannot create XMLStreamReader", e);
+            byte[] prolog = new byte[PROLOG_SIZE];
+            markable.mark(PROLOG_SIZE);
+            int length = 0;
+            int read = 0;
+            boolean canTokenize = false;
+            // do not read further than needed, the rest of the stream may not be available yet
+            while (!canTokenize && (length < PROLOG_SIZE)
+                    && ((read = markable.read(prolog, length, PROLOG_SIZE - length)) >= 0)) {
+                length += read;
+                canTokenize = Utf8XmlTokenizer.canTokenize(prolog, length);
+            }
+            markable.reset();
+            if (canTokenize) {
+                return new Utf8XmlTokenizer(markable);
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new Xb4jException("Cannot create XmlTokenizer", e);
+        }
+        return new StaxTokenizer(factories.createReader(markable));
+    }
+
+    /**
+     * Create an {@link XmlTokenizer} for a complete xml document that is in memory. Like {@link #makeTokenizer(InputStream)}, the
+     * {@link Utf8XmlTokenizer} is used when possible, but it's buffer is not larger than the document. A gzip compressed document
+     * is decompressed while it is read.
+     *
+     * @param xml the bytes that contain the xml document
+     * @param offset the index of the first byte of the document
+     * @param length the number of bytes of the document
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(byte[] xml, int offset, int length) {
+        return makeTokenizer(xml, offset, length, defaultStaxFactories);
+    }
+
+    /**
+     * Like {@link #makeTokenizer(byte[], int, int)}, but with the given factories. The {@link Utf8XmlTokenizer} is only used with
+     * {@link StaxFactories#DEFAULT}; with other factories the document is always read by an {@link XMLStreamReader} that is created
+     * by them.
+     *
+     * @param xml the bytes that contain the xml document
+     * @param offset the index of the first byte of the document
+     * @param length the number of bytes of the document
+     * @param factories the factories to create an {@link XMLStreamReader} with
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(byte[] xml, int offset, int length, StaxFactories factories) {
+        if (factories == null) {
+            throw new NullPointerException("StaxFactories cannot be null");
+        }
+        if (xml == null) {
+            throw new NullPointerException("Byte array cannot be null");
+        }
+        InputStream stream = new ByteArrayInputStream(xml, offset, length);
+        if ((length >= 2) && (xml[offset] == (byte) 0x1f) && (xml[offset + 1] == (byte) 0x8b)) { // gzip compressed
+            return makeTokenizer(stream, factories);
+        }
+        if (!canUseUtf8Tokenizer(factories)) {
+            return new StaxTokenizer(factories.createReader(stream));
+        }
+        int prologLength = Math.min(length, PROLOG_SIZE);
+        byte[] prolog = offset == 0 ? xml : Arrays.copyOfRange(xml, offset, offset + prologLength);
+        if (Utf8XmlTokenizer.canTokenize(prolog, prologLength)) {
+            try {
+                return new Utf8XmlTokenizer(stream, Math.max(16, Math.min(length, Utf8XmlTokenizer.DEFAULT_BUFFER_SIZE)));
+            } catch (XMLStreamException e) {
+                throw new Xb4jException("Cannot create XmlTokenizer", e);
+            }
+        }
+        return new StaxTokenizer(factories.createReader(stream));
+    }
+
+    /**
+     * Create an {@link XmlTokenizer} for the remaining bytes of the buffer, e.g. a direct or memory-mapped buffer. The bytes are
+     * read without an intermediate copy, and the position of the buffer is not changed.
+     *
+     * @param buffer the buffer that contains the xml document
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(ByteBuffer buffer) {
+        return makeTokenizer(buffer, defaultStaxFactories);
+    }
+
+    /**
+     * Like {@link #makeTokenizer(ByteBuffer)}, but with the given factories, like
+     * {@link #makeTokenizer(byte[], int, int, StaxFactories)}.
+     *
+     * @param buffer the buffer that contains the xml document
+     * @param factories the factories to create an {@link XMLStreamReader} with
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(ByteBuffer buffer, StaxFactories factories) {
+        if (buffer == null) {
+            throw new NullPointerException("ByteBuffer cannot be null");
+        }
+        if (buffer.hasArray()) {
+            return makeTokenizer(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), factories);
         }
-        return staxReader;
+        return makeTokenizer(new ByteBufferInputStream(buffer), factories);
+    }
+
+    /**
+     * Create an {@link XmlTokenizer} that reads the xml stream from the given channel. The channel is not closed when the tokenizer
+     * is closed.
+     *
+     * @param channel the channel to read the xml from
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(ReadableByteChannel channel) {
+        return makeTokenizer(channel, defaultStaxFactories);
+    }
+
+    /**
+     * Like {@link #makeTokenizer(ReadableByteChannel)}, but with the given factories, like
+     * {@link #makeTokenizer(InputStream, StaxFactories)}.
+     *
+     * @param channel the channel to read the xml from
+     * @param factories the factories to create an {@link XMLStreamReader} with
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(ReadableByteChannel channel, StaxFactories factories) {
+        if (channel == null) {
+            throw new NullPointerException("ReadableByteChannel cannot be null");
+        }
+        return makeTokenizer(Channels.newInputStream(channel), factories);
+    }
+
+    /**
+     * The {@link Utf8XmlTokenizer} does not know about the properties of configured factories, e.g. coalescing, DTD support or
+     * buffer sizes, so it only replaces the {@link XMLStreamReader} of the factories that are not configured
+     *
+     * @param factories the factories that the xml would be read with otherwise
+     * @return true when the {@link Utf8XmlTokenizer} may be used instead of the factories
+     */
+    public static boolean canUseUtf8Tokenizer(StaxFactories factories) {
+        return factories == StaxFactories.DEFAULT;
+    }
+
+    /**
+     * Create an {@link XmlTokenizer} that walks the given DOM tree, without serializing it
+     *
+     * @param node the document, document fragment or element to read
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(Node node) {
+        return new DomTokenizer(node);
+    }
+
+    /**
+     * Create an {@link XmlTokenizer} that plays back events that are captured before, e.g. with
+     * {@link RecordAndPlaybackXMLStreamReader#skipToElementEnd()} or a {@link SaxEventRecorder}
+     *
+     * @param events the events of a complete element
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(List<ParseEventData> events) {
+        return new EventTapeTokenizer(events);
+    }
+
+    /**
+     * Create an {@link XmlTokenizer} that reads the xml stream with the given {@link XMLStreamReader}
+     *
+     * @param staxReader the {@link XMLStreamReader} to read with
+     * @return a new {@link XmlTokenizer}
+     */
+    public static XmlTokenizer makeTokenizer(XMLStreamReader staxReader) {
+        return new StaxTokenizer(staxReader);
     }
 
 }
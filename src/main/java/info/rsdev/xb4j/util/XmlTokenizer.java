@@ -0,0 +1,111 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * <p>
+ * The pull parser contract that a {@link RecordAndPlaybackXMLStreamReader} reads the xml stream with. It is the part of the
+ * {@link XMLStreamReader} api that is needed to unmarshall xml: tags, their names and attributes, and text. The methods have the
+ * same meaning as their {@link XMLStreamReader} counterparts.</p>
+ * <p>
+ * {@link #next()} reports the event types {@link XMLStreamReader#START_ELEMENT}, {@link XMLStreamReader#END_ELEMENT},
+ * {@link XMLStreamReader#END_DOCUMENT} and the text events {@link XMLStreamReader#CHARACTERS}, {@link XMLStreamReader#CDATA},
+ * {@link XMLStreamReader#SPACE} and {@link XMLStreamReader#ENTITY_REFERENCE}. Other event types may be reported, but are skipped
+ * by the {@link RecordAndPlaybackXMLStreamReader}.</p>
+ * <p>
+ * Use {@link XmlStreamFactory#makeTokenizer(java.io.InputStream)} to obtain the fastest tokenizer for an xml stream, or
+ * {@link XmlStreamFactory#makeTokenizer(XMLStreamReader)} to read with any {@link XMLStreamReader}.</p>
+ *
+ * @author Dave Schoorl
+ */
+public interface XmlTokenizer {
+
+    /**
+     * Move to the next event
+     *
+     * @return the type of the event
+     * @throws XMLStreamException when the xml is not well-formed, or when the stream cannot be read
+     */
+    int next() throws XMLStreamException;
+
+    /**
+     * @return the name of the current start- or end element
+     */
+    QName getName();
+
+    /**
+     * @return the local name of the current start- or end element
+     */
+    String getLocalName();
+
+    /**
+     * @return the namespace uri of the current start- or end element; null or an empty String when it has no namespace
+     */
+    String getNamespaceURI();
+
+    /**
+     * @return the number of attributes of the current start element, not counting namespace declarations
+     */
+    int getAttributeCount();
+
+    QName getAttributeName(int index);
+
+    String getAttributeNamespace(int index);
+
+    String getAttributeLocalName(int index);
+
+    String getAttributeValue(int index);
+
+    /**
+     * @return the text of the current text event as a String
+     */
+    String getText();
+
+    /**
+     * @return an array that holds the text of the current text event, from {@link #getTextStart()} for {@link #getTextLength()}
+     * characters. The array may be reused by the next event.
+     */
+    char[] getTextCharacters();
+
+    int getTextStart();
+
+    int getTextLength();
+
+    /**
+     * Copy the text of the current text event, starting at the given position in the text, into the target array
+     *
+     * @return the number of characters copied, which is less than the given length when the end of the text is reached
+     * @throws XMLStreamException
+     */
+    int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException;
+
+    /**
+     * @return the {@link Location} of the current event; the returned instance must not change when the tokenizer moves on
+     */
+    Location getLocation();
+
+    /**
+     * Free the resources of this tokenizer. This does not close the underlying input source.
+     *
+     * @throws XMLStreamException
+     */
+    void close() throws XMLStreamException;
+
+}
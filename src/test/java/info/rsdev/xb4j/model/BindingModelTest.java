@@ -4,20 +4,31 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.exceptions.Xb4jUnmarshallException;
 import info.rsdev.xb4j.model.bindings.Root;
 import info.rsdev.xb4j.model.bindings.SimpleType;
 import info.rsdev.xb4j.test.ObjectA;
 import info.rsdev.xb4j.test.ObjectB;
+import info.rsdev.xb4j.util.ReaderLimits;
 import info.rsdev.xb4j.util.XmlStreamFactory;
 
 class BindingModelTest {
@@ -91,4 +102,66 @@ class BindingModelTest {
         assertNotSame(root1, root2);
     }
 
+
+    @Test
+    void adoptNamesOfBindingsOnFirstUse() {
+        BindingModel aModel = new BindingModel();
+        QName firstName = new QName("urn:test", "name");
+        QName secondName = new QName("urn:test", "name");
+        Root first = new Root(new QName("urn:test", "a"), ObjectA.class);
+        first.setChild(new SimpleType(firstName, false), "name");
+        Root second = new Root(new QName("urn:test", "b"), ObjectA.class);
+        second.setChild(new SimpleType(secondName, false), "name");
+        aModel.registerRoot(first);
+        aModel.registerRoot(second);
+
+        aModel.getXmlStreamer(ObjectA.class, new QName("urn:test", "a"));
+        aModel.getXmlStreamer(ObjectA.class, new QName("urn:test", "b"));
+        assertSame(firstName, aModel.getSymbolTable().intern("urn:test", "name"));
+        Object instance = aModel.toJava(XmlStreamFactory.makeReader(new StringReader(
+                "<t:b xmlns:t=\"urn:test\"><t:name>tweede</t:name></t:b>")));
+        assertEquals("tweede", ((ObjectA) instance).getAName());
+        assertSame(firstName, aModel.getSymbolTable().intern("urn:test", "name"));
+    }
+
+    @Test
+    void unmarshallWithPipelinedTokenizer() {
+        model.setPipelined(true);
+        Object instance = model.toJava(XmlStreamFactory.makeReader(new StringReader(
+                "<up:a xmlns:up=\"http://1\"><name>pipelined</name></up:a>")));
+        assertEquals("pipelined", ((ObjectA) instance).getAName());
+    }
+
+    @Test
+    void rejectDocumentThatExceedsReaderLimits() {
+        model.setReaderLimits(ReaderLimits.UNLIMITED.withMaxDepth(1));
+        assertThrows(Xb4jUnmarshallException.class, () -> model.toJava(XmlStreamFactory.makeReader(new StringReader(
+                "<up:a xmlns:up=\"http://1\"><name>te diep</name></up:a>"))));
+    }
+
+    @Test
+    void chooseBindingBySniffingRootElement() {
+        assertEquals("sniffed", ((ObjectA) model.toJava(new ByteArrayInputStream(
+                "<?xml version=\"1.0\"?><lo:a xmlns:lo=\"http://2\"><eman>sniffed</eman></lo:a>".getBytes(
+                        StandardCharsets.UTF_8)))).getAName());
+        byte[] unknown = "<unknown/>".getBytes(StandardCharsets.UTF_8);
+        assertThrows(Xb4jException.class, () -> model.getXmlStreamer(unknown, 0, unknown.length));
+        assertThrows(Xb4jException.class, () -> model.toJava(new ByteArrayInputStream(unknown)));
+    }
+
+    @Test
+    void validateWhileUnmarshalling() throws Exception {
+        String xsd = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"http://1\">"
+                + "<xs:element name=\"a\"><xs:complexType><xs:sequence><xs:element name=\"name\"><xs:simpleType>"
+                + "<xs:restriction base=\"xs:string\"><xs:maxLength value=\"10\"/></xs:restriction></xs:simpleType>"
+                + "</xs:element></xs:sequence></xs:complexType></xs:element></xs:schema>";
+        Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                new StreamSource(new StringReader(xsd)));
+        model.setSchema(schema);
+        assertEquals("kort", ((ObjectA) model.toJava(new ByteArrayInputStream(
+                "<up:a xmlns:up=\"http://1\"><name>kort</name></up:a>".getBytes(StandardCharsets.UTF_8)))).getAName());
+        Xb4jUnmarshallException e = assertThrows(Xb4jUnmarshallException.class, () -> model.toJava(XmlStreamFactory.makeReader(
+                new StringReader("<up:a xmlns:up=\"http://1\">\n<name>veel te lang</name></up:a>"))));
+        assertTrue(e.getMessage().contains("line 2"), e.getMessage());
+    }
 }
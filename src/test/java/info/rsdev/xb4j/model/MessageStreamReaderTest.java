@@ -0,0 +1,154 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.model.MessageStreamReader.Framing;
+import info.rsdev.xb4j.test.ObjectA;
+import info.rsdev.xb4j.test.ObjectABindings;
+
+class MessageStreamReaderTest {
+
+    private BindingModel model = null;
+
+    @BeforeEach
+    void setup() {
+        model = new BindingModel();
+        model.registerRoot(ObjectABindings.nameRoot(new QName("urn:a", "a")));
+        model.registerRoot(ObjectABindings.nameRoot(new QName("b"), new QName("naam")));
+    }
+
+    @Test
+    void readConcatenatedMessages() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><a xmlns=\"urn:a\"><name>een</name></a>\n"
+                + "<!-- next --><b><naam>twee</naam></b><?xml version=\"1.0\"?>\n<a xmlns=\"urn:a\"><name>drie</name></a>\n";
+        MessageStreamReader reader = new MessageStreamReader(model, toStream(xml), Framing.CONCATENATED);
+        List<Object> messages = new ArrayList<>();
+        reader.forEachRemaining(messages::add);
+        assertEquals(3, messages.size());
+        assertEquals("een", ((ObjectA) messages.get(0)).getAName());
+        assertEquals("twee", ((ObjectA) messages.get(1)).getAName());
+        assertEquals("drie", ((ObjectA) messages.get(2)).getAName());
+        assertEquals(3, reader.getMessageCount());
+        assertThrows(NoSuchElementException.class, () -> reader.next());
+    }
+
+    @Test
+    void doNotReadBeyondConcatenatedMessage() {
+        byte[] first = bytes("<b><naam>een</naam></b>");
+        GatedStream stream = new GatedStream(first, bytes("<b><naam>twee</naam></b>"));
+        MessageStreamReader reader = new MessageStreamReader(model, stream, Framing.CONCATENATED);
+        assertEquals("een", ((ObjectA) reader.next()).getAName()); // the second chunk is not available yet
+        stream.open = true;
+        assertEquals("twee", ((ObjectA) reader.next()).getAName());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void readLengthPrefixedMessages() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream frames = new DataOutputStream(out);
+        writeFrame(frames, "<a xmlns=\"urn:a\"><name>een</name></a>", StandardCharsets.UTF_8);
+        writeFrame(frames, "<c/>", StandardCharsets.UTF_8); // no binding
+        writeFrame(frames, "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><b><naam>twee é</naam></b>",
+                StandardCharsets.ISO_8859_1);
+        writeFrame(frames, "<b><naam>drie</naam></b>", StandardCharsets.UTF_8);
+        MessageStreamReader reader = new MessageStreamReader(model, new ByteArrayInputStream(out.toByteArray()),
+                Framing.LENGTH_PREFIXED);
+        assertEquals("een", ((ObjectA) reader.next()).getAName());
+        assertThrows(Xb4jException.class, () -> reader.next());
+        assertEquals("twee é", ((ObjectA) reader.next()).getAName());
+        assertEquals("drie", ((ObjectA) reader.next()).getAName());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void failOnTruncatedFrame() {
+        byte[] truncated = new byte[]{0, 0, 0, 20, '<', 'b', '/', '>'};
+        MessageStreamReader reader = new MessageStreamReader(model, new ByteArrayInputStream(truncated),
+                Framing.LENGTH_PREFIXED);
+        assertThrows(Xb4jException.class, () -> reader.hasNext());
+    }
+
+    private static void writeFrame(DataOutputStream frames, String xml, Charset charset) throws IOException {
+        byte[] message = xml.getBytes(charset);
+        frames.writeInt(message.length);
+        frames.write(message);
+    }
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(bytes(xml));
+    }
+
+    private static byte[] bytes(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A stream that has it's first chunk available, but fails when it is read beyond it before it is opened
+     */
+    private static final class GatedStream extends InputStream {
+
+        private final ByteArrayInputStream first;
+
+        private final ByteArrayInputStream second;
+
+        private boolean open = false;
+
+        private GatedStream(byte[] first, byte[] second) {
+            this.first = new ByteArrayInputStream(first);
+            this.second = new ByteArrayInputStream(second);
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (first.available() > 0) {
+                return first.read(target, offset, length);
+            }
+            if (!open) {
+                throw new IllegalStateException("Read beyond the available input");
+            }
+            return second.read(target, offset, length);
+        }
+    }
+
+}
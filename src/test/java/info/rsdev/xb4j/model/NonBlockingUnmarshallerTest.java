@@ -0,0 +1,147 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.test.ObjectA;
+import info.rsdev.xb4j.test.ObjectABindings;
+
+class NonBlockingUnmarshallerTest {
+
+    private static final QName RECORD = new QName("urn:records", "record");
+
+    private XmlStreamer streamer = null;
+
+    @BeforeEach
+    void setup() {
+        streamer = ObjectABindings.nameStreamer(RECORD);
+    }
+
+    @Test
+    void unmarshallDocumentFedByteByByte() throws Exception {
+        NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer);
+        byte[] xml = bytes("<?xml version=\"1.0\"?><!-- <r:record> --><r:record xmlns:r=\"urn:records\" a='/>'>"
+                + "<r:name><![CDATA[a>b]]>é</r:name></r:record>  <next/>");
+        ByteBuffer buffer = ByteBuffer.wrap(xml);
+        int fed = 0;
+        while (!unmarshaller.isComplete()) {
+            buffer.limit(++fed);
+            unmarshaller.feed(buffer);
+        }
+        assertEquals("a>bé", ((ObjectA) unmarshaller.getResult().get()).getAName());
+        assertEquals("  <next/>", new String(xml, buffer.position(), xml.length - buffer.position(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void deliverRecordsWhenTheyAreComplete() throws Exception {
+        List<Object> records = new ArrayList<>();
+        NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer, records::add);
+        unmarshaller.feed(buffer("<r:export xmlns:r=\"urn:records\">\n<r:record><r:name>een</r:name></r:record>\n<r:rec"));
+        assertEquals(1, records.size());
+        unmarshaller.feed(buffer("ord><r:name>twee</r:name></r:record><r:other><r:record/></r:other>"));
+        assertEquals(2, records.size());
+        assertFalse(unmarshaller.isComplete());
+        unmarshaller.feed(buffer("<r:record><r:name>drie</r:name></r:record></r:export>"));
+        assertTrue(unmarshaller.isComplete());
+        assertNull(unmarshaller.getResult().get());
+        assertEquals(3, records.size());
+        assertEquals("een", ((ObjectA) records.get(0)).getAName());
+        assertEquals("twee", ((ObjectA) records.get(1)).getAName());
+        assertEquals("drie", ((ObjectA) records.get(2)).getAName());
+    }
+
+    @Test
+    void readManyRecordsWithBoundedBuffer() {
+        List<Object> records = new ArrayList<>();
+        NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer, records::add);
+        unmarshaller.feed(buffer("<export xmlns=\"urn:records\">"));
+        for (int i = 0; i < 5000; i++) {
+            unmarshaller.feed(buffer("<record><name>naam " + i + "</name></record>"));
+        }
+        unmarshaller.feed(buffer("</export>"));
+        unmarshaller.endOfInput();
+        assertEquals(5000, records.size());
+        assertEquals("naam 4999", ((ObjectA) records.get(4999)).getAName());
+    }
+
+    @Test
+    void readLargeDocumentInChunksThatDoNotAlignWithRecords() {
+        StringBuilder xml = new StringBuilder("<export xmlns=\"urn:records\">");
+        for (int i = 0; i < 2000; i++) {
+            xml.append("<record><name>naam ").append(i).append("</name></record>\n");
+        }
+        byte[] document = bytes(xml.append("</export>").toString());
+        for (int chunkSize : new int[]{7, 100, 1000}) {
+            List<Object> records = new ArrayList<>();
+            NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer, records::add);
+            for (int offset = 0; offset < document.length; offset += chunkSize) {
+                unmarshaller.feed(ByteBuffer.wrap(document, offset, Math.min(chunkSize, document.length - offset)));
+            }
+            unmarshaller.endOfInput();
+            assertEquals(2000, records.size());
+            assertEquals("naam 1999", ((ObjectA) records.get(1999)).getAName());
+        }
+    }
+
+    @Test
+    void completeEmptyRoot() throws Exception {
+        List<Object> records = new ArrayList<>();
+        NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer, records::add);
+        unmarshaller.feed(buffer("<export/>"));
+        assertTrue(unmarshaller.isComplete());
+        assertTrue(records.isEmpty());
+    }
+
+    @Test
+    void failWhenInputEndsTooEarly() {
+        NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer);
+        unmarshaller.feed(buffer("<r:record xmlns:r=\"urn:records\"><r:name>"));
+        assertThrows(Xb4jException.class, () -> unmarshaller.endOfInput());
+        assertTrue(unmarshaller.getResult().isCompletedExceptionally());
+        assertThrows(Xb4jException.class, () -> unmarshaller.feed(buffer("</r:name></r:record>")));
+    }
+
+    @Test
+    void failOnUnexpectedElement() {
+        NonBlockingUnmarshaller unmarshaller = new NonBlockingUnmarshaller(streamer);
+        assertThrows(Xb4jException.class, () -> unmarshaller.feed(buffer("<other/>")));
+        assertTrue(unmarshaller.getResult().isCompletedExceptionally());
+    }
+
+    private static ByteBuffer buffer(String xml) {
+        return ByteBuffer.wrap(bytes(xml));
+    }
+
+    private static byte[] bytes(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
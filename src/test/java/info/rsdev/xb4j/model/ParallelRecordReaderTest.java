@@ -0,0 +1,113 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.test.ObjectA;
+import info.rsdev.xb4j.test.ObjectABindings;
+
+class ParallelRecordReaderTest {
+
+    private static final QName RECORD = new QName("urn:records", "record");
+
+    private XmlStreamer recordStreamer = null;
+
+    private ForkJoinPool pool = null;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setup() {
+        recordStreamer = ObjectABindings.nameStreamer(RECORD);
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    void teardown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void readRecordsInDocumentOrder() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- export -->\n"
+                + "<r:export xmlns:r=\"urn:records\" version=\"2\">\n");
+        for (int i = 0; i < 500; i++) {
+            xml.append("  <r:record><r:name>naam ").append(i).append(" é</r:name></r:record>\n");
+            if (i == 250) {
+                xml.append("  <r:other><r:record/></r:other>\n"); // not a record; skipped
+            }
+        }
+        xml.append("</r:export>\n");
+        Path file = write(xml.toString());
+
+        List<Object> records = new ParallelRecordReader(recordStreamer, 100, pool).toJava(file);
+        assertEquals(500, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals("naam " + i + " é", ((ObjectA) records.get(i)).getAName());
+        }
+    }
+
+    @Test
+    void readRecordsInDefaultNamespace() throws IOException {
+        Path file = write("<export xmlns=\"urn:records\"><record><name>een</name></record><record><name>twee</name></record>"
+                + "</export>");
+        List<Object> records = new ParallelRecordReader(recordStreamer, 1, pool).toJava(file);
+        assertEquals(2, records.size());
+        assertEquals("twee", ((ObjectA) records.get(1)).getAName());
+    }
+
+    @Test
+    void readEmptyRootElement() throws IOException {
+        Path file = write("<r:export xmlns:r=\"urn:records\"/>");
+        assertTrue(new ParallelRecordReader(recordStreamer, 100, pool).toJava(file).isEmpty());
+    }
+
+    @Test
+    void reportInvalidRecord() throws IOException {
+        Path file = write("<r:export xmlns:r=\"urn:records\"><r:record><r:name>een</r:name></r:record>"
+                + "<r:record><r:other/></r:record></r:export>");
+        assertThrows(Xb4jException.class, () -> new ParallelRecordReader(recordStreamer, 1, pool).toJava(file));
+    }
+
+    @Test
+    void recordNamespaceMustBeDeclaredOnRoot() throws IOException {
+        Path file = write("<export><r:record xmlns:r=\"urn:records\"><r:name>een</r:name></r:record></export>");
+        assertThrows(Xb4jException.class, () -> new ParallelRecordReader(recordStreamer, 100, pool).toJava(file));
+    }
+
+    private Path write(String xml) throws IOException {
+        return Files.write(directory.resolve("records.xml"), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,108 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import info.rsdev.xb4j.test.ObjectA;
+import info.rsdev.xb4j.test.ObjectABindings;
+
+class RecordIndexTest {
+
+    private static final QName RECORD = new QName("urn:records", "record");
+
+    private XmlStreamer recordStreamer = null;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setup() {
+        recordStreamer = ObjectABindings.nameStreamer(RECORD);
+    }
+
+    @Test
+    void indexRecordsAndReadThemInAnyOrder() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- <r:record> -->\n"
+                + "<r:export xmlns:r=\"urn:records\">\n");
+        for (int i = 0; i < 300; i++) {
+            xml.append("  <r:record id='").append(i).append("'><r:name>naam ").append(i).append(" é</r:name></r:record>\n");
+            if (i == 100) {
+                xml.append("  <r:other><r:record/></r:other><![CDATA[<r:record>]]>\n"); // not records
+            }
+        }
+        xml.append("</r:export>\n");
+        Path file = write(xml.toString());
+
+        RecordIndex index = RecordIndex.build(file, RECORD);
+        assertEquals(300, index.size());
+        String first = "<r:record id='0'><r:name>naam 0 é</r:name></r:record>";
+        assertEquals(xml.indexOf(first), index.getOffset(0)); // ASCII up to the first record
+        assertEquals(first.getBytes(StandardCharsets.UTF_8).length, index.getLength(0));
+
+        assertEquals("naam 299 é", ((ObjectA) recordStreamer.toJava(file, index, 299)).getAName());
+        assertEquals("naam 101 é", ((ObjectA) recordStreamer.toJava(file, index, 101)).getAName());
+        assertEquals("naam 0 é", ((ObjectA) recordStreamer.toJava(file, index, 0)).getAName());
+        assertThrows(IndexOutOfBoundsException.class, () -> recordStreamer.toJava(file, index, 300));
+    }
+
+    @Test
+    void persistIndexNextToTheFile() throws IOException {
+        Path file = write("<export xmlns=\"urn:records\"><record><name>een</name></record><record/>"
+                + "<record><name>drie</name></record></export>");
+        assertEquals("drie", ((ObjectA) recordStreamer.toJava(file, 2)).getAName());
+        Path indexFile = RecordIndex.indexFileOf(file);
+        assertTrue(Files.isRegularFile(indexFile));
+
+        RecordIndex loaded = RecordIndex.load(indexFile);
+        RecordIndex built = RecordIndex.build(file, RECORD);
+        assertEquals(RECORD, loaded.getRecordElement());
+        assertEquals(built.size(), loaded.size());
+        for (int i = 0; i < built.size(); i++) {
+            assertEquals(built.getOffset(i), loaded.getOffset(i));
+            assertEquals(built.getLength(i), loaded.getLength(i));
+        }
+        assertEquals("een", ((ObjectA) recordStreamer.toJava(file, loaded, 0)).getAName());
+
+        Files.write(file, "<export xmlns=\"urn:records\"><record><name>vier</name></record></export>"
+                .getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        assertFalse(loaded.isCurrent(file));
+        assertEquals("vier", ((ObjectA) recordStreamer.toJava(file, 0)).getAName()); // the outdated index is rebuilt
+        assertTrue(RecordIndex.load(indexFile).isCurrent(file));
+    }
+
+    private Path write(String xml) throws IOException {
+        Path file = directory.resolve("records.xml");
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+}
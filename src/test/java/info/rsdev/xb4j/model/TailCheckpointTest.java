@@ -0,0 +1,125 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.test.ObjectA;
+import info.rsdev.xb4j.test.ObjectABindings;
+
+class TailCheckpointTest {
+
+    private static final QName RECORD = new QName("urn:audit", "entry");
+
+    private XmlStreamer recordStreamer = null;
+
+    private final List<String> names = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setup() {
+        recordStreamer = ObjectABindings.nameStreamer(RECORD);
+    }
+
+    @Test
+    void followFileAsItGrows() throws IOException {
+        Path file = directory.resolve("audit.xml");
+        append(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<a:trail xmlns:a=\"urn:audit\">\n"
+                + "<a:entry><a:name>een</a:name></a:entry>\n<a:entry><a:na");
+        TailCheckpoint checkpoint = follow(file, TailCheckpoint.START);
+        assertEquals("[een]", names.toString());
+        assertFalse(checkpoint.isComplete());
+
+        append(file, "me>twee é</a:name></a:entry>\n<!-- <a:entry> --><a:entry><a:name>drie</a:name></a:entry>");
+        checkpoint = follow(file, checkpoint);
+        assertEquals("[een, twee é, drie]", names.toString());
+        assertEquals(Files.size(file), checkpoint.getOffset());
+
+        assertEquals(checkpoint.getOffset(), follow(file, checkpoint).getOffset()); // nothing is appended
+        assertEquals(3, names.size());
+
+        append(file, "\n<a:entry><a:name>vier</a:name></a:entry>\n</a:trail>\n");
+        checkpoint = follow(file, checkpoint);
+        assertEquals("[een, twee é, drie, vier]", names.toString());
+        assertTrue(checkpoint.isComplete());
+    }
+
+    @Test
+    void resumeFromSavedCheckpoint() throws IOException {
+        Path file = directory.resolve("audit.xml");
+        append(file, "<trail xmlns=\"urn:audit\"><entry><name>een</name></entry>");
+        Path checkpointFile = directory.resolve("audit.checkpoint");
+        follow(file, TailCheckpoint.START).save(checkpointFile);
+
+        append(file, "<entry><name>twee</name></entry><note/>");
+        TailCheckpoint restored = TailCheckpoint.load(checkpointFile);
+        TailCheckpoint checkpoint = follow(file, restored);
+        assertEquals("[een, twee]", names.toString());
+        assertEquals(Files.size(file), checkpoint.getOffset());
+
+        Files.write(file, "<trail/>".getBytes(StandardCharsets.UTF_8)); // truncated
+        assertThrows(Xb4jException.class, () -> follow(file, checkpoint));
+    }
+
+    @Test
+    void followFileLargerThanReadBuffer() throws IOException {
+        Path file = directory.resolve("audit.xml");
+        StringBuilder xml = new StringBuilder("<trail xmlns=\"urn:audit\">");
+        for (int i = 0; i < 5000; i++) {
+            xml.append("<entry><name>entry ").append(i).append("</name></entry>\n");
+        }
+        StringBuilder longName = new StringBuilder();
+        while (longName.length() < 100_000) {
+            longName.append("lang ");
+        }
+        xml.append("<entry><name>").append(longName).append("</name></entry></trail>");
+        append(file, xml.toString());
+
+        TailCheckpoint checkpoint = follow(file, TailCheckpoint.START);
+        assertEquals(5001, names.size());
+        assertEquals("entry 4999", names.get(4999));
+        assertEquals(longName.toString(), names.get(5000));
+        assertTrue(checkpoint.isComplete());
+    }
+
+    private TailCheckpoint follow(Path file, TailCheckpoint checkpoint) {
+        return recordStreamer.follow(file, checkpoint, record -> names.add(((ObjectA) record).getAName()));
+    }
+
+    private static void append(Path file, String xml) throws IOException {
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+}
@@ -0,0 +1,200 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import info.rsdev.xb4j.exceptions.Xb4jException;
+import info.rsdev.xb4j.test.ObjectA;
+import info.rsdev.xb4j.test.ObjectABindings;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
+import info.rsdev.xb4j.util.SaxEventRecorder;
+
+class XmlStreamerTest {
+
+    private static final String XML = "<a xmlns=\"urn:a\"><name>naam é</name></a>";
+
+    private static final String MARSHALLED = "<ns0:a xmlns:ns0=\"urn:a\"><ns0:name>naam é</ns0:name></ns0:a>";
+
+    private XmlStreamer streamer = null;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setup() {
+        streamer = ObjectABindings.nameStreamer(new QName("urn:a", "a"));
+    }
+
+    @Test
+    void readMemoryMappedFile() throws IOException {
+        Path file = directory.resolve("a.xml");
+        Files.write(file, XML.getBytes(StandardCharsets.UTF_8));
+        assertEquals("naam é", ((ObjectA) streamer.toJava(file)).getAName());
+        assertThrows(Xb4jException.class, () -> streamer.toJava(directory.resolve("missing.xml")));
+    }
+
+    @Test
+    void readDirectByteBufferWithoutMovingIt() {
+        byte[] xml = XML.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(xml.length + 2);
+        buffer.put((byte) ' ').put(xml).flip().position(1);
+        assertEquals("naam é", ((ObjectA) streamer.toJava(buffer)).getAName());
+        assertEquals(1, buffer.position());
+
+        ByteBuffer heap = ByteBuffer.wrap(("  " + XML).getBytes(StandardCharsets.UTF_8), 2, xml.length).slice();
+        assertEquals("naam é", ((ObjectA) streamer.toJava(heap)).getAName());
+    }
+
+    @Test
+    void readChannel() {
+        ByteArrayInputStream in = new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8));
+        assertEquals("naam é", ((ObjectA) streamer.toJava(Channels.newChannel(in))).getAName());
+    }
+
+    @Test
+    void writeIntoGrowingByteBuffer() {
+        ByteBuffer small = ByteBuffer.allocateDirect(8);
+        ByteBuffer result = streamer.toXml(small, new ObjectA("naam é"));
+        assertNotSame(small, result);
+        assertTrue(result.isDirect());
+        result.flip();
+        byte[] xml = new byte[result.remaining()];
+        result.get(xml);
+        assertEquals(MARSHALLED, new String(xml, StandardCharsets.UTF_8));
+
+        ByteBuffer large = ByteBuffer.allocate(1024);
+        assertSame(large, streamer.toXml(large, ByteBuffer::allocate, new ObjectA("naam é")));
+        assertEquals(MARSHALLED.getBytes(StandardCharsets.UTF_8).length, large.position());
+    }
+
+    @Test
+    void releaseReplacedBuffersToPool() {
+        StringBuilder name = new StringBuilder();
+        while (name.length() < 1000) {
+            name.append("naam é ");
+        }
+        List<ByteBuffer> allocated = new ArrayList<>();
+        List<ByteBuffer> released = new ArrayList<>();
+        ByteBuffer initial = ByteBuffer.allocate(8);
+        ByteBuffer result = streamer.toXml(initial, (capacity) -> {
+            ByteBuffer pooled = ByteBuffer.allocate(capacity);
+            allocated.add(pooled);
+            return pooled;
+        }, released::add, new ObjectA(name.toString()));
+
+        assertTrue(allocated.size() > 2);
+        assertSame(result, allocated.get(allocated.size() - 1));
+        assertEquals(allocated.size() - 1, released.size());
+        for (int i = 0; i < released.size(); i++) {
+            assertSame(allocated.get(i), released.get(i));
+        }
+    }
+
+    @Test
+    void writeChannel() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamer.toXml(Channels.newChannel(out), new ObjectA("naam é"));
+        assertEquals(MARSHALLED, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writeAndReadGzippedXml() throws IOException {
+        StringBuilder name = new StringBuilder();
+        while (name.length() < 300 * 1024) { // more than one block
+            name.append("naam é ").append(name.length());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamer.toGzippedXml(out, new ObjectA(name.toString()));
+        byte[] compressed = out.toByteArray();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(MARSHALLED.replace("naam é", name), new String(readAll(in), StandardCharsets.UTF_8));
+        }
+
+        Path file = directory.resolve("a.xml.gz");
+        Files.write(file, compressed);
+        assertEquals(name.toString(), ((ObjectA) streamer.toJava(file)).getAName());
+        assertEquals(name.toString(), ((ObjectA) streamer.toJava(ByteBuffer.wrap(compressed))).getAName());
+        assertEquals(name.toString(), ((ObjectA) streamer.getModel().toJava(new ByteArrayInputStream(compressed))).getAName());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void readDomWithoutSerializing() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(
+                "<!-- comment --><a xmlns=\"urn:a\" xmlns:x=\"urn:x\" x:id=\"1\"><name>naam <![CDATA[é]]></name></a>")));
+        assertEquals("naam é", ((ObjectA) streamer.toJava(document)).getAName());
+        assertEquals("naam é", ((ObjectA) streamer.toJava(document.getDocumentElement())).getAName());
+    }
+
+    @Test
+    void readSaxEventsAndCapturedTape() throws Exception {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader saxReader = factory.newSAXParser().getXMLReader();
+        SaxEventRecorder recorder = new SaxEventRecorder();
+        saxReader.setContentHandler(recorder);
+        saxReader.parse(new InputSource(new StringReader(XML)));
+        List<ParseEventData> events = new ArrayList<>(recorder.getEvents());
+        assertEquals(5, events.size());
+        assertEquals("naam é", ((ObjectA) streamer.toJava(events)).getAName());
+        assertEquals("naam é", ((ObjectA) streamer.toJava(events)).getAName()); // a tape can be played again
+
+        assertEquals("naam é", ((ObjectA) streamer.toJava(new SAXSource(new InputSource(new StringReader(XML)))))
+                .getAName());
+    }
+
+}
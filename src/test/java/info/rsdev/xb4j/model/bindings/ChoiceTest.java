@@ -17,6 +17,10 @@ package info.rsdev.xb4j.model.bindings;
 import static info.rsdev.xb4j.model.bindings.SchemaOptions.NILLABLE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.xmlunit.assertj3.XmlAssert.assertThat;
 
 import java.io.ByteArrayInputStream;
@@ -31,6 +35,7 @@ import javax.xml.stream.XMLStreamWriter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import info.rsdev.xb4j.exceptions.Xb4jUnmarshallException;
 import info.rsdev.xb4j.model.bindings.chooser.ContextInstanceOf;
 import info.rsdev.xb4j.model.converter.IntegerConverter;
 import info.rsdev.xb4j.model.java.JavaContext;
@@ -146,4 +151,69 @@ class ChoiceTest {
 
         assertThat(writer.toString()).and("<elem><option>some_name</option></elem>").areIdentical();
     }
+
+    @Test
+    void selectOptionByNextElementWithoutTryingOtherOptions() throws Exception {
+        Root root = new Root(new QName("root"), ObjectA.class);
+        Choice indexedChoice = root.setChild(new Choice(false));
+        SimpleType first = spy(new SimpleType(new QName("elem1"), false));
+        SimpleType second = spy(new SimpleType(new QName("elem2"), false));
+        indexedChoice.addOption(first, "name", new ContextInstanceOf(ObjectA.class));
+        indexedChoice.addOption(second, "name", new ContextInstanceOf(ObjectA.class));
+        root.makeImmutable();
+
+        ObjectA instance = UnmarshallUtils.unmarshall(root, ObjectA.class, "<root><elem2>test</elem2></root>");
+        assertEquals("test", instance.getAName());
+        verify(first, never()).toJava(any(), any());
+    }
+
+    @Test
+    void tryOptionsInOrderWhenFirstElementsOverlap() throws Exception {
+        Root root = new Root(new QName("root"), ObjectA.class);
+        Choice indexedChoice = root.setChild(new Choice(false));
+        SimpleType other = spy(new SimpleType(new QName("other"), false));
+        indexedChoice.addOption(other, "name", new ContextInstanceOf(ObjectA.class));
+        Sequence first = indexedChoice.addOption(new Sequence(false), new ContextInstanceOf(ObjectA.class));
+        first.add(new SimpleType(new QName("optional"), true), "name");
+        first.add(new SimpleType(new QName("elem"), false), "name");
+        SimpleType second = spy(new SimpleType(new QName("elem"), false));
+        indexedChoice.addOption(second, "name", new ContextInstanceOf(ObjectA.class));
+        root.makeImmutable();
+
+        ObjectA instance = UnmarshallUtils.unmarshall(root, ObjectA.class, "<root><elem>test</elem></root>");
+        assertEquals("test", instance.getAName());
+        verify(other, never()).toJava(any(), any());
+        verify(second, never()).toJava(any(), any());
+    }
+
+    @Test
+    void unmarshallTheSameWhetherMemoizingOrNot() throws Exception {
+        Root root = new Root(new QName("root"), ObjectA.class);
+        Choice overlappingChoice = root.setChild(new Choice(false));
+        Sequence first = overlappingChoice.addOption(new Sequence(false), new ContextInstanceOf(ObjectA.class));
+        first.add(new SimpleType(new QName("elem"), false), "name");
+        first.add(new Ignore(new QName("a"), false));
+        Sequence second = overlappingChoice.addOption(new Sequence(false), new ContextInstanceOf(ObjectA.class));
+        second.add(new SimpleType(new QName("elem"), false), "name");
+        second.add(new Ignore(new QName("b"), false));
+        root.makeImmutable();
+
+        for (String xml : new String[] {"<root><elem>test</elem><a/></root>", "<root><elem>test</elem><b/></root>"}) {
+            assertEquals(unmarshall(root, xml, false), unmarshall(root, xml, true), xml);
+        }
+    }
+
+    private static String unmarshall(Root root, String xml, boolean memoizing) throws Exception {
+        RecordAndPlaybackXMLStreamReader staxReader = UnmarshallUtils.getStaxReader(xml);
+        staxReader.setMemoizing(memoizing);
+        try {
+            UnmarshallResult result = root.toJava(staxReader, new JavaContext(null));
+            if (result.isError()) {
+                return result.toString();
+            }
+            return ((ObjectA) result.getUnmarshalledObject()).getAName();
+        } catch (Xb4jUnmarshallException e) {
+            return e.getMessage();
+        }
+    }
 }
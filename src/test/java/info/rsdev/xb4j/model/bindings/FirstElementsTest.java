@@ -0,0 +1,83 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.model.bindings;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.Test;
+
+import info.rsdev.xb4j.model.BindingModel;
+import info.rsdev.xb4j.test.ObjectA;
+
+class FirstElementsTest {
+
+    @Test
+    void elementBindingStartsWithItsElement() {
+        FirstElements firstElements = FirstElements.of(new SimpleType(new QName("elem"), true));
+        assertEquals(new HashSet<>(Arrays.asList(new QName("elem"))), firstElements.getElements());
+        assertTrue(firstElements.isOptional());
+        assertFalse(firstElements.matchesEmpty());
+    }
+
+    @Test
+    void followOptionalChildrenOfSequence() {
+        Sequence sequence = new Sequence(false);
+        sequence.add(new SimpleType(new QName("first"), true));
+        sequence.add(new SimpleType(new QName("second"), false));
+        sequence.add(new SimpleType(new QName("third"), false));
+
+        FirstElements firstElements = FirstElements.of(sequence);
+        assertEquals(new HashSet<>(Arrays.asList(new QName("first"), new QName("second"))), firstElements.getElements());
+        assertFalse(firstElements.isOptional());
+        assertFalse(firstElements.matchesEmpty());
+    }
+
+    @Test
+    void sequenceWithOnlyOptionalChildrenMatchesEmpty() {
+        Sequence sequence = new Sequence(false);
+        sequence.add(new SimpleType(new QName("first"), true));
+        assertTrue(FirstElements.of(sequence).matchesEmpty());
+    }
+
+    @Test
+    void followReferenceToComplexType() {
+        BindingModel model = new BindingModel();
+        Root root = new Root(new QName("root"), ObjectA.class);
+        Reference reference = root.setChild(new Reference("identifier", "namespace", false));
+        model.registerRoot(root);
+        ComplexType type = new ComplexType("identifier", "namespace", false);
+        type.setChild(new SimpleType(new QName("name"), false), "name");
+        model.registerComplexType(type, false);
+
+        assertEquals(new HashSet<>(Arrays.asList(new QName("name"))), FirstElements.of(reference).getElements());
+    }
+
+    @Test
+    void unknownWhenBindingCannotBeAnalyzed() {
+        assertFalse(FirstElements.of(new Repeater(false)).isKnown()); // no item binding
+
+        Sequence sequence = new Sequence(false);
+        sequence.add(new Repeater(false));
+        assertFalse(FirstElements.of(sequence).isKnown());
+    }
+
+}
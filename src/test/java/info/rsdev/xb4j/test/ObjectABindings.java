@@ -0,0 +1,67 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.test;
+
+import javax.xml.namespace.QName;
+
+import info.rsdev.xb4j.model.BindingModel;
+import info.rsdev.xb4j.model.XmlStreamer;
+import info.rsdev.xb4j.model.bindings.Root;
+import info.rsdev.xb4j.model.bindings.SimpleType;
+
+/**
+ * Boilerplate bindings of {@link ObjectA}, for tests that are about reading and writing documents rather than about bindings.
+ *
+ * @author Dave Schoorl
+ */
+public interface ObjectABindings {
+
+    /**
+     * Create a {@link Root} that binds the given element to an {@link ObjectA}, with the name in a child element "name" in the
+     * same namespace
+     *
+     * @param element the root element
+     * @return a new {@link Root}, that is not registered with a {@link BindingModel}
+     */
+    static Root nameRoot(QName element) {
+        return nameRoot(element, new QName(element.getNamespaceURI(), "name"));
+    }
+
+    /**
+     * Create a {@link Root} that binds the given element to an {@link ObjectA}, with the name in the given child element
+     *
+     * @param element the root element
+     * @param nameElement the child element that holds the name
+     * @return a new {@link Root}, that is not registered with a {@link BindingModel}
+     */
+    static Root nameRoot(QName element, QName nameElement) {
+        Root root = new Root(element, ObjectA.class);
+        root.setChild(new SimpleType(nameElement, false), "name");
+        return root;
+    }
+
+    /**
+     * Register a {@link #nameRoot(QName)} with a new {@link BindingModel} and get it's {@link XmlStreamer}
+     *
+     * @param element the root element
+     * @return the {@link XmlStreamer} for the element
+     */
+    static XmlStreamer nameStreamer(QName element) {
+        BindingModel model = new BindingModel();
+        model.registerRoot(nameRoot(element));
+        return model.getXmlStreamer(ObjectA.class, element);
+    }
+
+}
@@ -0,0 +1,80 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelGzipOutputStreamTest {
+
+    @Test
+    void compressToSingleGzipMember() throws IOException {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(42);
+        while (text.length() < 200_000) {
+            text.append("<record id=\"").append(random.nextInt(1000)).append("\">tekst</record>\n");
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int blockSize : new int[]{100, 1000, 40_000, data.length, 1 << 20}) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out, blockSize, Deflater.BEST_SPEED, pool)) {
+                    gzip.write(data, 0, 17);
+                    gzip.write(data[17]);
+                    gzip.flush();
+                    gzip.write(data, 18, data.length - 18);
+                }
+                assertArrayEquals(data, gunzip(out.toByteArray()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void compressEmptyStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out);
+        gzip.finish();
+        assertArrayEquals(new byte[0], gunzip(out.toByteArray()));
+        assertThrows(IOException.class, () -> gzip.write(1));
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,193 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.jupiter.api.Test;
+
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.Marker;
+
+class PipelinedTokenizerTest {
+
+    @Test
+    void publishSameEventsAsSource() throws XMLStreamException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<item nr=\"").append(i).append("\">tekst ").append(i).append("</item>");
+        }
+        xml.append("</root>");
+        XmlTokenizer expected = makeTokenizer(xml.toString());
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(makeTokenizer(xml.toString()), 4, Thread::new);
+        try {
+            int eventType;
+            do {
+                eventType = expected.next();
+                assertEquals(eventType, pipeline.next());
+                if (eventType == START_ELEMENT) {
+                    assertEquals(expected.getName(), pipeline.getName());
+                    assertEquals(expected.getAttributeCount(), pipeline.getAttributeCount());
+                    for (int i = 0; i < expected.getAttributeCount(); i++) {
+                        assertEquals(expected.getAttributeName(i), pipeline.getAttributeName(i));
+                        assertEquals(expected.getAttributeValue(i), pipeline.getAttributeValue(i));
+                    }
+                } else if (eventType == CHARACTERS) {
+                    assertEquals(expected.getText(), pipeline.getText());
+                }
+                assertEquals(expected.getLocation().getLineNumber(), pipeline.getLocation().getLineNumber());
+                assertEquals(expected.getLocation().getColumnNumber(), pipeline.getLocation().getColumnNumber());
+            } while (eventType != END_DOCUMENT);
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void rethrowExceptionOfSourceAtFailingEvent() throws XMLStreamException {
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(makeTokenizer("<root><child></root>"));
+        try {
+            assertEquals(START_ELEMENT, pipeline.next());
+            assertEquals(START_ELEMENT, pipeline.next());
+            assertThrows(XMLStreamException.class, () -> pipeline.next());
+            assertThrows(XMLStreamException.class, () -> pipeline.next());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void closeStopsTokenizerThread() throws XMLStreamException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<item/>");
+        }
+        xml.append("</root>");
+        AtomicReference<Thread> tokenizerThread = new AtomicReference<>();
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(makeTokenizer(xml.toString()), 2, (runnable) -> {
+            tokenizerThread.set(new Thread(runnable));
+            return tokenizerThread.get();
+        });
+        assertEquals(START_ELEMENT, pipeline.next());
+        pipeline.close();
+        assertFalse(tokenizerThread.get().isAlive());
+        assertThrows(XMLStreamException.class, () -> pipeline.next());
+    }
+
+    @Test
+    void closeInterruptsTokenizerThreadThatWaitsForSource() throws Exception {
+        CountDownLatch neverReleased = new CountDownLatch(1);
+        XmlTokenizer stalledSource = mock(XmlTokenizer.class);
+        when(stalledSource.next()).thenAnswer((invocation) -> {
+            neverReleased.await();
+            return END_DOCUMENT;
+        });
+        AtomicReference<Thread> tokenizerThread = new AtomicReference<>();
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(stalledSource, 2, (runnable) -> {
+            tokenizerThread.set(new Thread(runnable));
+            return tokenizerThread.get();
+        });
+        assertTimeoutPreemptively(Duration.ofSeconds(10), pipeline::close);
+        tokenizerThread.get().join(1000);
+        assertFalse(tokenizerThread.get().isAlive());
+    }
+
+    @Test
+    void closeDoesNotHangOnUninterruptibleSource() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        XmlTokenizer stalledSource = mock(XmlTokenizer.class);
+        when(stalledSource.next()).thenAnswer((invocation) -> {
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // like a blocking socket read, that is not interrupted
+                }
+            }
+            return END_DOCUMENT;
+        });
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(stalledSource);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), pipeline::close);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void doNotCopyLocationsWithoutLocationTracking() throws XMLStreamException {
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(makeTokenizer("<root/>"), LocationTracking.NONE);
+        try {
+            assertEquals(START_ELEMENT, pipeline.next());
+            assertNull(pipeline.getLocation());
+        } finally {
+            pipeline.close();
+        }
+        pipeline = new PipelinedTokenizer(makeTokenizer("<root/>"), LocationTracking.LINE_COLUMN);
+        try {
+            assertEquals(START_ELEMENT, pipeline.next());
+            assertNotNull(pipeline.getLocation());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void rewindRecordingsOnConsumingSide() throws XMLStreamException {
+        PipelinedTokenizer pipeline = new PipelinedTokenizer(makeTokenizer("<root><first>1</first><second>2</second></root>"),
+                2, Thread::new);
+        try {
+            RecordAndPlaybackXMLStreamReader staxReader = new RecordAndPlaybackXMLStreamReader(pipeline, LocationTracking.FULL,
+                    null, RecordingBudget.UNLIMITED);
+            assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+            Marker marker = staxReader.startRecording();
+            assertTrue(staxReader.isNextAnElementStart(new QName("first")));
+            assertEquals("1", staxReader.getElementText());
+            assertTrue(staxReader.isNextAnElementEnd(new QName("first")));
+            assertTrue(staxReader.isNextAnElementStart(new QName("second")));
+            staxReader.rewindAndPlayback(marker);
+            assertTrue(staxReader.isNextAnElementStart(new QName("first")));
+            assertEquals("1", staxReader.getElementText());
+            assertTrue(staxReader.isNextAnElementEnd(new QName("first")));
+            assertTrue(staxReader.isNextAnElementStart(new QName("second")));
+            assertEquals("2", staxReader.getElementText());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private static XmlTokenizer makeTokenizer(String xml) {
+        return XmlStreamFactory.makeTokenizer(XmlStreamFactory.makeReader(new StringReader(xml)));
+    }
+
+}
@@ -0,0 +1,107 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.jupiter.api.Test;
+
+class QNameTableTest {
+
+    @Test
+    void internReturnsSameInstanceForSameName() {
+        QNameTable table = new QNameTable();
+        QName first = table.intern("urn:test", "name");
+        assertSame(first, table.intern("urn:test", "name"));
+        assertEquals(new QName("urn:test", "name"), first);
+        assertSame(table.intern(null, "name"), table.intern("", "name"));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void adoptedNameBecomesCanonical() {
+        QNameTable table = new QNameTable();
+        table.intern("urn:test", "name");
+        QName bound = new QName("urn:test", "name", "tst");
+        table.adopt(bound);
+        assertSame(bound, table.intern("urn:test", "name"));
+    }
+
+    @Test
+    void firstAdoptedNameStaysCanonical() {
+        QNameTable table = new QNameTable();
+        QName first = new QName("urn:test", "name");
+        QName second = new QName("urn:test", "name");
+        table.adopt(first);
+        table.adopt(second);
+        assertSame(first, table.intern("urn:test", "name"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void adoptNamesAnywhereInTheTable() {
+        QNameTable table = new QNameTable();
+        QName[] interned = new QName[500];
+        for (int i = 0; i < interned.length; i++) {
+            interned[i] = table.intern("urn:test", "name" + i);
+        }
+        QName[] adopted = new QName[interned.length];
+        for (int i = 0; i < interned.length; i += 3) {
+            adopted[i] = new QName("urn:test", "name" + i);
+            table.adopt(adopted[i]);
+        }
+        for (int i = 0; i < interned.length; i++) {
+            assertSame(adopted[i] == null ? interned[i] : adopted[i], table.intern("urn:test", "name" + i));
+        }
+        assertEquals(interned.length, table.size());
+    }
+
+    @Test
+    void doNotGrowBeyondMaximumSize() {
+        QNameTable table = new QNameTable(100);
+        for (int i = 0; i < 200; i++) {
+            table.intern("urn:test", "name" + i);
+        }
+        assertEquals(100, table.size());
+        assertEquals(new QName("urn:test", "name150"), table.intern("urn:test", "name150"));
+        assertNotSame(table.intern("urn:test", "name150"), table.intern("urn:test", "name150"));
+    }
+
+    @Test
+    void readerNamesElementsWithCanonicalInstances() throws XMLStreamException {
+        QNameTable table = new QNameTable();
+        QName root = new QName("urn:test", "root");
+        QName child = new QName("urn:test", "child");
+        table.adopt(root);
+        RecordAndPlaybackXMLStreamReader staxReader = new RecordAndPlaybackXMLStreamReader(XmlStreamFactory.makeReader(
+                new StringReader("<t:root xmlns:t=\"urn:test\"><t:child/></t:root>")), LocationTracking.FULL, table);
+        try {
+            staxReader.nextTag();
+            assertSame(root, staxReader.getName());
+            assertTrue(staxReader.isNextAnElementStart(child)); // equal names match, but are not adopted while reading
+            assertNotSame(child, table.intern("urn:test", "child"));
+        } finally {
+            staxReader.close(true);
+        }
+    }
+}
@@ -18,10 +18,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -30,8 +35,11 @@ import javax.xml.stream.XMLStreamReader;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import info.rsdev.xb4j.exceptions.Xb4jUnmarshallException;
 import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.Marker;
+import info.rsdev.xb4j.util.RecordAndPlaybackXMLStreamReader.ParseEventData;
 
 public class RecordAndPlaybackXMLStreamReaderTest {
 
@@ -86,6 +94,9 @@ public class RecordAndPlaybackXMLStreamReaderTest {
         assertEquals("root", staxReader.getName().getLocalPart());
 
         Marker level1Marker = staxReader.startRecording();
+        assertTrue(startMarker.isAtHead());
+        assertFalse(level1Marker.isAtHead());
+        assertEquals(startMarker.getPosition() + 1, level1Marker.getPosition());
         assertEquals(XMLStreamReader.START_ELEMENT, staxReader.nextTag());
         assertEquals("level1", staxReader.getName().getLocalPart());
 
@@ -156,6 +167,10 @@ public class RecordAndPlaybackXMLStreamReaderTest {
         assertEquals(2, attributes.size());
         assertEquals("test", attributes.get(new QName("name")));
         assertEquals("string", attributes.get(new QName("http://test/ns", "type")));
+        assertTrue(staxReader.hasAttributes());
+        assertEquals("test", staxReader.getAttributeValue(new QName("name")));
+        assertEquals("string", staxReader.getAttributeValue(new QName("http://test/ns", "type")));
+        assertNull(staxReader.getAttributeValue(new QName("type")));
 
         //re-read the element with the attributes
         staxReader.rewindAndPlayback(startMarker);
@@ -203,6 +218,271 @@ public class RecordAndPlaybackXMLStreamReaderTest {
         assertEquals(root, staxReader.getName());
     }
 
+    @Test
+    public void skipElementWithoutRecording() throws XMLStreamException {
+        QName skipped = new QName("skipped");
+        staxReader = makeReader("<root><skipped><level1>Dit is tekst<level2/></level1></skipped><next/></root>");
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(skipped));
+        staxReader.skipElement();
+        assertEquals(XMLStreamReader.END_ELEMENT, staxReader.getEvent());
+        assertEquals(skipped, staxReader.getName());
+        assertTrue(staxReader.isNextAnElementStart(new QName("next")));
+    }
+
+    @Test
+    public void skipElementWhileRecordingCanBeReplayed() throws XMLStreamException {
+        QName skipped = new QName("skipped");
+        staxReader = makeReader("<skipped><level1><level2/></level1></skipped>");
+        Marker marker = staxReader.startRecording();
+        assertTrue(staxReader.isNextAnElementStart(skipped));
+        staxReader.skipElement();
+        assertEquals(skipped, staxReader.getName());
+        staxReader.rewindAndPlayback(marker);
+        assertTrue(staxReader.isNextAnElementStart(skipped));
+        assertTrue(staxReader.isNextAnElementStart(new QName("level1")));
+    }
+
+    @Test
+    public void streamLargeElementContentInCharset() throws XMLStreamException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 8191; i++) {
+            content.append('a');
+        }
+        content.append("\ud83d\ude00"); // surrogate pair that is split over two chunks
+        for (int i = 0; i < 20000; i++) {
+            content.append((i % 2 == 0) ? '\u00eb' : 'x');
+        }
+        QName file = new QName("file");
+        staxReader = makeReader("<file>" + content + "<![CDATA[<cdata>]]>&amp;</file>");
+        assertTrue(staxReader.isNextAnElementStart(file));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        staxReader.elementContentToOutputStream(out, StandardCharsets.UTF_8);
+        assertEquals(content + "<cdata>&", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(staxReader.isNextAnElementEnd(file));
+
+        staxReader = makeReader("<file>D\u00e9j\u00e0 vu</file>");
+        assertTrue(staxReader.isNextAnElementStart(file));
+        out = new ByteArrayOutputStream();
+        staxReader.elementContentToOutputStream(out, StandardCharsets.ISO_8859_1);
+        assertEquals("D\u00e9j\u00e0 vu", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void rewindOverRecordingsThatExceedTheMemoryBudget(@TempDir Path spillDirectory) throws XMLStreamException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 200; i++) {
+            xml.append("<item id=\"").append(i).append("\">Item ").append(i).append("</item>");
+        }
+        xml.append("</root>");
+        XMLStreamReader myReader = XmlStreamFactory.makeReader(new StringReader(xml.toString()));
+        staxReader = new RecordAndPlaybackXMLStreamReader(myReader, LocationTracking.LINE_COLUMN, null,
+                RecordingBudget.of(2048, spillDirectory.toFile()));
+
+        QName root = new QName("root");
+        QName item = new QName("item");
+        Marker marker = staxReader.startRecording();
+        assertTrue(staxReader.isNextAnElementStart(root));
+        for (int i = 0; i < 200; i++) {
+            assertTrue(staxReader.isNextAnElementStart(item));
+            assertEquals("Item " + i, staxReader.getElementText());
+            assertTrue(staxReader.isNextAnElementEnd(item));
+        }
+        File[] spillFiles = spillDirectory.toFile().listFiles();
+        assertEquals(1, spillFiles.length);
+
+        staxReader.rewindAndPlayback(marker);
+        staxReader.stopRecording(marker);
+        assertTrue(staxReader.isNextAnElementStart(root));
+        for (int i = 0; i < 200; i++) {
+            assertTrue(staxReader.isNextAnElementStart(item));
+            assertEquals(String.valueOf(i), staxReader.getAttributeValue(new QName("id")));
+            assertEquals(1, staxReader.getLocation().getLineNumber());
+            assertEquals("Item " + i, staxReader.getElementText());
+            assertTrue(staxReader.isNextAnElementEnd(item));
+        }
+        assertTrue(staxReader.isNextAnElementEnd(root));
+
+        staxReader.close();
+        assertEquals(0, spillDirectory.toFile().listFiles().length);
+    }
+
+    @Test
+    public void rewindOverMoreEventsThanInitialTapeCapacity() throws XMLStreamException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<item>").append(i).append("</item>");
+        }
+        xml.append("</root>");
+        staxReader = makeReader(xml.toString());
+        assertEquals(XMLStreamReader.START_ELEMENT, staxReader.nextTag());
+
+        Marker contentsOfRoot = staxReader.startRecording();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(XMLStreamReader.START_ELEMENT, staxReader.nextTag());
+            assertEquals(String.valueOf(i), staxReader.getElementText());
+            assertEquals(XMLStreamReader.END_ELEMENT, staxReader.nextTag());
+        }
+        staxReader.rewindAndPlayback(contentsOfRoot);
+        assertFalse(staxReader.isRecording());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(staxReader.isNextAnElementStart(new QName("item")));
+            assertEquals(String.valueOf(i), staxReader.getElementText());
+            assertTrue(staxReader.isNextAnElementEnd(new QName("item")));
+        }
+        assertTrue(staxReader.isNextAnElementEnd(new QName("root")));
+    }
+
+    @Test
+    public void markerStaysObsoleteWhenNewMarkerIsPublishedAtSameDepth() throws XMLStreamException {
+        staxReader = makeReader("<root><level1><level2/></level1></root>");
+
+        Marker startMarker = staxReader.startRecording();
+        assertEquals(XMLStreamReader.START_ELEMENT, staxReader.nextTag());
+        Marker level1Marker = staxReader.startRecording();
+        staxReader.stopRecording(level1Marker);
+        Marker otherMarker = staxReader.startRecording();
+
+        assertTrue(staxReader.isMarkerObsolete(level1Marker));
+        assertFalse(staxReader.isMarkerObsolete(otherMarker));
+        assertFalse(staxReader.isMarkerObsolete(startMarker));
+    }
+
+    @Test
+    public void peekLeavesNextTagInPlace() throws XMLStreamException {
+        staxReader = makeReader("<root><child>Dit is tekst</child></root>");
+        assertEquals(XMLStreamReader.START_ELEMENT, staxReader.nextTag());
+
+        ParseEventData next = staxReader.peekTag();
+        assertEquals(XMLStreamReader.START_ELEMENT, next.getEventType());
+        assertEquals(new QName("child"), next.getName());
+        assertEquals(new QName("root"), staxReader.getName());
+        assertFalse(staxReader.isRecording());
+
+        assertFalse(staxReader.isNextAnElementEnd(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertEquals("Dit is tekst", staxReader.getElementText());
+    }
+
+    @Test
+    public void trackLineAndColumnOnly() throws XMLStreamException {
+        XMLStreamReader myReader = XmlStreamFactory.makeReader(new StringReader("<root>\n  <child/>\n</root>"));
+        staxReader = new RecordAndPlaybackXMLStreamReader(myReader, LocationTracking.LINE_COLUMN);
+        Marker startMarker = staxReader.startRecording();
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        int line = staxReader.getLocation().getLineNumber();
+        assertEquals(2, line);
+
+        staxReader.rewindAndPlayback(startMarker);
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertEquals(line, staxReader.getLocation().getLineNumber());
+    }
+
+    @Test
+    public void fallbackToStreamLocationWhenNotTracked() throws XMLStreamException {
+        XMLStreamReader myReader = XmlStreamFactory.makeReader(new StringReader("<root><child/></root>"));
+        staxReader = new RecordAndPlaybackXMLStreamReader(myReader, LocationTracking.NONE);
+        assertNull(staxReader.getLocation());
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertNotNull(staxReader.getLocation());
+    }
+
+    @Test
+    public void readTextAfterPeekingPastPrettyPrintedContainers() throws XMLStreamException {
+        staxReader = makeReader("<root>\n  <child>Dit is<!--comment--> tekst</child>\n</root>");
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        Marker startMarker = staxReader.startRecording();
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertFalse(staxReader.isNextAnElementStart(new QName("other")));
+        assertEquals("Dit is tekst", staxReader.getElementText());
+        assertTrue(staxReader.isNextAnElementEnd(new QName("child")));
+
+        staxReader.rewindAndPlayback(startMarker);
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertEquals("Dit is tekst", staxReader.getElementText());
+        assertTrue(staxReader.isNextAnElementEnd(new QName("child")));
+        assertTrue(staxReader.isNextAnElementEnd(new QName("root")));
+    }
+
+    @Test
+    public void failFastWhenReaderLimitsAreExceeded() throws XMLStreamException {
+        staxReader = makeReader("<root><a><b><c/></b></a></root>");
+        staxReader.setLimits(ReaderLimits.UNLIMITED.withMaxDepth(3));
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("a")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("b")));
+        assertThrows(Xb4jUnmarshallException.class, () -> staxReader.isNextAnElementStart(new QName("c")));
+
+        staxReader = makeReader("<root><child>Dit is een te lange tekst</child></root>");
+        staxReader.setLimits(ReaderLimits.UNLIMITED.withMaxTextLength(10));
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertThrows(Xb4jUnmarshallException.class, () -> staxReader.getElementText());
+
+        staxReader = makeReader("<root><a><b/><b/></a></root>");
+        staxReader.setLimits(ReaderLimits.UNLIMITED.withMaxElements(3));
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("a")));
+        assertThrows(Xb4jUnmarshallException.class, () -> staxReader.skipElement()); // skipping reads the raw stream
+
+        staxReader = makeReader("<root a=\"1\" b=\"2\"/>");
+        staxReader.setLimits(ReaderLimits.UNLIMITED.withMaxAttributes(1));
+        assertThrows(Xb4jUnmarshallException.class, () -> staxReader.isNextAnElementStart(new QName("root")));
+    }
+
+    @Test
+    public void limitEventsRecordedForMarker() throws XMLStreamException {
+        staxReader = makeReader("<root><a/><a/><a/><a/></root>");
+        staxReader.setLimits(ReaderLimits.UNLIMITED.withMaxRecordedEvents(4));
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        Marker marker = staxReader.startRecording();
+        assertTrue(staxReader.isNextAnElementStart(new QName("a")));
+        assertTrue(staxReader.isNextAnElementEnd(new QName("a")));
+        staxReader.stopRecording(marker);
+        for (int i = 0; i < 3; i++) { // without a marker, nothing is retained
+            assertTrue(staxReader.isNextAnElementStart(new QName("a")));
+            assertTrue(staxReader.isNextAnElementEnd(new QName("a")));
+        }
+
+        staxReader = makeReader("<root><a/><a/><a/><a/></root>");
+        staxReader.setLimits(ReaderLimits.UNLIMITED.withMaxRecordedEvents(4));
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        staxReader.startRecording();
+        assertThrows(Xb4jUnmarshallException.class, () -> {
+            for (int i = 0; i < 4; i++) {
+                staxReader.isNextAnElementStart(new QName("a"));
+                staxReader.isNextAnElementEnd(new QName("a"));
+            }
+        });
+    }
+
+    @Test
+    public void recallMemoizedOutcomeAfterRewind() throws XMLStreamException {
+        staxReader = makeReader("<root><child>Dit is tekst</child><other/></root>");
+        staxReader.setMemoizing(true);
+        Object owner = new Object();
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertEquals(-1, staxReader.getMemoPosition()); // nothing is recorded, so nothing can be memoized
+
+        Marker startMarker = staxReader.startRecording();
+        long position = staxReader.getMemoPosition();
+        assertNull(staxReader.recall(owner));
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertEquals("Dit is tekst", staxReader.getElementText());
+        assertTrue(staxReader.isNextAnElementEnd(new QName("child")));
+        staxReader.memoize(owner, position, "child read");
+
+        staxReader.rewindAndPlayback(startMarker);
+        assertNull(staxReader.recall(new Object()));
+        assertEquals("child read", staxReader.recall(owner));
+        assertEquals(new QName("child"), staxReader.getName()); // positioned after the end of child
+        assertTrue(staxReader.isNextAnElementStart(new QName("other")));
+        assertNull(staxReader.recall(owner));
+    }
+
     private RecordAndPlaybackXMLStreamReader makeReader(String snippet) throws XMLStreamException {
         XMLStreamReader myReader = XmlStreamFactory.makeReader(new StringReader(snippet));
         return new RecordAndPlaybackXMLStreamReader(myReader);
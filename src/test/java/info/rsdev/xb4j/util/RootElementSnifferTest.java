@@ -0,0 +1,52 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.Test;
+
+class RootElementSnifferTest {
+
+    @Test
+    void sniffRootElementAfterProlog() {
+        assertEquals(new QName("urn:a", "root"), sniff("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- <other> -->"
+                + "<!DOCTYPE a:root [<!ELEMENT a:root ANY>]><?pi data?>\n<a:root id='1' xmlns:a=\"urn:a\">"));
+        assertEquals(new QName("urn:default", "root"), sniff("<root\n xmlns=\"urn:default\" xmlns:b='urn:b'/>"));
+        assertEquals(new QName("root"), sniff("<root a=\"x>y\">"));
+        assertEquals(new QName("rööt"), sniff("<rööt>"));
+    }
+
+    @Test
+    void returnNullWhenRootCannotBeDetermined() {
+        assertNull(sniff("<?xml version=\"1.0\"?><!-- comment"));
+        assertNull(sniff("<root xmlns=\"urn:incompl"));
+        assertNull(sniff("<a:root>"));
+        assertNull(sniff("tekst<root/>"));
+        byte[] utf16 = "<root/>".getBytes(StandardCharsets.UTF_16);
+        assertNull(RootElementSniffer.sniff(utf16, 0, utf16.length));
+    }
+
+    private static QName sniff(String xml) {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        return RootElementSniffer.sniff(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,76 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.jupiter.api.Test;
+
+class StaxFactoriesTest {
+
+    @Test
+    void createFactoriesOnce() {
+        StaxFactories factories = StaxFactories.DEFAULT.withNamespaceAware(true);
+        assertSame(factories.getInputFactory(), factories.getInputFactory());
+        assertSame(factories.getOutputFactory(), factories.getOutputFactory());
+        assertNotSame(factories.getInputFactory(), StaxFactories.DEFAULT.getInputFactory());
+    }
+
+    @Test
+    void configureFactories() throws Exception {
+        StaxFactories factories = StaxFactories.DEFAULT.withCoalescing(true).withSupportDtd(false)
+                .withInputProperty("org.example.unsupported.bufferSize", 8192);
+        XMLInputFactory inputFactory = factories.getInputFactory();
+        assertEquals(Boolean.TRUE, inputFactory.getProperty(XMLInputFactory.IS_COALESCING));
+        assertEquals(Boolean.FALSE, inputFactory.getProperty(XMLInputFactory.SUPPORT_DTD));
+        assertEquals(Boolean.TRUE, factories.withRepairingNamespaces(true).getOutputFactory().getProperty(
+                XMLOutputFactory.IS_REPAIRING_NAMESPACES));
+
+        XMLStreamReader staxReader = factories.createReader(new StringReader("<a>one<![CDATA[two]]>three</a>"));
+        staxReader.nextTag();
+        assertEquals(XMLStreamConstants.CHARACTERS, staxReader.next());
+        assertEquals("onetwothree", staxReader.getText());
+        assertFalse(StaxFactories.DEFAULT.getInputFactory().isPropertySupported("org.example.unsupported.bufferSize"));
+    }
+
+    @Test
+    void readUtf8DocumentsWithConfiguredFactories() throws Exception {
+        byte[] xml = "<a>one<![CDATA[two]]>three</a>".getBytes(StandardCharsets.UTF_8);
+        assertInstanceOf(Utf8XmlTokenizer.class, XmlStreamFactory.makeTokenizer(xml, 0, xml.length, StaxFactories.DEFAULT));
+
+        XmlTokenizer tokenizer = XmlStreamFactory.makeTokenizer(new ByteArrayInputStream(xml),
+                StaxFactories.DEFAULT.withCoalescing(true));
+        assertInstanceOf(StaxTokenizer.class, tokenizer);
+        assertEquals(XMLStreamConstants.START_ELEMENT, tokenizer.next());
+        assertEquals(XMLStreamConstants.CHARACTERS, tokenizer.next());
+        assertEquals("onetwothree", tokenizer.getText());
+        assertInstanceOf(StaxTokenizer.class, XmlStreamFactory.makeTokenizer(xml, 0, xml.length,
+                StaxFactories.DEFAULT.withCoalescing(true)));
+    }
+
+}
@@ -0,0 +1,186 @@
+/* Copyright 2012 Red Star Development / Dave Schoorl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.rsdev.xb4j.util;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.jupiter.api.Test;
+
+class Utf8XmlTokenizerTest {
+
+    @Test
+    void readElementsWithNamespacesAndAttributes() throws XMLStreamException {
+        XmlTokenizer tokenizer = makeTokenizer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- comment -->\n"
+                + "<a:root xmlns:a=\"urn:a\" xmlns=\"urn:default\" id='1' a:type=\"x\"><child/></a:root>");
+        assertEquals(START_ELEMENT, tokenizer.next());
+        assertEquals(new QName("urn:a", "root"), tokenizer.getName());
+        assertEquals("a", tokenizer.getName().getPrefix());
+        assertEquals(2, tokenizer.getAttributeCount());
+        assertEquals(new QName("id"), tokenizer.getAttributeName(0));
+        assertEquals("1", tokenizer.getAttributeValue(0));
+        assertEquals("urn:a", tokenizer.getAttributeNamespace(1));
+        assertEquals("type", tokenizer.getAttributeLocalName(1));
+        assertEquals(3, tokenizer.getLocation().getLineNumber());
+
+        assertEquals(START_ELEMENT, tokenizer.next());
+        assertEquals(new QName("urn:default", "child"), tokenizer.getName());
+        assertEquals(0, tokenizer.getAttributeCount());
+        assertEquals(END_ELEMENT, tokenizer.next());
+        assertEquals("child", tokenizer.getLocalName());
+        assertEquals(END_ELEMENT, tokenizer.next());
+        assertEquals("urn:a", tokenizer.getNamespaceURI());
+        assertEquals(END_DOCUMENT, tokenizer.next());
+    }
+
+    @Test
+    void decodeTextReferencesAndCData() throws XMLStreamException {
+        XmlTokenizer tokenizer = makeTokenizer("<root attr=\"a&amp;b\tc\">&lt;&#233;&#x20AC;é€😀\r\n"
+                + "<![CDATA[<b>]]]></root>");
+        assertEquals(START_ELEMENT, tokenizer.next());
+        assertEquals("a&b c", tokenizer.getAttributeValue(0));
+        assertEquals(CHARACTERS, tokenizer.next());
+        assertEquals("<é€é€😀\n", tokenizer.getText());
+        assertEquals(CDATA, tokenizer.next());
+        assertEquals("<b>]", new String(tokenizer.getTextCharacters(), tokenizer.getTextStart(), tokenizer.getTextLength()));
+        assertEquals(END_ELEMENT, tokenizer.next());
+    }
+
+    @Test
+    void reuseNameStrings() throws XMLStreamException {
+        XmlTokenizer tokenizer = makeTokenizer("<root><item/><item/></root>");
+        tokenizer.next();
+        tokenizer.next();
+        String first = tokenizer.getLocalName();
+        tokenizer.next();
+        tokenizer.next();
+        assertSame(first, tokenizer.getLocalName());
+    }
+
+    @Test
+    void readTextAcrossBufferBoundaries() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200 * 1024) {
+            text.append("tekst € ");
+        }
+        XmlTokenizer tokenizer = makeTokenizer("<root>" + text + "</root>");
+        tokenizer.next();
+        assertEquals(CHARACTERS, tokenizer.next());
+        char[] chunk = new char[1000];
+        StringBuilder copy = new StringBuilder();
+        int copied = 0;
+        while ((copied = tokenizer.getTextCharacters(copy.length(), chunk, 0, chunk.length)) > 0) {
+            copy.append(chunk, 0, copied);
+        }
+        assertEquals(text.toString(), copy.toString());
+        assertEquals(END_ELEMENT, tokenizer.next());
+    }
+
+    @Test
+    void rejectMalformedXml() throws XMLStreamException {
+        XmlTokenizer tokenizer = makeTokenizer("<root><child></root>");
+        tokenizer.next();
+        tokenizer.next();
+        assertThrows(XMLStreamException.class, () -> tokenizer.next());
+
+        XmlTokenizer unbound = makeTokenizer("<a:root/>");
+        assertThrows(XMLStreamException.class, () -> unbound.next());
+
+        XmlTokenizer doctype = makeTokenizer("<!DOCTYPE root><root/>");
+        assertThrows(XMLStreamException.class, () -> doctype.next());
+
+        XmlTokenizer latin1 = makeTokenizer("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root/>");
+        assertThrows(XMLStreamException.class, () -> latin1.next());
+    }
+
+    @Test
+    void fallbackToStaxWhenDocumentCannotBeTokenized() {
+        assertInstanceOf(Utf8XmlTokenizer.class, XmlStreamFactory.makeTokenizer(toStream("<!-- c --><root/>")));
+        assertInstanceOf(StaxTokenizer.class, XmlStreamFactory.makeTokenizer(toStream("<!DOCTYPE root><root/>")));
+        assertInstanceOf(StaxTokenizer.class, XmlStreamFactory.makeTokenizer(
+                new ByteArrayInputStream("<root/>".getBytes(StandardCharsets.UTF_16))));
+        assertTrue(canTokenize("<?xml version='1.0' encoding='utf-8'?><root/>"));
+        assertFalse(canTokenize("<?xml version='1.0' encoding='windows-1252'?><root/>"));
+        assertFalse(canTokenize("<?xml version='1.0'?><!-- unfinished comment"));
+    }
+
+    @Test
+    void unmarshallSameEventsAsStax() throws XMLStreamException {
+        String xml = "<root>\n  <child a=\"1\">Dit is<!--comment--> tekst</child>\n</root>";
+        RecordAndPlaybackXMLStreamReader staxReader = new RecordAndPlaybackXMLStreamReader(makeTokenizer(xml),
+                LocationTracking.FULL, null, RecordingBudget.UNLIMITED);
+        assertTrue(staxReader.isNextAnElementStart(new QName("root")));
+        assertTrue(staxReader.isNextAnElementStart(new QName("child")));
+        assertEquals("1", staxReader.getAttributeValue(new QName("a")));
+        assertEquals("Dit is tekst", staxReader.getElementText());
+        assertTrue(staxReader.isNextAnElementEnd(new QName("child")));
+        assertTrue(staxReader.isNextAnElementEnd(new QName("root")));
+    }
+
+    @Test
+    void readConcatenatedDocumentsAndReset() throws XMLStreamException {
+        Utf8XmlTokenizer tokenizer = new Utf8XmlTokenizer(toStream("<a/>\n<?xml version=\"1.0\"?><b>tekst</b>"));
+        tokenizer.setMultiDocument(true);
+        assertTrue(tokenizer.nextDocument());
+        assertEquals(START_ELEMENT, tokenizer.next());
+        assertEquals(END_ELEMENT, tokenizer.next());
+        assertEquals(END_DOCUMENT, tokenizer.next());
+        assertTrue(tokenizer.nextDocument());
+        assertEquals(START_ELEMENT, tokenizer.next());
+        assertEquals("b", tokenizer.getLocalName());
+        assertEquals(CHARACTERS, tokenizer.next());
+        assertEquals(END_ELEMENT, tokenizer.next());
+        assertFalse(tokenizer.nextDocument());
+
+        tokenizer.reset(toStream("<c/>"));
+        assertEquals(START_ELEMENT, tokenizer.next());
+        assertEquals("c", tokenizer.getLocalName());
+        assertEquals(1, tokenizer.getLocation().getColumnNumber());
+    }
+
+    private static boolean canTokenize(String prolog) {
+        byte[] bytes = bytes(prolog);
+        return Utf8XmlTokenizer.canTokenize(bytes, bytes.length);
+    }
+
+    private static XmlTokenizer makeTokenizer(String xml) throws XMLStreamException {
+        return new Utf8XmlTokenizer(toStream(xml));
+    }
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(bytes(xml));
+    }
+
+    private static byte[] bytes(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+}